@@ -0,0 +1,117 @@
+package com.bhupender.Hyperion.benchmark;
+
+import com.bhupender.Hyperion.service.DownloadTarget;
+import com.bhupender.Hyperion.service.PreallocatedFileTarget;
+import com.bhupender.Hyperion.support.RangeHttpServer;
+import com.bhupender.Hyperion.transport.HttpClientTransport;
+import com.bhupender.Hyperion.transport.TransportResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of fetching one chunk, from sending the range request to having written the
+ * last byte to a preallocated file, while {@code @Threads} workers fetch concurrently. The sample
+ * mode reports the percentiles, including p99 and p99.9, of the per-chunk time.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+public class ChunkFetchBenchmark {
+
+    @Param("67108864")
+    public int fileSize;
+
+    @Param({"262144", "1048576", "8388608"})
+    public int chunkSize;
+
+    @Param("262144")
+    public int bufferSize;
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param({"0", "10"})
+    public long jitterMillis;
+
+    @Param("0")
+    public long linkBytesPerSecond;
+
+    private RangeHttpServer server;
+    private HttpClientTransport transport;
+    private DownloadTarget target;
+    private Path directory;
+    private String url;
+
+    @State(Scope.Thread)
+    public static class Worker {
+        ByteBuffer buffer;
+
+        @Setup(Level.Trial)
+        public void setUp(ChunkFetchBenchmark benchmark) {
+            buffer = ByteBuffer.allocateDirect(benchmark.bufferSize);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new RangeHttpServer();
+        server.setLatency(latencyMillis, jitterMillis);
+        server.setBytesPerSecond(linkBytesPerSecond);
+        url = server.serve("/chunks.bin", RangeHttpServer.randomBytes(fileSize, 42));
+        transport = new HttpClientTransport(true, 10_000, 30_000);
+        directory = BenchmarkFiles.createDirectory();
+        target = new PreallocatedFileTarget(directory.resolve("chunks.bin"), fileSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        target.close();
+        server.close();
+        BenchmarkFiles.delete(directory);
+    }
+
+    @Benchmark
+    public long fetchChunk(Worker worker) throws Exception {
+        int chunks = fileSize / chunkSize;
+        long start = (long) ThreadLocalRandom.current().nextInt(chunks) * chunkSize;
+        long end = start + chunkSize - 1;
+        ByteBuffer buffer = worker.buffer;
+        long written = 0;
+        try (TransportResponse response = transport.get(url, Map.of("Range", "bytes=" + start + "-" + end));
+             DownloadTarget.ChunkWriter writer = target.openChunk(0, start)) {
+            ReadableByteChannel body = response.body();
+            while (body.read(buffer.clear()) >= 0) {
+                written += buffer.flip().remaining();
+                writer.write(buffer);
+            }
+        }
+        if (written != chunkSize) {
+            throw new EOFException("Received " + written + " of " + chunkSize + " bytes");
+        }
+        return written;
+    }
+}
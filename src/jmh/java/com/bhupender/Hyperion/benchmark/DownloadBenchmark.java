@@ -0,0 +1,195 @@
+package com.bhupender.Hyperion.benchmark;
+
+import com.bhupender.Hyperion.dto.DownloadTaskFactory;
+import com.bhupender.Hyperion.dto.DownloadTaskFactoryImpl;
+import com.bhupender.Hyperion.dto.EventLoopDownloadTaskFactory;
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
+import com.bhupender.Hyperion.service.BandwidthLimiter;
+import com.bhupender.Hyperion.service.BufferPool;
+import com.bhupender.Hyperion.service.ConnectionLimiter;
+import com.bhupender.Hyperion.service.ContentCache;
+import com.bhupender.Hyperion.service.DownloadMetrics;
+import com.bhupender.Hyperion.service.DownloadService;
+import com.bhupender.Hyperion.service.ResourceProbe;
+import com.bhupender.Hyperion.service.RetryPolicy;
+import com.bhupender.Hyperion.support.RangeHttpServer;
+import com.bhupender.Hyperion.transport.EventLoopGroup;
+import com.bhupender.Hyperion.transport.HttpClientTransport;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Whole downloads through {@link DownloadService}, from the probe to the finalized file, against a
+ * local {@link RangeHttpServer}. Besides downloads per second, the {@code megabytes} counter reports
+ * the throughput in MB/s and {@code cpuMillis} the CPU time the whole process spent per second,
+ * server included, which is how the threaded and the event-loop engine are compared.
+ * <p>
+ * {@code kilobytesPerTransfer} is the memory an active transfer takes: the most heap and direct
+ * memory in use while a download ran, above what was in use before it started, divided by its
+ * parallel ranges. The heap part includes garbage not collected yet, so it is an upper bound, to be
+ * read next to the allocation rate per operation of the GC profiler.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+public class DownloadBenchmark {
+
+    @Param("33554432")
+    public int fileSize;
+
+    @Param({"1048576", "8388608"})
+    public int chunkSize;
+
+    @Param({"1", "4", "8"})
+    public int parallelism;
+
+    @Param({"65536", "262144"})
+    public int bufferSize;
+
+    // Per-download limit in bytes per second, zero for none
+    @Param({"0", "67108864"})
+    public int maxBytesPerSecond;
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param("0")
+    public long jitterMillis;
+
+    // Bandwidth of every emulated connection to the server, zero for none
+    @Param("0")
+    public long linkBytesPerSecond;
+
+    // Workers that block on threads, or the non-blocking event loops
+    @Param({"threaded", "nio"})
+    public String engine;
+
+    private static final com.sun.management.OperatingSystemMXBean OS =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final BufferPoolMXBean DIRECT = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+            .filter(pool -> pool.getName().equals("direct"))
+            .findFirst()
+            .orElseThrow();
+
+    private RangeHttpServer server;
+    private ExecutorService executor;
+    private EventLoopGroup loops;
+    private EventLoopDownloadTaskFactory eventLoopFactory;
+    private DownloadService downloadService;
+    private Path directory;
+    private String url;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Transfer {
+        public double megabytes;
+        public double cpuMillis;
+        // The highest of the iteration, not a sum
+        public double kilobytesPerTransfer;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            cpuMillis = 0;
+            kilobytesPerTransfer = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new RangeHttpServer();
+        server.setLatency(latencyMillis, jitterMillis);
+        server.setBytesPerSecond(linkBytesPerSecond);
+        url = server.serve("/benchmark.bin", RangeHttpServer.randomBytes(fileSize, 42));
+        directory = BenchmarkFiles.createDirectory();
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        HttpClientTransport transport = new HttpClientTransport(true, 10_000, 30_000);
+        // A zero TTL and no content cache make every download fetch the file again, like a first download would
+        DownloadMetrics metrics = new DownloadMetrics(new SimpleMeterRegistry());
+        BufferPool bufferPool = new BufferPool(bufferSize, 64);
+        RetryPolicy retryPolicy = new RetryPolicy(5, 200, 10_000, 0.2, 5, 0.25, 1000);
+        DownloadTaskFactory taskFactory = new DownloadTaskFactoryImpl(transport, bufferPool, metrics, retryPolicy);
+        if (engine.equals("nio")) {
+            loops = new EventLoopGroup(2);
+            eventLoopFactory = new EventLoopDownloadTaskFactory(transport, bufferPool, metrics, retryPolicy, loops, executor,
+                    bufferSize, 4, 10_000, 30_000);
+            taskFactory = eventLoopFactory;
+        }
+        downloadService = new DownloadService(taskFactory,
+                new BandwidthLimiter(0, 0), new ConnectionLimiter(64, 256), new ResourceProbe(transport, 16, 0), executor, metrics,
+                new ContentCache(directory.resolve(".cache").toString(), 0));
+        setField("chunkSize", chunkSize);
+        setField("parallelism", parallelism);
+        setField("downloadDirectory", directory.toString());
+        setField("preallocate", true);
+        setField("journalEnabled", false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        if (loops != null) {
+            eventLoopFactory.close();
+            loops.close();
+        }
+        server.close();
+        BenchmarkFiles.delete(directory);
+    }
+
+    @Benchmark
+    public ProgressSnapshot download(Transfer transfer) {
+        long cpuNanos = OS.getProcessCpuTime();
+        long baseline = memoryInUse();
+        long peak = baseline;
+        downloadService.downloadFile(url, maxBytesPerSecond);
+        ProgressSnapshot progress;
+        while (!"COMPLETED".equals((progress = downloadService.getProgress(url)).state())) {
+            if ("FAILED".equals(progress.state())) {
+                throw new IllegalStateException("Download of " + url + " failed");
+            }
+            peak = Math.max(peak, memoryInUse());
+            LockSupport.parkNanos(100_000);
+        }
+        transfer.megabytes += fileSize / (1024.0 * 1024.0);
+        transfer.cpuMillis += (OS.getProcessCpuTime() - cpuNanos) / 1e6;
+        transfer.kilobytesPerTransfer = Math.max(transfer.kilobytesPerTransfer, (peak - baseline) / 1024.0 / parallelism);
+        return progress;
+    }
+
+    private static long memoryInUse() {
+        return MEMORY.getHeapMemoryUsage().getUsed() + DIRECT.getMemoryUsed();
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        var field = DownloadService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(downloadService, value);
+    }
+}
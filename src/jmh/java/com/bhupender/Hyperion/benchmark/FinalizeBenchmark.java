@@ -0,0 +1,84 @@
+package com.bhupender.Hyperion.benchmark;
+
+import com.bhupender.Hyperion.service.DownloadTarget;
+import com.bhupender.Hyperion.service.PartFileTarget;
+import com.bhupender.Hyperion.service.PreallocatedFileTarget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time {@link DownloadTarget#complete()} takes once every chunk is written: flushing a preallocated
+ * file, or merging and deleting the {@code .partN} files of the legacy target.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class FinalizeBenchmark {
+
+    @Param({"preallocated", "parts"})
+    public String target;
+
+    @Param("67108864")
+    public int fileSize;
+
+    @Param({"1048576", "8388608"})
+    public int chunkSize;
+
+    private Path directory;
+    private ByteBuffer chunk;
+    private DownloadTarget downloadTarget;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        directory = BenchmarkFiles.createDirectory();
+        byte[] data = new byte[chunkSize];
+        new Random(42).nextBytes(data);
+        chunk = ByteBuffer.allocateDirect(chunkSize).put(data).flip();
+    }
+
+    @Setup(Level.Invocation)
+    public void writeChunks() throws Exception {
+        Path file = directory.resolve("finalize.bin");
+        downloadTarget = target.equals("parts") ? new PartFileTarget(file) : new PreallocatedFileTarget(file, fileSize);
+        for (int index = 0; index * (long) chunkSize < fileSize; index++) {
+            long start = index * (long) chunkSize;
+            try (DownloadTarget.ChunkWriter writer = downloadTarget.openChunk(index, start)) {
+                writer.write(chunk.duplicate().limit((int) Math.min(chunkSize, fileSize - start)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void complete() throws Exception {
+        downloadTarget.complete();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeTarget() throws Exception {
+        downloadTarget.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws Exception {
+        BenchmarkFiles.delete(directory);
+    }
+}
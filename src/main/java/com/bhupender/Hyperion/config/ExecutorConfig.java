@@ -0,0 +1,25 @@
+package com.bhupender.Hyperion.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class ExecutorConfig {
+
+    // Virtual threads park cheaply while a worker waits for a connection slot, bandwidth or a resume,
+    // so queued downloads cost next to nothing. Set to false to fall back to a platform thread pool.
+    @Value("${download.virtualThreads:true}")
+    private boolean virtualThreads;
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService downloadExecutor() {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("download-", 0).factory());
+        }
+        return Executors.newCachedThreadPool();
+    }
+}
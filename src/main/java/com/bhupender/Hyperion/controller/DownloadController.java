@@ -1,32 +1,216 @@
 package com.bhupender.Hyperion.controller;
 
+import com.bhupender.Hyperion.dto.BatchDownloadRequest;
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
+import com.bhupender.Hyperion.dto.QueueEntry;
+import com.bhupender.Hyperion.dto.SourceStatus;
+import com.bhupender.Hyperion.dto.SubmissionStatus;
+import com.bhupender.Hyperion.service.Checksum;
+import com.bhupender.Hyperion.service.DownloadContent;
 import com.bhupender.Hyperion.service.DownloadService;
 import com.bhupender.Hyperion.service.DownloadException;
+import com.bhupender.Hyperion.service.DownloadPriority;
+import com.bhupender.Hyperion.service.ProgressBroadcaster;
+import com.bhupender.Hyperion.service.SubmissionResult;
+import com.bhupender.Hyperion.transport.ChunkTransport;
+import com.bhupender.Hyperion.transport.RequestCounters;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/downloads")
 public class DownloadController {
 
+    // Request attributes of Tomcat's sendfile support, which sends a file after the handler returns
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     @Autowired
     private DownloadService downloadService;
 
+    @Autowired
+    private ChunkTransport transport;
+
+    @Autowired
+    private ProgressBroadcaster progressBroadcaster;
+
+    @Value("${download.batch.maxUrls:1000}")
+    private int maxBatchUrls;
+
     @PostMapping("/download")
-    public String download(@RequestParam String url, @RequestParam(required = false) Integer maxBytesPerSecond) {
+    public String download(@RequestParam String url, @RequestParam(required = false) Integer maxBytesPerSecond,
+                           @RequestParam(defaultValue = "NORMAL") DownloadPriority priority,
+                           @RequestParam(required = false) String checksum,
+                           @RequestParam(required = false) List<String> mirror) {
         if (maxBytesPerSecond == null) {
             maxBytesPerSecond = 0;
         }
         System.out.println("We here to download");
-        downloadService.downloadFile(url, maxBytesPerSecond);
+        SubmissionResult result = downloadService.downloadFile(url, mirror != null ? mirror : List.of(), maxBytesPerSecond, priority,
+                checksum != null ? Checksum.parse(checksum) : null);
+        if (result == SubmissionResult.QUEUED) {
+            return "Download queued for URL: " + url;
+        }
+        if (result == SubmissionResult.ATTACHED) {
+            return "Download already in progress for URL: " + url;
+        }
+        if (result == SubmissionResult.CACHED) {
+            return "Download served from cache for URL: " + url;
+        }
         return "Download started for URL: " + url;
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<List<SubmissionStatus>> downloadBatch(@RequestBody BatchDownloadRequest request) {
+        if (request.urls() == null || request.urls().isEmpty() || request.urls().size() > maxBatchUrls) {
+            return ResponseEntity.badRequest().build();
+        }
+        int maxBytesPerSecond = request.maxBytesPerSecond() != null ? request.maxBytesPerSecond() : 0;
+        DownloadPriority priority = request.priority() != null ? request.priority() : DownloadPriority.NORMAL;
+        Map<String, Checksum> checksums = new HashMap<>();
+        if (request.checksums() != null) {
+            request.checksums().forEach((url, checksum) -> checksums.put(url, Checksum.parse(checksum)));
+        }
+        return ResponseEntity.ok(downloadService.downloadFiles(request.urls(), maxBytesPerSecond, priority, checksums));
+    }
+
     @GetMapping("/progress")
-    public Integer getProgress(@RequestParam String url) {
-        return downloadService.getProgress(url);
+    public ResponseEntity<ProgressSnapshot> getProgress(@RequestParam String url) {
+        ProgressSnapshot progress = downloadService.getProgress(url);
+        if (progress == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(progress);
+    }
+
+    /**
+     * Streams progress as server-sent events, for the download of {@code url} or, without it, for all
+     * downloads. A stream of a single download ends once the download has completed, failed or been
+     * cancelled, or is no longer known.
+     */
+    @GetMapping(path = "/progress/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamProgress(@RequestParam(required = false) String url,
+                                                     @RequestParam(defaultValue = "0") long intervalMs) {
+        if (url != null && downloadService.getProgress(url) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emitter = new SseEmitter(0L);
+        ProgressBroadcaster.Subscription subscription = progressBroadcaster.subscribe(url, intervalMs, new ProgressBroadcaster.ProgressSink() {
+            @Override
+            public void send(String json) throws IOException {
+                emitter.send(SseEmitter.event().name("progress").data(json));
+            }
+
+            @Override
+            public void complete() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(error -> subscription.cancel());
+        return ResponseEntity.ok(emitter);
+    }
+
+    @GetMapping("/sources")
+    public ResponseEntity<List<SourceStatus>> getSources(@RequestParam String url) {
+        List<SourceStatus> sources = downloadService.getSources(url);
+        if (sources == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(sources);
+    }
+
+    /**
+     * Streams the file of {@code url} to the client while it downloads, starting the download if
+     * needed. A single byte range may be asked for. Bytes that are on disk are sent right away and the
+     * response waits for the rest; a range that is on disk entirely is handed to the container's
+     * {@code sendfile}. Answers 503 while the download waits in the queue.
+     */
+    @GetMapping("/content")
+    public ResponseEntity<StreamingResponseBody> getContent(@RequestParam String url,
+                                                            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                                            HttpServletRequest request) throws IOException {
+        DownloadContent content = downloadService.openContent(url);
+        if (content == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        long length = content.getLength();
+        long start = 0;
+        long end = length - 1;
+        List<HttpRange> ranges = range != null ? parseRanges(range) : List.of();
+        // Several ranges would need a multipart response, so they get the whole file instead
+        boolean partial = ranges.size() == 1;
+        if (partial) {
+            try {
+                start = ranges.get(0).getRangeStart(length);
+                end = ranges.get(0).getRangeEnd(length);
+            } catch (IllegalArgumentException e) {
+                start = length;
+            }
+            if (start >= length || start > end) {
+                content.close();
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                        .build();
+            }
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(partial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(end - start + 1)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (partial) {
+            response.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        if (content.getMetadata().etag() != null) {
+            response.eTag(content.getMetadata().etag());
+        }
+        if (content.isWritten(start, end) && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, content.getFile().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            content.close();
+            return response.build();
+        }
+        long first = start;
+        long last = end;
+        StreamingResponseBody body = out -> {
+            try (content) {
+                content.transferTo(first, last, Channels.newChannel(out));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bytes of " + url);
+            }
+        };
+        return response.body(body);
+    }
+
+    private static List<HttpRange> parseRanges(String range) {
+        try {
+            return HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            // A Range header that cannot be parsed is ignored
+            return List.of();
+        }
     }
 
     @PostMapping("/pause")
@@ -41,6 +225,51 @@ public class DownloadController {
         return "Download resumed for URL: " + url;
     }
 
+    @GetMapping("/queue")
+    public List<QueueEntry> getQueue() {
+        return downloadService.getQueue();
+    }
+
+    @PostMapping("/priority")
+    public ResponseEntity<String> setPriority(@RequestParam String url, @RequestParam DownloadPriority priority) {
+        if (!downloadService.setPriority(url, priority)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No queued or active download for URL: " + url);
+        }
+        return ResponseEntity.ok("Priority set to " + priority + " for URL: " + url);
+    }
+
+    @PostMapping("/cancel")
+    public ResponseEntity<String> cancelDownload(@RequestParam String url) {
+        if (!downloadService.cancelDownload(url)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No queued or active download for URL: " + url);
+        }
+        return ResponseEntity.ok("Download cancelled for URL: " + url);
+    }
+
+    @PostMapping("/limit")
+    public ResponseEntity<String> setBandwidthLimit(@RequestParam String url, @RequestParam int maxBytesPerSecond) {
+        if (!downloadService.setBandwidthLimit(url, maxBytesPerSecond)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No active download for URL: " + url);
+        }
+        return ResponseEntity.ok("Bandwidth limit set to " + maxBytesPerSecond + " B/s for URL: " + url);
+    }
+
+    @PostMapping("/limit/global")
+    public String setGlobalBandwidthLimit(@RequestParam long maxBytesPerSecond) {
+        downloadService.setGlobalBandwidthLimit(maxBytesPerSecond);
+        return "Global bandwidth limit set to " + maxBytesPerSecond + " B/s";
+    }
+
+    @GetMapping("/transport/requests")
+    public RequestCounters getTransportRequests() {
+        return transport.getRequestCounters();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleIllegalArgument(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
     @ExceptionHandler(DownloadException.class)
     public ResponseEntity<String> handleDownloadException(DownloadException e) {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
@@ -0,0 +1,16 @@
+package com.bhupender.Hyperion.dto;
+
+import com.bhupender.Hyperion.service.DownloadPriority;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Body of {@code /downloads/batch}. The limit and priority apply to every URL of the batch, while
+ * {@code checksums} maps URLs to the {@code <algorithm>:<digest>} their file must have.
+ */
+public record BatchDownloadRequest(List<String> urls,
+                                   Integer maxBytesPerSecond,
+                                   DownloadPriority priority,
+                                   Map<String, String> checksums) {
+}
@@ -1,125 +1,564 @@
 package com.bhupender.Hyperion.dto;
 
+import com.bhupender.Hyperion.service.BufferPool;
+import com.bhupender.Hyperion.service.ByteRange;
+import com.bhupender.Hyperion.service.Checksum;
+import com.bhupender.Hyperion.service.ChecksumMismatchException;
+import com.bhupender.Hyperion.service.ConcurrencyController;
+import com.bhupender.Hyperion.service.ConnectionLimiter;
+import com.bhupender.Hyperion.service.Download;
+import com.bhupender.Hyperion.service.DownloadProgress;
+import com.bhupender.Hyperion.service.DownloadJournal;
+import com.bhupender.Hyperion.service.DownloadMetrics;
 import com.bhupender.Hyperion.service.DownloadService;
+import com.bhupender.Hyperion.service.DownloadTarget;
+import com.bhupender.Hyperion.service.DownloadVerifier;
+import com.bhupender.Hyperion.service.RangeScheduler;
+import com.bhupender.Hyperion.service.ResourceChangedException;
+import com.bhupender.Hyperion.service.ResourceMetadata;
+import com.bhupender.Hyperion.service.RetryPolicy;
+import com.bhupender.Hyperion.service.SourceSet;
+import com.bhupender.Hyperion.service.TokenBucket;
+import com.bhupender.Hyperion.service.WrittenBytes;
+import com.bhupender.Hyperion.transport.ChunkTransport;
+import com.bhupender.Hyperion.transport.TransportResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
 
-public class DownloadTask implements Runnable {
+/**
+ * Worker that keeps taking byte ranges from the download's {@link RangeScheduler} until none are
+ * left. A range can shrink while it is being fetched when an idle worker takes over its tail; the
+ * worker then stops reading as soon as it reaches the new end of the range.
+ * <p>
+ * Each range is streamed through one pooled direct buffer, and progress, journal and bandwidth
+ * accounting happen once per filled buffer rather than once per socket read, so the loop does not
+ * allocate and the shared counters and locks are touched rarely.
+ * <p>
+ * The bytes of each range are checksummed on their way from the buffer to the disk: a CRC32C for
+ * the whole-file check, and the digest the server sent for the response body if it sent one. A
+ * range whose body does not match that digest is fetched again on its own.
+ * <p>
+ * A download with mirrors picks a source for every range from its {@link SourceSet} and reports
+ * back how fast the source served it. When a mirror fails, the range goes back to the scheduler and
+ * the rest of it is fetched from whichever source is picked next.
+ * <p>
+ * Only as many workers as the download's {@link ConcurrencyController} allows fetch at the same
+ * time; the others wait between ranges. Workers feed the controller response times and failures.
+ */
+public class DownloadTask implements DownloadWorker {
 
     private static final Logger logger = LoggerFactory.getLogger(DownloadTask.class);
 
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // Smallest read between two bandwidth reservations when the download is throttled
+    private static final int MIN_THROTTLED_READ = 16 * 1024;
+    // How often a range that fails verification is fetched again before the worker gives up on it
+    private static final int MAX_REFETCHES = 2;
+    // How often an idle worker checks for a straggler to hedge while the last ranges are fetched
+    private static final long STRAGGLER_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Download download;
     private final String url;
-    private final ConcurrentHashMap<String, Integer> progressMap;
-    private final int maxBytesPerSecond;
-    private final long startByte;
-    private final long endByte;
+    private final TokenBucket bandwidth;
+    private final DownloadProgress progress;
     private Future<?> future;
     private final AtomicBoolean paused = new AtomicBoolean(false);
-    private final Object pauseLock = new Object();
-    private final int chunkIndex;
+    // A j.u.c. lock rather than a monitor so that paused virtual threads unmount from their carrier
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private final Condition resumed = pauseLock.newCondition();
     private final DownloadService downloadService;
-    private final int chunkSize;
-    private final int totalChunks;
-
-    public DownloadTask(String url, ConcurrentHashMap<String, Integer> progressMap, int maxBytesPerSecond, DownloadService downloadService, long startByte, long endByte, int chunkIndex, int chunkSize, int totalChunks) {
-        this.url = url;
-        this.progressMap = progressMap;
-        this.maxBytesPerSecond = maxBytesPerSecond;
-        this.startByte = startByte;
-        this.endByte = endByte;
-        this.chunkIndex = chunkIndex;
+    private final ChunkTransport transport;
+    private final BufferPool bufferPool;
+    private final DownloadMetrics metrics;
+    private final RetryPolicy retryPolicy;
+    private final DownloadTarget target;
+    private final RangeScheduler scheduler;
+    private final DownloadVerifier verifier;
+    private final ConcurrencyController concurrency;
+    private final WrittenBytes written;
+    // Bytes written into a file assembled from parts cannot be read before it is complete
+    private final boolean inPlace;
+    private final CRC32C crc = new CRC32C();
+    private final int workerIndex;
+    // Hedged copies write the same bytes at the same offsets, which only works for a file written in place
+    private final boolean hedging;
+    private long nextLogNanos = System.nanoTime() + LOG_INTERVAL_NANOS;
+
+    public DownloadTask(Download download, DownloadService downloadService, ChunkTransport transport,
+                        BufferPool bufferPool, DownloadMetrics metrics, RetryPolicy retryPolicy, int workerIndex) {
+        this.download = download;
+        this.url = download.getUrl();
+        this.bandwidth = download.getBandwidth();
+        this.progress = download.getProgress();
         this.downloadService = downloadService;
-        this.chunkSize = chunkSize;
-        this.totalChunks = totalChunks;
+        this.transport = transport;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.target = download.getTarget();
+        this.scheduler = download.getScheduler();
+        this.verifier = download.getVerifier();
+        this.concurrency = download.getConcurrency();
+        this.written = download.getWrittenBytes();
+        this.inPlace = target.isWrittenInPlace();
+        this.workerIndex = workerIndex;
+        this.hedging = inPlace && download.getMetadata().acceptsRanges() && retryPolicy.getHedgeSlowRatio() > 0;
     }
 
+    @Override
     public void setFuture(Future<?> future) {
         this.future = future;
     }
 
+    @Override
+    public boolean isRunning() {
+        return future != null && !future.isDone();
+    }
+
+    @Override
     public void pause() {
         paused.set(true);
     }
 
+    @Override
     public void resume() {
         paused.set(false);
-        synchronized (pauseLock) {
-            pauseLock.notifyAll();
+        pauseLock.lock();
+        try {
+            resumed.signalAll();
+        } finally {
+            pauseLock.unlock();
         }
     }
 
     @Override
     public void run() {
+        SourceSet sources = download.getSources();
+        // A range that failed stays with this worker, which fetches the rest of it after backing off
+        ByteRange range = null;
+        int failures = 0;
+        while (true) {
+            // Workers beyond the download's current stream limit wait between ranges until it grows
+            try {
+                if (range == null && !concurrency.awaitTurn(workerIndex, () -> download.isStopped() || scheduler.isComplete())) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            SourceSet.Source source = sources.acquire();
+            if (source == null) {
+                downloadService.failDownload(download, "Every source of " + url + " was dropped");
+                return;
+            }
+            // Wait for a connection slot to the host before taking a range, so that a queued worker
+            // never sits on bytes that a running one could fetch instead
+            long from = 0;
+            try (ConnectionLimiter.Permit permit = downloadService.acquireConnection(download, source.getUrl())) {
+                if (range == null && !download.isStopped()) {
+                    range = nextRange();
+                }
+                if (range == null || download.isStopped()) {
+                    sources.release(source, 0, 0);
+                } else {
+                    from = range.getPosition();
+                    long startNanos = System.nanoTime();
+                    fetchVerified(range, source);
+                    sources.release(source, range.getPosition() - from, System.nanoTime() - startNanos);
+                }
+            } catch (IOException e) {
+                if (download.isStopped() || scheduler.isComplete() || Thread.currentThread().isInterrupted()) {
+                    // Failing, cancelling or completing the download closed the target under this worker
+                    sources.release(source, 0, 0);
+                    return;
+                }
+                if (!range.isComplete() && scheduler.isActive(range)) {
+                    metrics.chunkFailed();
+                    concurrency.recordFailure();
+                    // Attempts that got some bytes through start the count over
+                    failures = range.getPosition() > from ? 1 : failures + 1;
+                    if (!recover(source, range, e, failures)) {
+                        return;
+                    }
+                    continue;
+                }
+                // The range was finished after all, or its hedged twin finished it first
+                sources.release(source, 0, 0);
+            } catch (InterruptedException e) {
+                sources.release(source, 0, 0);
+                return;
+            }
+            if (download.isStopped()) {
+                return;
+            }
+            if (range == null) {
+                if (!awaitStraggler()) {
+                    return;
+                }
+                continue;
+            }
+            logger.debug("Range {} downloaded by worker {} for URL: {}", range, workerIndex, url);
+            try {
+                verifier.advance();
+            } catch (IOException e) {
+                logger.warn("Failed to hash {} in order, the whole file will be read when it completes", url, e);
+            }
+
+            // Whichever copy of a hedged range gets here first wins, and the bytes of the loser are not counted
+            long uncounted = scheduler.resolveHedge(range);
+            if (uncounted > 0) {
+                progress.add(workerIndex, uncounted);
+            }
+            // If this was the last open range, finalize the target
+            if (scheduler.finish(range)) {
+                downloadService.completeDownload(download);
+            }
+            range = null;
+            failures = 0;
+        }
+    }
+
+    /**
+     * Returns the next range to fetch or, once nothing is left to split, a hedged copy of a range
+     * that is falling behind the others. Returns null if there is neither.
+     */
+    private ByteRange nextRange() {
+        ByteRange range = scheduler.next();
+        if (range == null && hedging) {
+            range = scheduler.hedge(retryPolicy.getHedgeSlowRatio(), retryPolicy.getHedgeMinAgeNanos(), retryPolicy::tryHedge);
+            if (range != null) {
+                metrics.chunkHedged();
+                logger.info("Hedging a straggling range of {} by fetching {} a second time", url, range);
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Waits a moment while the last ranges are being fetched by other workers. Returns true if the
+     * worker should look for a straggler to hedge, and false once no range is left that could become
+     * one.
+     */
+    private boolean awaitStraggler() {
+        if (!hedging) {
+            return false;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(STRAGGLER_POLL_NANOS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return !download.isStopped() && scheduler.hasActiveRanges();
+    }
+
+    /**
+     * Gets ready to fetch the rest of {@code range} after the attempt from {@code source} failed with
+     * {@code failure}, the {@code failures}th failure of the range in a row. A download with mirrors
+     * reports the failure to its {@link SourceSet}, which may drop the source. Returns false if the
+     * download had to be failed instead, because the bytes cannot be had from anywhere or the range
+     * failed too often.
+     */
+    private boolean recover(SourceSet.Source source, ByteRange range, IOException failure, int failures) {
+        SourceSet sources = download.getSources();
+        boolean wrongBytes = failure instanceof ResourceChangedException || failure instanceof ChecksumMismatchException;
+        if (!sources.isMultiSource()) {
+            sources.release(source, 0, 0);
+            if (wrongBytes) {
+                downloadService.failDownload(download, failure.getMessage());
+                return false;
+            }
+        } else if (!sources.reportFailure(source, failure)) {
+            downloadService.failDownload(download, "Every source of " + url + " was dropped");
+            return false;
+        } else if (wrongBytes) {
+            // The source has been dropped, so another one can take over right away
+            return true;
+        }
+        if (failures >= retryPolicy.getMaxAttempts()) {
+            downloadService.failDownload(download, "Gave up on " + range + " of " + url + " after " + failures
+                    + " failed attempts, the last one " + failure);
+            return false;
+        }
+        long delayMillis = retryPolicy.backoffMillis(failures);
+        metrics.chunkRetried();
+        logger.warn("Fetching the rest of {} from {} again in {} ms: {}", range, source.getUrl(), delayMillis, failure.toString());
         try {
-            URL downloadUrl = new URL(url);
-            HttpURLConnection connection = (HttpURLConnection) downloadUrl.openConnection();
-            connection.setRequestProperty("Range", "bytes=" + startByte + "-" + endByte);
-            int contentLength = connection.getContentLength();
-            InputStream inputStream = connection.getInputStream();
-            File file = new File("downloads/" + getFileNameFromUrl(url) + ".part" + chunkIndex);
-
-            // Ensure the directory exists
-            file.getParentFile().mkdirs();
-
-            try (FileOutputStream outputStream = new FileOutputStream(file)) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                int totalBytesRead = 0;
-                long startTime = System.currentTimeMillis(), endTime, sleepTime;
-
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return !download.isStopped();
+    }
+
+    /**
+     * Fetches {@code range} from {@code source}, fetching it again from where this attempt started
+     * if the body does not match the digest the server sent with it. Bytes that failed verification
+     * are always given back to the range, also when the worker gives up on the source.
+     */
+    private void fetchVerified(ByteRange range, SourceSet.Source source) throws IOException, InterruptedException {
+        // A hedged copy only counts towards progress once it has won, see run()
+        boolean counted = !scheduler.isHedge(range);
+        for (int attempt = 0; ; attempt++) {
+            long from = range.getPosition();
+            try {
+                fetch(range, source, counted);
+                return;
+            } catch (ChecksumMismatchException e) {
+                if (counted) {
+                    progress.add(workerIndex, -(range.getPosition() - from));
+                }
+                range.rewind(from);
+                if (attempt >= MAX_REFETCHES || download.isStopped()) {
+                    throw e;
+                }
+                metrics.chunkFailed();
+                logger.warn("{}, fetching it again", e.getMessage());
+            }
+        }
+    }
+
+    private void fetch(ByteRange range, SourceSet.Source source, boolean counted) throws IOException, InterruptedException {
+        ResourceMetadata metadata = source.getMetadata();
+        String url = source.getUrl();
+        Map<String, String> headers = new HashMap<>();
+        if (metadata.acceptsRanges()) {
+            headers.put("Range", "bytes=" + range.getPosition() + "-" + range.getEnd());
+            // Makes the server send the whole, new file instead of a range if it changed since the probe
+            String validator = metadata.ifRangeValidator();
+            if (validator != null) {
+                headers.put("If-Range", validator);
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        retryPolicy.recordRequest();
+        long requestStart = range.getPosition();
+        long requestEnd = range.getEnd();
+        long writePosition = requestStart;
+        // Bytes of a response with a digest are only published to readers such as the extractor, and
+        // flagged in the journal, once they match it, so nothing counts bytes that are fetched again
+        boolean deferPublishing = false;
+        DownloadJournal journal = download.getJournal();
+        boolean mismatched = false;
+        try (TransportResponse response = transport.get(url, headers)) {
+            // The loser of a hedged race may be stuck waiting on a stalled connection, so it is closed under it
+            range.setAbortHandler(() -> closeQuietly(response));
+            long timeToFirstByte = System.nanoTime() - startNanos;
+            metrics.recordTimeToFirstByte(timeToFirstByte);
+            concurrency.recordResponse(timeToFirstByte);
+            checkResponse(response.statusCode(), response.header("Content-Range"), metadata, range);
+            ReadableByteChannel body = response.body();
+            Checksum bodyChecksum = Checksum.ofContent(response::header);
+            MessageDigest bodyDigest = bodyChecksum != null && !bodyChecksum.isCrc32c() ? bodyChecksum.newDigest() : null;
+            deferPublishing = bodyChecksum != null;
+            crc.reset();
+            ByteBuffer buffer = bufferPool.acquire();
+            int segmentCrc;
+
+            try (DownloadTarget.ChunkWriter writer = target.openChunk(range.getId(), requestStart)) {
+                boolean endOfBody = false;
+                while (!endOfBody && !range.isComplete() && !download.isStopped()) {
                     checkPaused();
-                    outputStream.write(buffer, 0, bytesRead);
-                    totalBytesRead += bytesRead;
-                    progressMap.put(url + "-" + chunkIndex, (totalBytesRead * 100) / contentLength);
-
-                    // Throttling logic
-                    if (maxBytesPerSecond > 0) {
-                        endTime = System.currentTimeMillis();
-                        long elapsedTime = endTime - startTime;
-                        if (elapsedTime < 1000) {
-                            sleepTime = (1000 - elapsedTime);
-                            Thread.sleep(sleepTime);
-                        }
-                        startTime = System.currentTimeMillis();
+                    buffer.clear().limit((int) Math.min(readLimit(buffer.capacity()), range.remaining()));
+                    endOfBody = fill(body, buffer);
+                    if (buffer.position() == 0) {
+                        continue;
+                    }
+                    int bytesRead = buffer.flip().remaining();
+                    // Bytes past the end of the range belong to whichever worker split it
+                    int claimed = range.claim(bytesRead);
+                    buffer.limit(claimed);
+                    crc.update(buffer);
+                    if (bodyDigest != null) {
+                        bodyDigest.update(buffer.rewind());
                     }
+                    long writeNanos = System.nanoTime();
+                    try {
+                        writer.write(buffer.rewind());
+                    } catch (IOException e) {
+                        // The claimed bytes never reached the disk, so the retry has to fetch them again
+                        range.rewind(writePosition);
+                        throw e;
+                    }
+                    metrics.recordDiskWrite(System.nanoTime() - writeNanos);
+                    if (counted) {
+                        progress.add(workerIndex, claimed);
+                    }
+                    metrics.addBytes(claimed);
+                    if (!deferPublishing) {
+                        publish(journal, writePosition, writePosition + claimed);
+                    }
+                    writePosition += claimed;
+
+                    // Pay for the bytes just read from the bucket shared by all chunks of this download
+                    metrics.recordThrottleWait(bandwidth.acquire(bytesRead));
+                    logSampled(range);
+                }
+                segmentCrc = (int) crc.getValue();
+                // The body digest covers everything that was requested, so if the range was split while
+                // it was fetched the rest of the body is read and hashed anyway, though not written.
+                // Without a digest there is nothing to check and the rest is dropped with the connection
+                if (bodyChecksum != null && range.isComplete() && writePosition <= requestEnd && !download.isStopped()) {
+                    drain(body, buffer, bodyDigest);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
 
-                    logger.info("Progress for chunk {}: {}", chunkIndex, progressMap.get(url + "-" + chunkIndex));
+            if (bodyChecksum != null && range.isComplete() && !download.isStopped()) {
+                Checksum actual = bodyDigest != null
+                        ? new Checksum(bodyChecksum.algorithm(), bodyDigest.digest())
+                        : Checksum.crc32c((int) crc.getValue());
+                if (!bodyChecksum.matches(actual)) {
+                    mismatched = true;
+                    throw new ChecksumMismatchException("Bytes " + requestStart + "-" + requestEnd + " of " + url
+                            + " have " + actual + " but the server sent " + bodyChecksum);
                 }
             }
+            verifier.recordSegment(requestStart, writePosition - requestStart, segmentCrc);
+        } finally {
+            range.setAbortHandler(null);
+            // Bytes of a response that failed for another reason are kept, unverified like those of servers without digests
+            if (deferPublishing && !mismatched && writePosition > requestStart) {
+                publish(journal, requestStart, writePosition);
+            }
+        }
+
+        if (!range.isComplete() && !download.isStopped()) {
+            throw new EOFException("Connection closed with " + range.remaining() + " bytes of " + range + " left");
+        }
+        metrics.recordChunk(System.nanoTime() - startNanos);
+    }
 
-            inputStream.close();
-            logger.info("Chunk {} downloaded for URL: {}", chunkIndex, url);
+    /**
+     * Flags the bytes {@code [from, to)} in the journal and makes them readable, if the target allows it.
+     */
+    private void publish(DownloadJournal journal, long from, long to) {
+        if (journal != null) {
+            journal.markWritten(from, to);
+        }
+        if (inPlace) {
+            written.add(from, to);
+        }
+    }
 
-            // If all chunks are downloaded, merge them
-            if (progressMap.values().stream().filter(progress -> progress == 100).count() == totalChunks) {
-                downloadService.mergeChunks(url, totalChunks);
+    private static void closeQuietly(TransportResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close an abandoned response", e);
+        }
+    }
+
+    /**
+     * Hashes the rest of {@code body} into the CRC32C and, if not null, {@code bodyDigest}. The
+     * bytes cross the same link as the ones that are kept, so they are paid for from the bucket too.
+     */
+    private void drain(ReadableByteChannel body, ByteBuffer buffer, MessageDigest bodyDigest) throws IOException, InterruptedException {
+        boolean endOfBody = false;
+        while (!endOfBody && !download.isStopped()) {
+            checkPaused();
+            buffer.clear().limit(readLimit(buffer.capacity()));
+            endOfBody = fill(body, buffer);
+            int bytesRead = buffer.flip().remaining();
+            crc.update(buffer);
+            if (bodyDigest != null) {
+                bodyDigest.update(buffer.rewind());
+            }
+            metrics.recordThrottleWait(bandwidth.acquire(bytesRead));
+        }
+    }
+
+    /**
+     * Reads until {@code buffer} is full or the body ends, returning whether it ended.
+     */
+    private static boolean fill(ReadableByteChannel body, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (body.read(buffer) < 0) {
+                return true;
             }
-        } catch (IOException | InterruptedException e) {
-            logger.error("Error during download: ", e);
+        }
+        return false;
+    }
+
+    /**
+     * Caps how much is read per reservation of a throttled download to about an eighth of a second
+     * of its rate, so a whole buffer never turns into one long sleep.
+     */
+    private int readLimit(int capacity) {
+        long rate = bandwidth.getRate();
+        if (rate <= 0) {
+            return capacity;
+        }
+        return (int) Math.min(capacity, Math.max(MIN_THROTTLED_READ, rate / 8));
+    }
+
+    private void logSampled(ByteRange range) {
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - nextLogNanos >= 0) {
+            nextLogNanos = now + LOG_INTERVAL_NANOS;
+            logger.debug("Progress for range {}: {} bytes left", range.getId(), range.remaining());
+        }
+    }
+
+    /**
+     * Checks that a response with {@code status} and {@code contentRange} carries the bytes of
+     * {@code range} of the file described by {@code metadata}.
+     */
+    static void checkResponse(int status, Optional<String> contentRange, ResourceMetadata metadata, ByteRange range) throws IOException {
+        String url = metadata.url();
+        if (!metadata.acceptsRanges()) {
+            if (status != 200) {
+                throw new IOException("Unexpected HTTP status " + status + " for " + url);
+            }
+            return;
+        }
+        if (status == 200) {
+            throw new ResourceChangedException("Server answered a range request with the whole file, " + url + " has changed");
+        }
+        if (status != 206) {
+            throw new IOException("Unexpected HTTP status " + status + " for " + range);
+        }
+        String total = contentRange.map(value -> value.substring(value.lastIndexOf('/') + 1)).orElse("*");
+        if (!total.equals("*") && !total.equals(Long.toString(metadata.contentLength()))) {
+            throw new ResourceChangedException("Length of " + url + " changed from " + metadata.contentLength() + " to " + total);
         }
     }
 
     private void checkPaused() {
-        synchronized (pauseLock) {
+        if (!paused.get()) {
+            return;
+        }
+        pauseLock.lock();
+        try {
             while (paused.get()) {
                 try {
-                    pauseLock.wait();
+                    resumed.await();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
+                    return;
                 }
             }
+        } finally {
+            pauseLock.unlock();
         }
     }
-
-    private String getFileNameFromUrl(String url) {
-        return url.substring(url.lastIndexOf('/') + 1);
-    }
 }
@@ -1,9 +1,8 @@
 package com.bhupender.Hyperion.dto;
 
+import com.bhupender.Hyperion.service.Download;
 import com.bhupender.Hyperion.service.DownloadService;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 public interface DownloadTaskFactory {
-    DownloadTask create(String url, ConcurrentHashMap<String, Integer> progressMap, int maxBytesPerSecond, DownloadService downloadService, long startByte, long endByte, int chunkIndex, int chunkSize, int totalChunks);
+    DownloadWorker create(Download download, DownloadService downloadService, int workerIndex);
 }
@@ -1,14 +1,32 @@
 package com.bhupender.Hyperion.dto;
 
+import com.bhupender.Hyperion.service.BufferPool;
+import com.bhupender.Hyperion.service.Download;
+import com.bhupender.Hyperion.service.DownloadMetrics;
 import com.bhupender.Hyperion.service.DownloadService;
+import com.bhupender.Hyperion.service.RetryPolicy;
+import com.bhupender.Hyperion.transport.ChunkTransport;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 @Component
+@ConditionalOnProperty(name = "download.engine", havingValue = "threaded", matchIfMissing = true)
 public class DownloadTaskFactoryImpl implements DownloadTaskFactory {
+
+    private final ChunkTransport transport;
+    private final BufferPool bufferPool;
+    private final DownloadMetrics metrics;
+    private final RetryPolicy retryPolicy;
+
+    public DownloadTaskFactoryImpl(ChunkTransport transport, BufferPool bufferPool, DownloadMetrics metrics, RetryPolicy retryPolicy) {
+        this.transport = transport;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+    }
+
     @Override
-    public DownloadTask create(String url, ConcurrentHashMap<String, Integer> progressMap, int maxBytesPerSecond, DownloadService downloadService, long startByte, long endByte, int chunkIndex, int chunkSize, int totalChunks) {
-        return new DownloadTask(url, progressMap, maxBytesPerSecond, downloadService, startByte, endByte, chunkIndex, chunkSize, totalChunks);
+    public DownloadWorker create(Download download, DownloadService downloadService, int workerIndex) {
+        return new DownloadTask(download, downloadService, transport, bufferPool, metrics, retryPolicy, workerIndex);
     }
 }
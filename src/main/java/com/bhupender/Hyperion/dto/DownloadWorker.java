@@ -0,0 +1,21 @@
+package com.bhupender.Hyperion.dto;
+
+import java.util.concurrent.Future;
+
+/**
+ * One stream of a download as the service sees it, whichever engine drives it. The service submits
+ * every worker to the download executor once and controls it through the methods below.
+ */
+public interface DownloadWorker extends Runnable {
+
+    void setFuture(Future<?> future);
+
+    /**
+     * Whether the worker has been submitted and not yet finished.
+     */
+    boolean isRunning();
+
+    void pause();
+
+    void resume();
+}
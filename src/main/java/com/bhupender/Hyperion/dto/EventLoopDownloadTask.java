@@ -0,0 +1,789 @@
+package com.bhupender.Hyperion.dto;
+
+import com.bhupender.Hyperion.service.ByteRange;
+import com.bhupender.Hyperion.service.Checksum;
+import com.bhupender.Hyperion.service.ChecksumMismatchException;
+import com.bhupender.Hyperion.service.ConcurrencyController;
+import com.bhupender.Hyperion.service.ConnectionLimiter;
+import com.bhupender.Hyperion.service.Download;
+import com.bhupender.Hyperion.service.DownloadJournal;
+import com.bhupender.Hyperion.service.DownloadMetrics;
+import com.bhupender.Hyperion.service.DownloadProgress;
+import com.bhupender.Hyperion.service.DownloadService;
+import com.bhupender.Hyperion.service.RangeScheduler;
+import com.bhupender.Hyperion.service.ResourceChangedException;
+import com.bhupender.Hyperion.service.ResourceMetadata;
+import com.bhupender.Hyperion.service.RetryPolicy;
+import com.bhupender.Hyperion.service.TokenBucket;
+import com.bhupender.Hyperion.service.WrittenBytes;
+import com.bhupender.Hyperion.transport.ChunkedDecoder;
+import com.bhupender.Hyperion.transport.EventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Worker of the non-blocking engine. Instead of a thread that blocks in reads and sleeps, it is a
+ * state machine driven by one {@link EventLoop}, which runs any number of them over non-blocking
+ * sockets. Each range is requested over plain HTTP/1.1, on a connection that is kept alive from one
+ * range to the next, and written with an {@link AsynchronousFileChannel}.
+ * <p>
+ * Reading and writing are coupled for backpressure: while a buffer is being written the socket is
+ * not read, so a slow disk slows the server down through TCP flow control instead of piling up
+ * memory, and a transfer never holds more than its one buffer. Bandwidth limits work the same way,
+ * by pausing reads for as long as the token bucket asks for.
+ * <p>
+ * A request that sees no bytes from the server for the idle timeout fails like a dropped
+ * connection and is retried, so a stalled server cannot hold a connection permit forever.
+ * <p>
+ * Failures are handled like in {@link DownloadTask}: a body that does not match the digest the
+ * server sent with it is fetched again, and so are the bytes of a range that could not be written,
+ * so only running out of attempts fails the download. Bytes of a response with a digest are only
+ * flagged in the journal and made readable once they matched it.
+ * <p>
+ * Only the steps that may wait on other downloads run off the loop, on the download executor:
+ * waiting for the concurrency limit and a connection permit before a range, and hashing and
+ * completing the file after one.
+ */
+public class EventLoopDownloadTask implements DownloadWorker, EventLoop.Handler {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventLoopDownloadTask.class);
+
+    private static final byte[] END_OF_HEAD = {'\r', '\n', '\r', '\n'};
+    // Smallest read between two bandwidth reservations when the download is throttled
+    private static final int MIN_THROTTLED_READ = 16 * 1024;
+
+    private enum Phase { IDLE, CONNECTING, SENDING, READING_HEAD, READING_BODY, WRITING, THROTTLED, DONE }
+
+    private final Download download;
+    private final String url;
+    private final ResourceMetadata metadata;
+    private final DownloadService downloadService;
+    private final DownloadMetrics metrics;
+    private final RetryPolicy retryPolicy;
+    private final EventLoop loop;
+    private final ExecutorService executor;
+    private final ExecutorService diskExecutor;
+    private final RangeScheduler scheduler;
+    private final DownloadProgress progress;
+    private final TokenBucket bandwidth;
+    private final ConcurrencyController concurrency;
+    private final WrittenBytes written;
+    private final int workerIndex;
+    private final long connectTimeoutNanos;
+    private final long idleTimeoutNanos;
+    private final ByteBuffer buffer;
+    private final CRC32C crc = new CRC32C();
+    private final CRC32C bodyCrc = new CRC32C();
+    private final String host;
+    private final int port;
+    private final String requestTarget;
+    private final String hostHeader;
+    private volatile boolean started;
+    private volatile boolean paused;
+    private volatile Phase phase = Phase.IDLE;
+    // Resolved on the executor, as a lookup may block
+    private volatile InetSocketAddress address;
+
+    // Everything below is only touched on the loop thread, or handed over to the executor and back
+    private AsynchronousFileChannel file;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean reusable;
+    // Whether the current request went out on a connection kept alive from the previous one
+    private boolean reused;
+    private ConnectionLimiter.Permit permit;
+    private ByteRange range;
+    private int failures;
+    private int attempt;
+    private long attemptStart;
+    private long writePosition;
+    private long requestEnd;
+    // Digest the server sent for the current response body, hashed into bodyCrc or bodyDigest
+    private Checksum bodyChecksum;
+    private MessageDigest bodyDigest;
+    // Reading the rest of a body whose range was split, only to check it against its digest
+    private boolean draining;
+    // Bytes of the body still to come, unknown until its last chunk when it is chunked
+    private long bodyRemaining;
+    private ChunkedDecoder chunked;
+    private long startNanos;
+    // Last time the server was heard from, or the worker stopped waiting for it
+    private long lastActivityNanos;
+    private ByteBuffer request;
+    // Waiting for a resume with reads switched off
+    private boolean parked;
+
+    public EventLoopDownloadTask(Download download, DownloadService downloadService, DownloadMetrics metrics, RetryPolicy retryPolicy,
+                                 EventLoop loop, ExecutorService executor, ExecutorService diskExecutor, int bufferSize,
+                                 long connectTimeoutMillis, long idleTimeoutMillis, int workerIndex) {
+        this.download = download;
+        this.url = download.getUrl();
+        this.metadata = download.getMetadata();
+        this.downloadService = downloadService;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.loop = loop;
+        this.executor = executor;
+        this.diskExecutor = diskExecutor;
+        this.scheduler = download.getScheduler();
+        this.progress = download.getProgress();
+        this.bandwidth = download.getBandwidth();
+        this.concurrency = download.getConcurrency();
+        this.written = download.getWrittenBytes();
+        this.workerIndex = workerIndex;
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        URI uri = URI.create(url);
+        this.host = uri.getHost();
+        this.port = uri.getPort() > 0 ? uri.getPort() : 80;
+        this.hostHeader = uri.getPort() > 0 ? host + ":" + port : host;
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        this.requestTarget = uri.getRawQuery() != null ? path + "?" + uri.getRawQuery() : path;
+    }
+
+    /**
+     * Returns true if the event loops can fetch {@code download}: plain HTTP from a single source into
+     * a file written in place.
+     */
+    public static boolean supports(Download download) {
+        return "http".equalsIgnoreCase(URI.create(download.getUrl()).getScheme())
+                && !download.getSources().isMultiSource()
+                && download.getTarget().isWrittenInPlace();
+    }
+
+    @Override
+    public void setFuture(Future<?> future) {
+        // run() returns as soon as the worker is handed over, so its future says nothing about it
+    }
+
+    @Override
+    public boolean isRunning() {
+        return started && phase != Phase.DONE;
+    }
+
+    @Override
+    public void pause() {
+        paused = true;
+    }
+
+    @Override
+    public void resume() {
+        paused = false;
+        loop.execute(this::unpark);
+    }
+
+    private void unpark() {
+        if (download.isStopped() && channel != null && phase != Phase.WRITING) {
+            // Stopping resumes every worker; a writing one notices once its write completes
+            stop();
+        } else if (parked) {
+            parked = false;
+            resumeReading();
+        }
+    }
+
+    /**
+     * Hands the worker to its event loop and returns right away, so the submitting thread is free.
+     */
+    @Override
+    public void run() {
+        started = true;
+        executor.execute(this::admit);
+    }
+
+    /**
+     * Waits for this worker's turn and a connection permit, then takes a range unless it still holds
+     * a failed one, and starts fetching it on the loop. Runs on the executor, as both may block.
+     */
+    private void admit() {
+        try {
+            if (range == null && !concurrency.awaitTurn(workerIndex, () -> download.isStopped() || scheduler.isComplete())) {
+                loop.execute(this::finish);
+                return;
+            }
+            if (address == null) {
+                address = new InetSocketAddress(host, port);
+            }
+            ConnectionLimiter.Permit granted = downloadService.acquireConnection(download, url);
+            ByteRange next = range;
+            if (next == null && !download.isStopped()) {
+                next = scheduler.next();
+            }
+            if (next == null || download.isStopped()) {
+                granted.close();
+                loop.execute(this::finish);
+                return;
+            }
+            ByteRange admitted = next;
+            loop.execute(() -> start(admitted, granted));
+        } catch (InterruptedException e) {
+            loop.execute(this::finish);
+        }
+    }
+
+    private void start(ByteRange next, ConnectionLimiter.Permit granted) {
+        if (download.isStopped()) {
+            granted.close();
+            finish();
+            return;
+        }
+        range = next;
+        permit = granted;
+        attempt++;
+        attemptStart = range.getPosition();
+        writePosition = attemptStart;
+        requestEnd = range.getEnd();
+        bodyChecksum = null;
+        draining = false;
+        crc.reset();
+        buffer.clear();
+        startNanos = System.nanoTime();
+        lastActivityNanos = startNanos;
+        retryPolicy.recordRequest();
+        request = buildRequest();
+        if (idleTimeoutNanos > 0) {
+            watchIdle(attempt, idleTimeoutNanos);
+        }
+        try {
+            if (file == null) {
+                file = AsynchronousFileChannel.open(download.getTarget().getFile(), Set.of(StandardOpenOption.WRITE), diskExecutor);
+            }
+            reused = channel != null && reusable;
+            if (reused) {
+                phase = Phase.SENDING;
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                connect();
+            }
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void connect() throws IOException {
+        closeConnection();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        phase = Phase.CONNECTING;
+        if (channel.connect(address)) {
+            phase = Phase.SENDING;
+            key = loop.register(channel, SelectionKey.OP_WRITE, this);
+        } else {
+            key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+            int connecting = attempt;
+            loop.schedule(() -> {
+                if (attempt == connecting && phase == Phase.CONNECTING) {
+                    failed(new ConnectException("Timed out connecting to " + address));
+                }
+            }, connectTimeoutNanos);
+        }
+    }
+
+    /**
+     * Fails attempt {@code watched} once the server has sent nothing for the idle timeout, checking
+     * again after {@code delayNanos} for as long as the attempt runs. Time spent connecting, writing,
+     * throttled or paused does not count.
+     */
+    private void watchIdle(int watched, long delayNanos) {
+        loop.schedule(() -> {
+            if (attempt != watched || phase == Phase.IDLE || phase == Phase.DONE) {
+                return;
+            }
+            long now = System.nanoTime();
+            boolean awaitingServer = !parked && (phase == Phase.SENDING || phase == Phase.READING_HEAD || phase == Phase.READING_BODY);
+            if (!awaitingServer) {
+                lastActivityNanos = now;
+            }
+            long idle = now - lastActivityNanos;
+            if (idle >= idleTimeoutNanos) {
+                failed(new SocketTimeoutException("Nothing received from " + address + " for "
+                        + TimeUnit.NANOSECONDS.toMillis(idle) + " ms"));
+            } else {
+                watchIdle(watched, idleTimeoutNanos - idle);
+            }
+        }, delayNanos);
+    }
+
+    private ByteBuffer buildRequest() {
+        StringBuilder head = new StringBuilder(256)
+                .append("GET ").append(requestTarget).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(hostHeader).append("\r\n")
+                .append("Accept-Encoding: identity\r\n");
+        if (metadata.acceptsRanges()) {
+            head.append("Range: bytes=").append(attemptStart).append('-').append(requestEnd).append("\r\n");
+            String validator = metadata.ifRangeValidator();
+            if (validator != null) {
+                head.append("If-Range: ").append(validator).append("\r\n");
+            }
+        }
+        head.append("\r\n");
+        return ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public void ready(SelectionKey selected) {
+        if (download.isStopped()) {
+            stop();
+            return;
+        }
+        lastActivityNanos = System.nanoTime();
+        try {
+            switch (phase) {
+                case CONNECTING -> {
+                    if (channel.finishConnect()) {
+                        phase = Phase.SENDING;
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                }
+                case SENDING -> {
+                    channel.write(request);
+                    if (!request.hasRemaining()) {
+                        phase = Phase.READING_HEAD;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+                case READING_HEAD -> readHead();
+                case READING_BODY -> readBody();
+                default -> key.interestOps(0);
+            }
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void readHead() throws IOException {
+        if (channel.read(buffer) < 0) {
+            if (reused && buffer.position() == 0) {
+                // The server timed out the idle connection before it saw the request
+                reused = false;
+                request.rewind();
+                connect();
+                return;
+            }
+            throw new EOFException("Connection closed before the response to " + range + " of " + url);
+        }
+        int end = indexOf(buffer, END_OF_HEAD);
+        if (end < 0) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Response headers of " + url + " do not fit into " + buffer.capacity() + " bytes");
+            }
+            return;
+        }
+        long timeToFirstByte = System.nanoTime() - startNanos;
+        metrics.recordTimeToFirstByte(timeToFirstByte);
+        concurrency.recordResponse(timeToFirstByte);
+
+        byte[] bytes = new byte[end];
+        buffer.get(0, bytes);
+        String[] lines = new String(bytes, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] statusLine = lines[0].split(" ", 3);
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/1.")) {
+            throw new IOException("Malformed status line from " + url + ": " + lines[0]);
+        }
+        int status = Integer.parseInt(statusLine[1]);
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        DownloadTask.checkResponse(status, Optional.ofNullable(headers.get("content-range")), metadata, range);
+        bodyChecksum = Checksum.ofContent(name -> Optional.ofNullable(headers.get(name.toLowerCase())));
+        bodyDigest = bodyChecksum != null && !bodyChecksum.isCrc32c() ? bodyChecksum.newDigest() : null;
+        bodyCrc.reset();
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLength = headers.get("content-length");
+        if ("chunked".equalsIgnoreCase(transferEncoding)) {
+            chunked = new ChunkedDecoder();
+            bodyRemaining = Long.MAX_VALUE;
+        } else if (transferEncoding != null) {
+            throw new IOException("Unsupported Transfer-Encoding " + transferEncoding + " from " + url);
+        } else if (contentLength != null) {
+            chunked = null;
+            bodyRemaining = Long.parseLong(contentLength);
+        } else {
+            throw new IOException("Response from " + url + " has neither a Content-Length nor a chunked body");
+        }
+        reusable = !"close".equalsIgnoreCase(headers.get("connection")) && statusLine[0].equals("HTTP/1.1");
+
+        // Whatever followed the head is the start of the body
+        buffer.limit(buffer.position()).position(end + END_OF_HEAD.length).compact();
+        phase = Phase.READING_BODY;
+        deliver();
+    }
+
+    private void readBody() throws IOException {
+        if (paused) {
+            park();
+            return;
+        }
+        // A chunked body is read past the end of the range, so that its last chunk arrives with the data
+        long wanted = draining ? bodyRemaining : Math.min(range.remaining(), bodyRemaining);
+        long limit = chunked != null ? readLimit() : Math.min(readLimit(), wanted);
+        buffer.limit((int) Math.max(buffer.position(), Math.min(buffer.capacity(), limit)));
+        if (channel.read(buffer) < 0) {
+            throw new EOFException("Connection closed with " + range.remaining() + " bytes of " + range + " left");
+        }
+        deliver();
+    }
+
+    /**
+     * Writes the body bytes in the buffer that still belong to the range, with reads switched off
+     * until the write has completed.
+     */
+    private void deliver() throws IOException {
+        int bytesRead;
+        if (chunked != null) {
+            bytesRead = chunked.decode(buffer);
+            if (chunked.isDone()) {
+                bodyRemaining = 0;
+            }
+        } else {
+            bytesRead = buffer.position();
+            bodyRemaining -= bytesRead;
+        }
+        if (bytesRead == 0) {
+            if (bodyRemaining == 0 || range.isComplete() && !draining) {
+                endOfBody();
+            }
+            return;
+        }
+        buffer.flip();
+        if (bodyChecksum != null) {
+            hashBody();
+        }
+        if (draining) {
+            buffer.clear();
+            key.interestOps(0);
+            pay(bytesRead);
+            return;
+        }
+        // Bytes past the end of the range belong to whichever worker split it
+        int claimed = range.claim(bytesRead);
+        if (claimed == 0) {
+            buffer.clear();
+            endOfBody();
+            return;
+        }
+        buffer.limit(claimed);
+        crc.update(buffer);
+        buffer.position(0);
+        phase = Phase.WRITING;
+        key.interestOps(0);
+        long position = writePosition;
+        writePosition += claimed;
+        file.write(buffer, position, System.nanoTime(), new CompletionHandler<>() {
+            @Override
+            public void completed(Integer count, Long writeNanos) {
+                if (buffer.hasRemaining()) {
+                    file.write(buffer, position + buffer.position(), writeNanos, this);
+                    return;
+                }
+                loop.execute(() -> written(position, claimed, bytesRead, writeNanos));
+            }
+
+            @Override
+            public void failed(Throwable failure, Long writeNanos) {
+                loop.execute(() -> writeFailed(position, failure));
+            }
+        });
+    }
+
+    private void written(long position, int claimed, int bytesRead, long writeNanos) {
+        metrics.recordDiskWrite(System.nanoTime() - writeNanos);
+        progress.add(workerIndex, claimed);
+        metrics.addBytes(claimed);
+        if (bodyChecksum == null) {
+            publish(position, position + claimed);
+        }
+        buffer.clear();
+        if (download.isStopped()) {
+            publishHeldBack();
+            stop();
+            return;
+        }
+        pay(bytesRead);
+    }
+
+    /**
+     * Pays for bytes just read from the bucket shared by all ranges of this download, then goes on
+     * reading the body once the bucket allows it.
+     */
+    private void pay(int bytesRead) {
+        long waitNanos = bandwidth.reserve(bytesRead);
+        metrics.recordThrottleWait(waitNanos);
+        if (bodyRemaining == 0 || range.isComplete() && !draining) {
+            endOfBody();
+        } else if (waitNanos > 0) {
+            phase = Phase.THROTTLED;
+            loop.schedule(this::resumeReading, waitNanos);
+        } else {
+            resumeReading();
+        }
+    }
+
+    private void hashBody() {
+        if (bodyDigest != null) {
+            bodyDigest.update(buffer);
+        } else {
+            bodyCrc.update(buffer);
+        }
+        buffer.rewind();
+    }
+
+    /**
+     * Flags the bytes {@code [from, to)} in the journal and makes them readable.
+     */
+    private void publish(long from, long to) {
+        DownloadJournal journal = download.getJournal();
+        if (journal != null) {
+            journal.markWritten(from, to);
+        }
+        written.add(from, to);
+    }
+
+    /**
+     * Publishes the bytes of this attempt that were held back for the body digest, once they matched
+     * it or when the response ended before they could be checked, as they are kept unverified then.
+     */
+    private void publishHeldBack() {
+        if (bodyChecksum != null && writePosition > attemptStart) {
+            publish(attemptStart, writePosition);
+        }
+        bodyChecksum = null;
+    }
+
+    private void resumeReading() {
+        if (download.isStopped()) {
+            stop();
+        } else if (paused) {
+            park();
+        } else {
+            lastActivityNanos = System.nanoTime();
+            phase = Phase.READING_BODY;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void park() {
+        parked = true;
+        key.interestOps(0);
+    }
+
+    /**
+     * The response ended, or the range did because another worker took over its tail.
+     */
+    private void endOfBody() {
+        // The digest covers everything that was requested, so if the range was split while it was
+        // fetched the rest of the body is read and hashed anyway, though not written
+        if (bodyChecksum != null && range.isComplete() && bodyRemaining > 0 && !draining && !download.isStopped()) {
+            draining = true;
+            resumeReading();
+            return;
+        }
+        if (bodyChecksum != null && range.isComplete() && !download.isStopped()) {
+            Checksum actual = bodyDigest != null
+                    ? new Checksum(bodyChecksum.algorithm(), bodyDigest.digest())
+                    : Checksum.crc32c((int) bodyCrc.getValue());
+            if (!bodyChecksum.matches(actual)) {
+                ChecksumMismatchException mismatch = new ChecksumMismatchException("Bytes " + attemptStart + "-" + requestEnd
+                        + " of " + url + " have " + actual + " but the server sent " + bodyChecksum);
+                // Bytes that failed verification are given back to the range and fetched again
+                progress.add(workerIndex, -(writePosition - attemptStart));
+                range.rewind(attemptStart);
+                writePosition = attemptStart;
+                bodyChecksum = null;
+                failed(mismatch);
+                return;
+            }
+        }
+        publishHeldBack();
+        verifierSegment();
+        if (!range.isComplete()) {
+            failed(new EOFException("Connection closed with " + range.remaining() + " bytes of " + range + " left"));
+            return;
+        }
+        metrics.recordChunk(System.nanoTime() - startNanos);
+        // Unread bytes of a split range would be taken for the next response
+        if (!reusable || bodyRemaining > 0) {
+            closeConnection();
+        } else {
+            key.interestOps(0);
+        }
+        phase = Phase.IDLE;
+        releasePermit();
+        ByteRange done = range;
+        range = null;
+        failures = 0;
+        executor.execute(() -> {
+            complete(done);
+            admit();
+        });
+    }
+
+    private void complete(ByteRange done) {
+        logger.debug("Range {} downloaded by event-loop worker {} for URL: {}", done, workerIndex, url);
+        try {
+            download.getVerifier().advance();
+        } catch (IOException e) {
+            logger.warn("Failed to hash {} in order, the whole file will be read when it completes", url, e);
+        }
+        if (scheduler.finish(done)) {
+            downloadService.completeDownload(download);
+        }
+    }
+
+    private void verifierSegment() {
+        if (writePosition > attemptStart) {
+            download.getVerifier().recordSegment(attemptStart, writePosition - attemptStart, (int) crc.getValue());
+        }
+    }
+
+    private void failed(IOException failure) {
+        closeConnection();
+        if (phase != Phase.WRITING) {
+            publishHeldBack();
+            verifierSegment();
+        }
+        phase = Phase.IDLE;
+        releasePermit();
+        if (download.isStopped() || scheduler.isComplete()) {
+            finish();
+            return;
+        }
+        if (range.isComplete() || !scheduler.isActive(range)) {
+            ByteRange done = range;
+            range = null;
+            executor.execute(() -> {
+                complete(done);
+                admit();
+            });
+            return;
+        }
+        metrics.chunkFailed();
+        concurrency.recordFailure();
+        // Attempts that got some bytes through start the count over
+        failures = writePosition > attemptStart ? 1 : failures + 1;
+        if (failure instanceof ResourceChangedException) {
+            failDownload(failure.getMessage());
+            return;
+        }
+        if (failures >= retryPolicy.getMaxAttempts()) {
+            failDownload("Gave up on " + range + " of " + url + " after " + failures + " failed attempts, the last one " + failure);
+            return;
+        }
+        long delayMillis = retryPolicy.backoffMillis(failures);
+        metrics.chunkRetried();
+        logger.warn("Fetching the rest of {} from {} again in {} ms: {}", range, url, delayMillis, failure.toString());
+        loop.schedule(() -> executor.execute(this::admit), TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    private void writeFailed(long position, Throwable failure) {
+        // The claimed bytes never reached the disk, so the retry has to fetch them again
+        range.rewind(position);
+        writePosition = position;
+        publishHeldBack();
+        failed(failure instanceof IOException e ? e : new IOException("Failed to write " + range + " of " + url, failure));
+    }
+
+    private void failDownload(String reason) {
+        finish();
+        executor.execute(() -> downloadService.failDownload(download, reason));
+    }
+
+    private void stop() {
+        if (phase != Phase.WRITING) {
+            publishHeldBack();
+        }
+        closeConnection();
+        releasePermit();
+        finish();
+    }
+
+    private void finish() {
+        phase = Phase.DONE;
+        closeConnection();
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close {}", download.getTarget().getFile(), e);
+            }
+            file = null;
+        }
+    }
+
+    private void releasePermit() {
+        if (permit != null) {
+            permit.close();
+            permit = null;
+        }
+    }
+
+    private void closeConnection() {
+        reusable = false;
+        if (channel == null) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close connection to {}", address, e);
+        }
+        channel = null;
+    }
+
+    /**
+     * Caps how much is read per reservation of a throttled download to about an eighth of a second
+     * of its rate, so a whole buffer never turns into one long pause.
+     */
+    private long readLimit() {
+        long rate = bandwidth.getRate();
+        if (rate <= 0) {
+            return buffer.capacity();
+        }
+        return Math.min(buffer.capacity(), Math.max(MIN_THROTTLED_READ, rate / 8));
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= buffer.position(); i++) {
+            int j = 0;
+            while (j < pattern.length && buffer.get(i + j) == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
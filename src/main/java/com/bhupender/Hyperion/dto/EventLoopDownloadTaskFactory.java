@@ -0,0 +1,70 @@
+package com.bhupender.Hyperion.dto;
+
+import com.bhupender.Hyperion.service.BufferPool;
+import com.bhupender.Hyperion.service.Download;
+import com.bhupender.Hyperion.service.DownloadMetrics;
+import com.bhupender.Hyperion.service.DownloadService;
+import com.bhupender.Hyperion.service.RetryPolicy;
+import com.bhupender.Hyperion.transport.ChunkTransport;
+import com.bhupender.Hyperion.transport.EventLoopGroup;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the workers of the non-blocking engine, selected with {@code download.engine=nio}.
+ * Downloads the event loops cannot fetch, over HTTPS, from mirrors or into part files, get the
+ * usual threaded workers.
+ */
+@Component
+@ConditionalOnProperty(name = "download.engine", havingValue = "nio")
+public class EventLoopDownloadTaskFactory implements DownloadTaskFactory {
+
+    private final ChunkTransport transport;
+    private final BufferPool bufferPool;
+    private final DownloadMetrics metrics;
+    private final RetryPolicy retryPolicy;
+    private final EventLoopGroup loops;
+    private final ExecutorService executor;
+    // Completes the positional writes of all event-loop workers
+    private final ExecutorService diskExecutor;
+    private final int bufferSize;
+    private final long connectTimeoutMs;
+    private final long idleTimeoutMs;
+
+    public EventLoopDownloadTaskFactory(ChunkTransport transport, BufferPool bufferPool, DownloadMetrics metrics, RetryPolicy retryPolicy,
+                                        EventLoopGroup loops, ExecutorService downloadExecutor,
+                                        @Value("${download.nio.bufferSize:65536}") int bufferSize,
+                                        @Value("${download.nio.diskThreads:4}") int diskThreads,
+                                        @Value("${download.transport.connectTimeoutMs:10000}") long connectTimeoutMs,
+                                        @Value("${download.transport.idleTimeoutMs:30000}") long idleTimeoutMs) {
+        this.transport = transport;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.loops = loops;
+        this.executor = downloadExecutor;
+        this.diskExecutor = Executors.newFixedThreadPool(Math.max(1, diskThreads), Thread.ofPlatform().daemon().name("download-disk-", 0).factory());
+        this.bufferSize = bufferSize;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    @Override
+    public DownloadWorker create(Download download, DownloadService downloadService, int workerIndex) {
+        if (!EventLoopDownloadTask.supports(download)) {
+            return new DownloadTask(download, downloadService, transport, bufferPool, metrics, retryPolicy, workerIndex);
+        }
+        return new EventLoopDownloadTask(download, downloadService, metrics, retryPolicy, loops.next(), executor, diskExecutor,
+                bufferSize, connectTimeoutMs, idleTimeoutMs, workerIndex);
+    }
+
+    @PreDestroy
+    public void close() {
+        diskExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,19 @@
+package com.bhupender.Hyperion.dto;
+
+/**
+ * Point-in-time progress of one download as returned by {@code /downloads/progress}.
+ *
+ * @param etaSeconds  estimated seconds until completion, or -1 while the rate is unknown
+ * @param streams     workers currently allowed to fetch at the same time
+ * @param concurrency last decision of the download's concurrency controller, e.g. {@code INCREASE}
+ */
+public record ProgressSnapshot(String url,
+                               String state,
+                               long totalBytes,
+                               long downloadedBytes,
+                               double percentage,
+                               long bytesPerSecond,
+                               long etaSeconds,
+                               int streams,
+                               String concurrency) {
+}
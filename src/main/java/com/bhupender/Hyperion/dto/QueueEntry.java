@@ -0,0 +1,13 @@
+package com.bhupender.Hyperion.dto;
+
+/**
+ * One download as listed by {@code /downloads/queue}.
+ *
+ * @param position place of a queued download in the order they will be started, or -1 once it is active
+ */
+public record QueueEntry(String url,
+                         String priority,
+                         String state,
+                         int position,
+                         double percentage) {
+}
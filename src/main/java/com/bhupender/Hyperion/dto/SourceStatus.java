@@ -0,0 +1,19 @@
+package com.bhupender.Hyperion.dto;
+
+/**
+ * One source of a download as listed by {@code /downloads/sources}.
+ *
+ * @param state          {@code LIVE}, or {@code DROPPED} once the download stopped using it
+ * @param bytesPerSecond smoothed throughput of one connection to the source, or -1 before the first sample
+ * @param connections    ranges currently being fetched from it
+ * @param bytes          bytes fetched from it so far
+ * @param reason         why it was dropped, or null
+ */
+public record SourceStatus(String url,
+                           String state,
+                           long bytesPerSecond,
+                           int connections,
+                           long bytes,
+                           int failures,
+                           String reason) {
+}
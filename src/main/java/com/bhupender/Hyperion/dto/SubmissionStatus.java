@@ -0,0 +1,12 @@
+package com.bhupender.Hyperion.dto;
+
+/**
+ * Outcome of one URL of a batch submitted to {@code /downloads/batch}.
+ *
+ * @param status {@code STARTED}, {@code QUEUED}, {@code ATTACHED}, {@code CACHED} or {@code FAILED}
+ * @param message why the URL could not be submitted, or null
+ */
+public record SubmissionStatus(String url,
+                               String status,
+                               String message) {
+}
@@ -0,0 +1,201 @@
+package com.bhupender.Hyperion.service;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Decompresses or unpacks an archive while it downloads. The archive is read in order through a
+ * {@link DownloadContent} stream, which follows the bytes on disk from the start of the file and
+ * waits where the next one is still missing. Ranges that arrive ahead of it are already in the file,
+ * and usually still in the page cache when the extractor gets to them, so the file itself serves as
+ * the reorder buffer and nothing is read or written twice once the download completes.
+ * <p>
+ * The output is written under a temporary name and only moved into place once it is complete,
+ * replacing what is there. By {@link Format#output default} a {@code .gz} or {@code .zst} file
+ * becomes the file without that extension and a {@code .zip} file a directory of that name; the
+ * caller picks another path when that one is taken by something else.
+ */
+public class ArchiveExtractor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveExtractor.class);
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    public enum Format {
+        GZIP(".gz"), ZSTD(".zst"), ZIP(".zip");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Returns the format of the archive {@code file} by its extension, or null if it is none.
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            for (Format format : values()) {
+                if (name.length() > format.extension.length() && name.endsWith(format.extension)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the default output of {@code archive}: its path without the extension.
+         */
+        public Path output(Path archive) {
+            String name = archive.getFileName().toString();
+            return archive.resolveSibling(name.substring(0, name.length() - extension.length()));
+        }
+    }
+
+    private final Format format;
+    private final DownloadContent content;
+    private final Path output;
+    private Future<Path> result;
+
+    /**
+     * Creates an extractor of {@code content} into {@code output}, which is replaced once the
+     * extraction succeeds and so must not belong to anything but an earlier copy of this archive.
+     */
+    public ArchiveExtractor(Format format, DownloadContent content, Path output) {
+        this.format = format;
+        this.content = content;
+        this.output = output;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    /**
+     * Starts extracting on {@code executor}, where the extractor waits for the download as needed.
+     */
+    public void start(ExecutorService executor) {
+        result = executor.submit(this::extract);
+    }
+
+    /**
+     * Waits for the extraction to finish and returns the path of the extracted file or directory.
+     *
+     * @throws IOException if the download stopped or the archive is broken
+     */
+    public Path await() throws IOException, InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException failure) {
+                throw failure;
+            }
+            throw new IOException("Failed to extract " + content.getFile(), e.getCause());
+        }
+    }
+
+    /**
+     * Removes the output of an archive that turned out to be wrong after it was extracted.
+     */
+    public void discard() throws IOException, InterruptedException {
+        try {
+            await();
+        } catch (IOException e) {
+            // Nothing was moved into place
+            return;
+        }
+        deleteRecursively(output);
+    }
+
+    /**
+     * Extracts the archive, removing what was extracted so far if that fails.
+     */
+    private Path extract() throws IOException {
+        long startNanos = System.nanoTime();
+        Path temporary = output.resolveSibling(output.getFileName() + ".extracting");
+        deleteRecursively(temporary);
+        try (InputStream archive = content.openStream()) {
+            switch (format) {
+                case GZIP -> decompress(new GZIPInputStream(archive, BUFFER_SIZE), temporary);
+                case ZSTD -> decompress(new ZstdInputStream(new BufferedInputStream(archive, BUFFER_SIZE)), temporary);
+                case ZIP -> unzip(new ZipInputStream(new BufferedInputStream(archive, BUFFER_SIZE)), temporary);
+            }
+            // Replaces the output of an earlier download of the same archive, see the constructor
+            deleteRecursively(output);
+            Files.move(temporary, output, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            deleteRecursively(temporary);
+            throw e;
+        }
+        logger.info("Extracted {} to {} in {} ms", content.getFile(), output, (System.nanoTime() - startNanos) / 1_000_000);
+        return output;
+    }
+
+    private static void decompress(InputStream in, Path target) throws IOException {
+        try (in; OutputStream out = Files.newOutputStream(target)) {
+            in.transferTo(out);
+        }
+    }
+
+    private static void unzip(ZipInputStream in, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path root = directory.normalize();
+        try (in) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                Path target = root.resolve(entry.getName()).normalize();
+                if (!target.startsWith(root)) {
+                    throw new IOException("Zip entry " + entry.getName() + " points outside of " + directory);
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                try (OutputStream out = Files.newOutputStream(target)) {
+                    in.transferTo(out);
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException failure) throws IOException {
+                if (failure != null) {
+                    throw failure;
+                }
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
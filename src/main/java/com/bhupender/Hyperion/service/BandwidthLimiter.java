@@ -0,0 +1,118 @@
+package com.bhupender.Hyperion.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one {@link TokenBucket} per download and keeps their rates consistent with the
+ * process-wide cap. When a global cap is set it is divided between the active downloads with
+ * weighted max-min fairness: downloads with a lower limit of their own keep it, and the remainder
+ * is split between the rest in proportion to their weights.
+ */
+@Component
+public class BandwidthLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BandwidthLimiter.class);
+
+    private final Map<String, Allocation> allocations = new ConcurrentHashMap<>();
+    private final long burstBytes;
+    private long globalBytesPerSecond;
+
+    public BandwidthLimiter(@Value("${download.maxBytesPerSecond:0}") long globalBytesPerSecond,
+                            @Value("${download.burstBytes:0}") long burstBytes) {
+        this.globalBytesPerSecond = globalBytesPerSecond;
+        this.burstBytes = burstBytes;
+    }
+
+    public TokenBucket register(String url, long maxBytesPerSecond) {
+        return register(url, maxBytesPerSecond, 1);
+    }
+
+    public synchronized TokenBucket register(String url, long maxBytesPerSecond, int weight) {
+        Allocation allocation = new Allocation(maxBytesPerSecond, Math.max(1, weight), new TokenBucket(maxBytesPerSecond, burstBytes));
+        allocations.put(url, allocation);
+        rebalance();
+        return allocation.bucket;
+    }
+
+    public synchronized void unregister(String url) {
+        if (allocations.remove(url) != null) {
+            rebalance();
+        }
+    }
+
+    public synchronized boolean setDownloadLimit(String url, long maxBytesPerSecond) {
+        Allocation allocation = allocations.get(url);
+        if (allocation == null) {
+            return false;
+        }
+        allocation.requestedBytesPerSecond = maxBytesPerSecond;
+        rebalance();
+        logger.info("Bandwidth limit for {} set to {} B/s", url, maxBytesPerSecond);
+        return true;
+    }
+
+    public synchronized boolean setWeight(String url, int weight) {
+        Allocation allocation = allocations.get(url);
+        if (allocation == null) {
+            return false;
+        }
+        allocation.weight = Math.max(1, weight);
+        rebalance();
+        return true;
+    }
+
+    public synchronized void setGlobalLimit(long maxBytesPerSecond) {
+        globalBytesPerSecond = maxBytesPerSecond;
+        rebalance();
+        logger.info("Global bandwidth limit set to {} B/s", maxBytesPerSecond);
+    }
+
+    public synchronized long getGlobalLimit() {
+        return globalBytesPerSecond;
+    }
+
+    private void rebalance() {
+        if (globalBytesPerSecond <= 0) {
+            allocations.values().forEach(a -> a.bucket.setRate(a.requestedBytesPerSecond));
+            return;
+        }
+        // Water-filling: the downloads wanting the least per unit of weight are satisfied first and
+        // whatever they leave is shared by the others
+        List<Allocation> ordered = new ArrayList<>(allocations.values());
+        ordered.sort(Comparator.comparingDouble(allocation -> (double) allocation.demand() / allocation.weight));
+        long remaining = globalBytesPerSecond;
+        long weightLeft = ordered.stream().mapToLong(allocation -> allocation.weight).sum();
+        for (Allocation allocation : ordered) {
+            long share = Math.max(1, (long) ((double) remaining * allocation.weight / weightLeft));
+            long rate = Math.min(allocation.demand(), share);
+            allocation.bucket.setRate(rate);
+            remaining -= rate;
+            weightLeft -= allocation.weight;
+        }
+    }
+
+    private static final class Allocation {
+        private final TokenBucket bucket;
+        private long requestedBytesPerSecond;
+        private int weight;
+
+        private Allocation(long requestedBytesPerSecond, int weight, TokenBucket bucket) {
+            this.requestedBytesPerSecond = requestedBytesPerSecond;
+            this.weight = weight;
+            this.bucket = bucket;
+        }
+
+        private long demand() {
+            return requestedBytesPerSecond > 0 ? requestedBytesPerSecond : Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.bhupender.Hyperion.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of direct buffers that workers read into and write to disk from. A worker borrows one buffer
+ * per range, so the read loop itself allocates nothing, and file channels write direct buffers
+ * without first copying them into a temporary one of their own. Up to {@code poolSize} buffers are
+ * kept for reuse; any buffer beyond that is left to the garbage collector when it is returned.
+ */
+@Component
+public class BufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    public BufferPool(@Value("${download.bufferSize:262144}") int bufferSize,
+                      @Value("${download.bufferPoolSize:64}") int poolSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    /**
+     * Returns a cleared buffer of {@link #getBufferSize()} bytes, reusing a pooled one if there is any.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    int pooledBuffers() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,150 @@
+package com.bhupender.Hyperion.service;
+
+/**
+ * An inclusive byte range of a download owned by one worker at a time. The owner claims bytes from
+ * the front as it reads them while idle workers may cut the unread tail off with
+ * {@link #splitTail(int, long)}, so both operations go through the range's monitor.
+ */
+public class ByteRange {
+
+    private final int id;
+    private final long start;
+    private long end;
+    private long position;
+    // Where and when the current owner started fetching, to tell how fast it is going
+    private long fetchStartPosition;
+    private long fetchStartNanos;
+    // Stops the current owner's fetch at once, e.g. by closing its response
+    private volatile Runnable abortHandler;
+
+    public ByteRange(int id, long start, long end) {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public synchronized long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the offset of the next byte the owner has to fetch.
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    public synchronized long remaining() {
+        return end - position + 1;
+    }
+
+    public synchronized boolean isComplete() {
+        return position > end;
+    }
+
+    /**
+     * Claims up to {@code bytes} bytes from the front of the range and returns how many of them still
+     * belong to it. Anything beyond that has been handed to another worker and must be discarded.
+     */
+    public synchronized int claim(int bytes) {
+        int claimed = (int) Math.max(0, Math.min(bytes, end - position + 1));
+        position += claimed;
+        return claimed;
+    }
+
+    /**
+     * Moves the front of the range back to {@code position}, so that bytes claimed since then are
+     * fetched again, e.g. because they failed verification.
+     */
+    public synchronized void rewind(long position) {
+        if (position < start || position > this.position) {
+            throw new IllegalArgumentException("Cannot rewind " + this + " from " + this.position + " to " + position);
+        }
+        this.position = position;
+    }
+
+    /**
+     * Records that a worker starts fetching the range from its current position at {@code nanos}.
+     */
+    public synchronized void begin(long nanos) {
+        fetchStartPosition = position;
+        fetchStartNanos = nanos;
+    }
+
+    /**
+     * Returns how long the current owner has been fetching the range at {@code nanos}.
+     */
+    public synchronized long fetchNanos(long nanos) {
+        return nanos - fetchStartNanos;
+    }
+
+    /**
+     * Returns the bytes per second the current owner has claimed since it began, as of {@code nanos}.
+     */
+    public synchronized double bytesPerSecond(long nanos) {
+        long elapsed = Math.max(1, nanos - fetchStartNanos);
+        return (position - fetchStartPosition) * 1e9 / elapsed;
+    }
+
+    /**
+     * Gives up the unread part of the range, e.g. because a hedged copy of it finished first, and
+     * returns how many bytes that was. The owner stops at its next claim.
+     */
+    public synchronized long cancel() {
+        long abandoned = Math.max(0, end - position + 1);
+        end = position - 1;
+        return abandoned;
+    }
+
+    /**
+     * Sets what stops the owner's fetch when the range is cancelled while it is waiting for bytes,
+     * or null once the fetch is over.
+     */
+    public void setAbortHandler(Runnable abortHandler) {
+        this.abortHandler = abortHandler;
+    }
+
+    /**
+     * Stops the owner's fetch of a range that has been {@link #cancel() cancelled}, rather than
+     * waiting for its next claim, which may never come from a stalled connection.
+     */
+    void abort() {
+        Runnable handler = abortHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    /**
+     * Splits off the second half of the unread bytes as a new range, cutting at a multiple of
+     * {@code blockSize}. Returns null when less than two blocks are left.
+     */
+    public synchronized ByteRange splitTail(int newId, long blockSize) {
+        long remaining = end - position + 1;
+        if (remaining < 2 * blockSize) {
+            return null;
+        }
+        long middle = position + remaining / 2;
+        long splitAt = ((middle + blockSize - 1) / blockSize) * blockSize;
+        if (splitAt <= position || splitAt > end) {
+            return null;
+        }
+        ByteRange tail = new ByteRange(newId, splitAt, end);
+        end = splitAt - 1;
+        return tail;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "bytes " + start + "-" + end + " (range " + id + ")";
+    }
+}
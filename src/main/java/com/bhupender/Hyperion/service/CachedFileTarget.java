@@ -0,0 +1,53 @@
+package com.bhupender.Hyperion.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Target of a download that was answered from the {@link ContentCache}: the file is complete before
+ * anything is fetched, so there is nothing to write.
+ */
+final class CachedFileTarget implements DownloadTarget {
+
+    private final Path file;
+
+    CachedFileTarget(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public ChunkWriter openChunk(int chunkIndex, long startByte) {
+        throw new IllegalStateException(file + " was delivered from the cache and is not written to");
+    }
+
+    @Override
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public boolean isWrittenInPlace() {
+        return true;
+    }
+
+    @Override
+    public void complete() {
+        // Complete from the start
+    }
+
+    @Override
+    public void sync() {
+        // Nothing was written
+    }
+
+    @Override
+    public void discard() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public void close() {
+        // Holds no open files
+    }
+}
@@ -0,0 +1,167 @@
+package com.bhupender.Hyperion.service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * A digest that downloaded bytes are expected to have, either given by the caller as
+ * {@code <algorithm>:<hex or base64>} or advertised by the server in a digest header.
+ *
+ * @param algorithm {@value #CRC32C}, {@value #SHA_256} or {@value #MD5}
+ * @param value     the raw digest bytes
+ */
+public record Checksum(String algorithm, byte[] value) {
+
+    public static final String CRC32C = "crc32c";
+    public static final String SHA_256 = "sha-256";
+    public static final String MD5 = "md5";
+
+    // Cheapest to verify first: CRC32C is combined from the per-range values, the others need an in-order pass
+    private static final List<String> PREFERENCE = List.of(CRC32C, SHA_256, MD5);
+
+    public Checksum {
+        algorithm = algorithm.toLowerCase(Locale.ROOT);
+        if (value.length != digestLength(algorithm)) {
+            throw new IllegalArgumentException("A " + algorithm + " digest has " + digestLength(algorithm) + " bytes, not " + value.length);
+        }
+        value = value.clone();
+    }
+
+    /**
+     * Parses {@code <algorithm>:<value>} where the value is hex or base64 encoded.
+     */
+    public static Checksum parse(String text) {
+        int colon = text.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected <algorithm>:<digest> but got " + text);
+        }
+        String algorithm = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        String encoded = text.substring(colon + 1).trim();
+        if (encoded.length() == 2 * digestLength(algorithm) && encoded.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return new Checksum(algorithm, HexFormat.of().parseHex(encoded));
+        }
+        return new Checksum(algorithm, Base64.getDecoder().decode(encoded));
+    }
+
+    /**
+     * Returns the best whole-file digest among the {@code Repr-Digest}, {@code Digest} and
+     * {@code x-goog-hash} headers, and {@code Content-MD5} if {@code bodyIsWholeFile}. The latter
+     * describes the message body, which only is the file itself for a full response.
+     */
+    public static Checksum ofRepresentation(Function<String, Optional<String>> header, boolean bodyIsWholeFile) {
+        Map<String, byte[]> digests = new HashMap<>();
+        header.apply("Repr-Digest").ifPresent(value -> parseDictionary(value, digests));
+        header.apply("Digest").ifPresent(value -> parseDictionary(value, digests));
+        header.apply("x-goog-hash").ifPresent(value -> parseDictionary(value, digests));
+        if (bodyIsWholeFile) {
+            header.apply("Content-MD5").ifPresent(value -> parseDictionary(MD5 + "=" + value, digests));
+        }
+        return best(digests);
+    }
+
+    /**
+     * Returns the best digest of the response body itself from {@code Content-Digest} or
+     * {@code Content-MD5}, which for a 206 response covers just the requested range.
+     */
+    public static Checksum ofContent(Function<String, Optional<String>> header) {
+        Map<String, byte[]> digests = new HashMap<>();
+        header.apply("Content-Digest").ifPresent(value -> parseDictionary(value, digests));
+        header.apply("Content-MD5").ifPresent(value -> parseDictionary(MD5 + "=" + value, digests));
+        return best(digests);
+    }
+
+    public static Checksum crc32c(int crc) {
+        return new Checksum(CRC32C, new byte[]{(byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc});
+    }
+
+    public boolean isCrc32c() {
+        return algorithm.equals(CRC32C);
+    }
+
+    /**
+     * Returns a fresh digest computing this checksum's algorithm. Not available for CRC32C, which
+     * is computed with {@link java.util.zip.CRC32C} instead.
+     */
+    public MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm.toUpperCase(Locale.ROOT));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No " + algorithm + " digest available", e);
+        }
+    }
+
+    public boolean matches(Checksum actual) {
+        return actual != null && algorithm.equals(actual.algorithm) && MessageDigest.isEqual(value, actual.value);
+    }
+
+    @Override
+    public byte[] value() {
+        return value.clone();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Checksum checksum && matches(checksum);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * algorithm.hashCode() + Arrays.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + ":" + HexFormat.of().formatHex(value);
+    }
+
+    private static int digestLength(String algorithm) {
+        return switch (algorithm) {
+            case CRC32C -> 4;
+            case SHA_256 -> 32;
+            case MD5 -> 16;
+            default -> throw new IllegalArgumentException("Unsupported checksum algorithm " + algorithm);
+        };
+    }
+
+    /**
+     * Reads {@code algorithm=base64} members separated by commas, with the value optionally wrapped
+     * in colons as in structured fields. Unknown algorithms and malformed values are skipped.
+     */
+    private static void parseDictionary(String header, Map<String, byte[]> digests) {
+        for (String member : header.split(",")) {
+            int equals = member.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            String algorithm = member.substring(0, equals).trim().toLowerCase(Locale.ROOT);
+            String encoded = member.substring(equals + 1).trim();
+            if (encoded.length() > 1 && encoded.startsWith(":") && encoded.endsWith(":")) {
+                encoded = encoded.substring(1, encoded.length() - 1);
+            }
+            try {
+                digests.putIfAbsent(algorithm, new Checksum(algorithm, Base64.getDecoder().decode(encoded)).value);
+            } catch (IllegalArgumentException e) {
+                // Not a digest this client can check
+            }
+        }
+    }
+
+    private static Checksum best(Map<String, byte[]> digests) {
+        for (String algorithm : PREFERENCE) {
+            byte[] value = digests.get(algorithm);
+            if (value != null) {
+                return new Checksum(algorithm, value);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,12 @@
+package com.bhupender.Hyperion.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown when downloaded bytes do not have the digest the caller or the server said they would.
+ */
+public class ChecksumMismatchException extends IOException {
+    public ChecksumMismatchException(String message) {
+        super(message);
+    }
+}
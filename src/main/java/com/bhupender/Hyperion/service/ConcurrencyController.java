@@ -0,0 +1,210 @@
+package com.bhupender.Hyperion.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tunes how many workers of one download fetch ranges at the same time, additive increase and
+ * multiplicative decrease like TCP congestion control. A download starts with one worker per
+ * possible stream up to the ceiling, but only workers whose index is below the current limit take
+ * ranges; the others wait until the limit grows past them.
+ * <p>
+ * The service samples the download at a fixed interval. Without trouble the limit grows by one
+ * stream per sample and stays there as long as the extra stream made the download at least
+ * {@code minGain} faster; a stream that did not pay off is given back and the limit holds for a
+ * while before probing again. A failed fetch, or responses that take {@code latencyRatio} times as
+ * long as the fastest seen so far, mean the server or the path is overloaded, and halve the limit
+ * down to the floor.
+ */
+public class ConcurrencyController {
+
+    public enum Decision { START, INCREASE, HOLD, DECREASE }
+
+    private static final double DECREASE_FACTOR = 0.5;
+    // Samples to wait before probing again after a stream did not pay off or the limit was cut
+    private static final int HOLD_SAMPLES = 5;
+    // Latency below this much above the baseline is noise, however large the ratio
+    private static final long MIN_LATENCY_RISE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long WAIT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int floor;
+    private final int ceiling;
+    private final double minGain;
+    private final double latencyRatio;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition limitRaised = lock.newCondition();
+    private volatile int limit;
+    private volatile Decision lastDecision = Decision.START;
+
+    // Signals recorded by the workers since the last sample
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder responseNanos = new LongAdder();
+
+    // Sampling state, only touched by sample()
+    private boolean sampled;
+    private long sampleBytes;
+    private long sampleNanos;
+    private double rateBeforeIncrease = -1;
+    private long baselineLatencyNanos = Long.MAX_VALUE;
+    private int holdSamples;
+
+    /**
+     * @param floor        fewest streams the limit is cut to
+     * @param ceiling      most streams the limit grows to
+     * @param initial      streams to start with
+     * @param minGain      fraction by which an extra stream has to raise the rate to be kept
+     * @param latencyRatio multiple of the fastest response time that counts as overload, 0 to ignore latency
+     */
+    public ConcurrencyController(int floor, int ceiling, int initial, double minGain, double latencyRatio) {
+        this.ceiling = Math.max(1, ceiling);
+        this.floor = Math.min(Math.max(1, floor), this.ceiling);
+        this.limit = Math.min(Math.max(initial, this.floor), this.ceiling);
+        this.minGain = minGain;
+        this.latencyRatio = latencyRatio;
+    }
+
+    /**
+     * A controller that keeps {@code limit} streams, for downloads that are not tuned.
+     */
+    public static ConcurrencyController fixed(int limit) {
+        return new ConcurrencyController(limit, limit, limit, 0, 0);
+    }
+
+    public boolean isAdaptive() {
+        return floor < ceiling;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getFloor() {
+        return floor;
+    }
+
+    public int getCeiling() {
+        return ceiling;
+    }
+
+    public Decision getLastDecision() {
+        return lastDecision;
+    }
+
+    /**
+     * Records a response that arrived {@code nanos} after its request was sent.
+     */
+    public void recordResponse(long nanos) {
+        responses.increment();
+        responseNanos.add(nanos);
+    }
+
+    /**
+     * Records a fetch that failed, e.g. because the server refused or dropped the connection.
+     */
+    public void recordFailure() {
+        failures.increment();
+    }
+
+    /**
+     * Blocks worker {@code worker} while it is not among the streams the limit allows. Returns
+     * false, without waiting any longer, once {@code done} says there is nothing left to fetch.
+     */
+    public boolean awaitTurn(int worker, BooleanSupplier done) throws InterruptedException {
+        if (worker < limit) {
+            return true;
+        }
+        lock.lock();
+        try {
+            while (worker >= limit) {
+                if (done.getAsBoolean()) {
+                    return false;
+                }
+                limitRaised.awaitNanos(WAIT_POLL_NANOS);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a sample of a download that has {@code downloadedBytes} on disk at {@code nowNanos} and
+     * adjusts the limit. The first sample only starts the clock.
+     */
+    public synchronized Decision sample(long downloadedBytes, long nowNanos) {
+        if (!sampled) {
+            sampled = true;
+            sampleBytes = downloadedBytes;
+            sampleNanos = nowNanos;
+            return lastDecision;
+        }
+        long elapsed = Math.max(1, nowNanos - sampleNanos);
+        double rate = (downloadedBytes - sampleBytes) * 1e9 / elapsed;
+        sampleBytes = downloadedBytes;
+        sampleNanos = nowNanos;
+
+        long failed = failures.sumThenReset();
+        long count = responses.sumThenReset();
+        long totalNanos = responseNanos.sumThenReset();
+        long latency = count > 0 ? totalNanos / count : -1;
+        if (latency >= 0) {
+            baselineLatencyNanos = Math.min(baselineLatencyNanos, latency);
+        }
+        boolean slow = latencyRatio > 0 && latency >= 0
+                && latency > baselineLatencyNanos * latencyRatio
+                && latency - baselineLatencyNanos > MIN_LATENCY_RISE_NANOS;
+
+        Decision decision;
+        int next = limit;
+        if (failed > 0 || slow) {
+            next = Math.max(floor, (int) (limit * DECREASE_FACTOR));
+            decision = next < limit ? Decision.DECREASE : Decision.HOLD;
+            rateBeforeIncrease = -1;
+            holdSamples = HOLD_SAMPLES;
+        } else if (rateBeforeIncrease >= 0) {
+            // The previous sample added a stream, keep it only if it paid off
+            if (rate >= rateBeforeIncrease * (1 + minGain) && limit < ceiling) {
+                rateBeforeIncrease = rate;
+                next = limit + 1;
+                decision = Decision.INCREASE;
+            } else if (rate >= rateBeforeIncrease * (1 + minGain)) {
+                rateBeforeIncrease = -1;
+                decision = Decision.HOLD;
+            } else {
+                rateBeforeIncrease = -1;
+                holdSamples = HOLD_SAMPLES;
+                next = Math.max(floor, limit - 1);
+                decision = next < limit ? Decision.DECREASE : Decision.HOLD;
+            }
+        } else if (holdSamples > 0) {
+            holdSamples--;
+            decision = Decision.HOLD;
+        } else if (limit < ceiling) {
+            rateBeforeIncrease = rate;
+            next = limit + 1;
+            decision = Decision.INCREASE;
+        } else {
+            decision = Decision.HOLD;
+        }
+        setLimit(next);
+        lastDecision = decision;
+        return decision;
+    }
+
+    private void setLimit(int next) {
+        if (next == limit) {
+            return;
+        }
+        lock.lock();
+        try {
+            limit = next;
+            limitRaised.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.bhupender.Hyperion.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caps the number of range requests in flight, per origin host and in total. Workers take a permit
+ * for every range they fetch, so any number of downloads can be queued while each server only sees
+ * a bounded number of parallel connections from us. Permits are shared between downloads in
+ * proportion to their weights, see {@link WeightedSemaphore}.
+ */
+@Component
+public class ConnectionLimiter {
+
+    private final Map<String, WeightedSemaphore> hostPermits = new ConcurrentHashMap<>();
+    private final WeightedSemaphore globalPermits;
+    private final int maxConnectionsPerHost;
+
+    public ConnectionLimiter(@Value("${download.maxConnectionsPerHost:6}") int maxConnectionsPerHost,
+                             @Value("${download.maxConnections:64}") int maxConnections) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.globalPermits = new WeightedSemaphore(maxConnections);
+    }
+
+    public Permit acquire(String url) throws InterruptedException {
+        return acquire(url, url, 1);
+    }
+
+    /**
+     * Blocks until a connection to the host of {@code url} may be opened on behalf of {@code owner},
+     * typically a download, with the given weight. The returned permit must be closed once the
+     * connection is no longer used.
+     */
+    public Permit acquire(String url, Object owner, int weight) throws InterruptedException {
+        WeightedSemaphore host = hostPermits.computeIfAbsent(hostKey(url), key -> new WeightedSemaphore(maxConnectionsPerHost));
+        // Take the host permit first so a busy host never holds global permits that other hosts could use
+        host.acquire(owner, weight);
+        try {
+            globalPermits.acquire(owner, weight);
+        } catch (InterruptedException e) {
+            host.release(owner);
+            throw e;
+        }
+        return () -> {
+            globalPermits.release(owner);
+            host.release(owner);
+        };
+    }
+
+    public int availableConnections() {
+        return globalPermits.availablePermits();
+    }
+
+    public int activeConnections() {
+        return globalPermits.getPermits() - globalPermits.availablePermits();
+    }
+
+    /**
+     * Estimated number of workers waiting for a connection, to their host or globally.
+     */
+    public int queuedWorkers() {
+        int queued = globalPermits.getQueueLength();
+        for (WeightedSemaphore host : hostPermits.values()) {
+            queued += host.getQueueLength();
+        }
+        return queued;
+    }
+
+    static String hostKey(String url) {
+        URI uri = URI.create(url);
+        return uri.getHost() + ":" + uri.getPort();
+    }
+
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
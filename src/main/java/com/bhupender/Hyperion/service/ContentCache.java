@@ -0,0 +1,312 @@
+package com.bhupender.Hyperion.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Keeps finished downloads so that requesting the same file again costs a revalidation round trip
+ * instead of a transfer. Entries are keyed by the full URL and the validator the file was downloaded
+ * with, and their content lives under the cache directory as a hard link to the delivered file, so
+ * storing a download copies nothing as long as both are on the same file system. As the delivered
+ * files share their content, it is made read-only when it is stored, and callers check it against
+ * the entry's checksum before delivering it again.
+ * <p>
+ * The index of all entries is held in memory in least recently used order and saved as one small
+ * binary file, so startup reads a single file instead of every entry. When the content exceeds
+ * {@code download.cache.maxBytes} the least recently used entries are evicted; a cap of zero or less
+ * disables the cache.
+ */
+@Component
+public class ContentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentCache.class);
+
+    private static final String INDEX_FILE = "index";
+    private static final int MAGIC = 0x48594331; // "HYC1"
+
+    private final Path directory;
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    // Whether the index or the recency order changed since it was last saved
+    private boolean dirty;
+
+    public ContentCache(@Value("${download.cache.directory:downloads/.cache}") String directory,
+                        @Value("${download.cache.maxBytes:0}") long maxBytes) {
+        this.directory = Paths.get(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * A cached file.
+     *
+     * @param url       URL the file was downloaded from
+     * @param metadata  what the server said about the file, including the validators it was fetched with
+     * @param content   the cache's link to the content
+     * @param delivered where the file was delivered to, which belongs to {@code url} from then on
+     * @param checksum  checksum computed when the download was verified, or null
+     */
+    public record Entry(String url, ResourceMetadata metadata, Path content, Path delivered, Checksum checksum) {
+
+        /**
+         * Returns true if {@code current} describes the same version of the file as this entry.
+         */
+        public boolean matches(ResourceMetadata current) {
+            return current.contentLength() == metadata.contentLength()
+                    && Objects.equals(current.etag(), metadata.etag())
+                    && Objects.equals(current.lastModified(), metadata.lastModified());
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    @PostConstruct
+    public synchronized void load() {
+        Path index = directory.resolve(INDEX_FILE);
+        if (!isEnabled() || !Files.exists(index)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cache index: " + index);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String url = in.readUTF();
+                ResourceMetadata metadata = new ResourceMetadata(url, in.readLong(), in.readBoolean(), readNullable(in), readNullable(in));
+                Path content = directory.resolve(in.readUTF());
+                Path delivered = Paths.get(in.readUTF());
+                String checksum = readNullable(in);
+                put(new Entry(url, metadata, content, delivered, checksum != null ? Checksum.parse(checksum) : null));
+            }
+            dirty = false;
+            logger.info("Loaded {} cached files with {} bytes from {}", entries.size(), totalBytes, index);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable cache index {}", index, e);
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    /**
+     * Returns the entry for {@code url}, or null. Content that has disappeared from disk is forgotten.
+     */
+    public synchronized Entry get(String url) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.get(url);
+        if (entry != null && !Files.exists(entry.content())) {
+            logger.info("Cached content of {} is gone, forgetting it", url);
+            remove(url);
+            return null;
+        }
+        dirty |= entry != null;
+        return entry;
+    }
+
+    /**
+     * Returns the URL whose download was delivered to {@code file}, or null if no cached file was.
+     */
+    public synchronized String ownerOf(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        for (Entry entry : entries.values()) {
+            if (entry.delivered().toAbsolutePath().normalize().equals(normalized)) {
+                return entry.url();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the finished download of {@code metadata.url()} at {@code file}, replacing any older
+     * version. Files without a validator cannot be revalidated and are not cached.
+     */
+    public synchronized void store(ResourceMetadata metadata, Path file, Checksum checksum) {
+        if (!isEnabled() || (metadata.etag() == null && metadata.lastModified() == null) || metadata.contentLength() > maxBytes) {
+            return;
+        }
+        Path content = directory.resolve(key(metadata));
+        try {
+            Files.createDirectories(directory);
+            Files.deleteIfExists(content);
+            link(file, content);
+            if (!content.toFile().setReadOnly()) {
+                logger.warn("Failed to make cached content {} read-only", content);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to cache {}", metadata.url(), e);
+            return;
+        }
+        Entry previous = entries.get(metadata.url());
+        if (previous != null && !previous.content().equals(content)) {
+            remove(metadata.url());
+        }
+        put(new Entry(metadata.url(), metadata, content, file, checksum));
+        evict();
+        save();
+        logger.info("Cached {} as {}", metadata.url(), content.getFileName());
+    }
+
+    /**
+     * Delivers the cached content of {@code entry} to {@code file}.
+     */
+    public void deliver(Entry entry, Path file) throws IOException {
+        if (Files.exists(file) && Files.isSameFile(file, entry.content())) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.deleteIfExists(file);
+        link(entry.content(), file);
+    }
+
+    public synchronized void remove(String url) {
+        Entry entry = entries.remove(url);
+        if (entry == null) {
+            return;
+        }
+        totalBytes -= entry.metadata().contentLength();
+        dirty = true;
+        try {
+            Files.deleteIfExists(entry.content());
+        } catch (IOException e) {
+            logger.warn("Failed to delete cached content {}", entry.content(), e);
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Saves the index, including the recency order of entries, so that it survives a restart.
+     */
+    @PreDestroy
+    public synchronized void save() {
+        if (!isEnabled() || !dirty) {
+            return;
+        }
+        Path index = directory.resolve(INDEX_FILE);
+        Path temporary = directory.resolve(INDEX_FILE + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(entries.size());
+                for (Entry entry : entries.values()) {
+                    ResourceMetadata metadata = entry.metadata();
+                    out.writeUTF(entry.url());
+                    out.writeLong(metadata.contentLength());
+                    out.writeBoolean(metadata.acceptsRanges());
+                    writeNullable(out, metadata.etag());
+                    writeNullable(out, metadata.lastModified());
+                    out.writeUTF(entry.content().getFileName().toString());
+                    out.writeUTF(entry.delivered().toString());
+                    writeNullable(out, entry.checksum() != null ? entry.checksum().toString() : null);
+                }
+            }
+            Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            logger.warn("Failed to save cache index {}", index, e);
+        }
+    }
+
+    private void put(Entry entry) {
+        Entry previous = entries.put(entry.url(), entry);
+        if (previous != null) {
+            totalBytes -= previous.metadata().contentLength();
+        }
+        totalBytes += entry.metadata().contentLength();
+        dirty = true;
+    }
+
+    private void evict() {
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        List<Entry> evicted = new ArrayList<>();
+        while (totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+            Entry entry = leastRecentlyUsed.next();
+            evicted.add(entry);
+            totalBytes -= entry.metadata().contentLength();
+        }
+        for (Entry entry : evicted) {
+            // Already subtracted above, so only the content has to go
+            entries.remove(entry.url());
+            try {
+                Files.deleteIfExists(entry.content());
+            } catch (IOException e) {
+                logger.warn("Failed to delete cached content {}", entry.content(), e);
+            }
+            logger.info("Evicted {} from the cache", entry.url());
+        }
+    }
+
+    /**
+     * Hard links {@code target} as {@code link}, copying it if the file system cannot link them.
+     */
+    private static void link(Path target, Path link) throws IOException {
+        try {
+            Files.createLink(link, target);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(target, link, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Names the content after the URL and validator, so a new version never reuses an old one's file.
+     */
+    private static String key(ResourceMetadata metadata) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(metadata.url().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Objects.toString(metadata.etag(), "").getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Objects.toString(metadata.lastModified(), "").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 digest available", e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,73 @@
+package com.bhupender.Hyperion.service;
+
+/**
+ * Combines CRC32C values of adjacent byte sequences without the bytes, as zlib's
+ * {@code crc32_combine} does for CRC-32: the first CRC is advanced over {@code length} zero bytes by
+ * repeated squaring of the CRC's shift operator over GF(2), then the second CRC is folded in.
+ */
+final class Crc32c {
+
+    // Castagnoli polynomial, bit-reversed
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private Crc32c() {
+    }
+
+    /**
+     * Returns the CRC32C of A followed by B, given the CRCs of A and B and the length of B.
+     */
+    static int combine(int crcA, int crcB, long lengthB) {
+        if (lengthB <= 0) {
+            return crcA;
+        }
+        int[] even = new int[32];
+        int[] odd = new int[32];
+
+        // Operator for one zero bit
+        odd[0] = POLYNOMIAL;
+        int row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // Operators for two and then four zero bits
+        square(even, odd);
+        square(odd, even);
+
+        // Apply the operator for each set bit of the length in bytes, starting with one byte
+        long length = lengthB;
+        int crc = crcA;
+        do {
+            square(even, odd);
+            if ((length & 1) != 0) {
+                crc = times(even, crc);
+            }
+            length >>>= 1;
+            if (length == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length & 1) != 0) {
+                crc = times(odd, crc);
+            }
+            length >>>= 1;
+        } while (length != 0);
+        return crc ^ crcB;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.dto.DownloadWorker;
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Everything the service and the workers share about one download.
+ */
+public class Download {
+
+    private final String url;
+    private final ResourceMetadata metadata;
+    private final DownloadTarget target;
+    private final RangeScheduler scheduler;
+    private final TokenBucket bandwidth;
+    private final DownloadProgress progress;
+    private final DownloadVerifier verifier;
+    private final SourceSet sources;
+    private final WrittenBytes written;
+    private final List<DownloadWorker> tasks = new CopyOnWriteArrayList<>();
+    private volatile DownloadJournal journal;
+    private volatile ArchiveExtractor extractor;
+    private volatile ConcurrencyController concurrency = ConcurrencyController.fixed(Integer.MAX_VALUE);
+    private volatile DownloadState state = DownloadState.RUNNING;
+    private volatile DownloadPriority priority = DownloadPriority.NORMAL;
+    private volatile long finishedNanos;
+
+    public Download(ResourceMetadata metadata, DownloadTarget target, RangeScheduler scheduler, TokenBucket bandwidth, DownloadProgress progress) {
+        this(metadata, SourceSet.of(metadata), target, scheduler, bandwidth, progress);
+    }
+
+    public Download(ResourceMetadata metadata, SourceSet sources, DownloadTarget target, RangeScheduler scheduler,
+                    TokenBucket bandwidth, DownloadProgress progress) {
+        this.url = metadata.url();
+        this.metadata = metadata;
+        this.target = target;
+        this.scheduler = scheduler;
+        this.bandwidth = bandwidth;
+        this.progress = progress;
+        this.sources = sources;
+        this.written = new WrittenBytes(metadata.contentLength());
+        this.verifier = new DownloadVerifier(target.getFile(), metadata.contentLength(), metadata.checksum(), target.isWrittenInPlace());
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public ResourceMetadata getMetadata() {
+        return metadata;
+    }
+
+    public DownloadTarget getTarget() {
+        return target;
+    }
+
+    public RangeScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public TokenBucket getBandwidth() {
+        return bandwidth;
+    }
+
+    public DownloadProgress getProgress() {
+        return progress;
+    }
+
+    public DownloadVerifier getVerifier() {
+        return verifier;
+    }
+
+    /**
+     * Returns the parts of the file that are on disk, for reading it while it downloads.
+     */
+    public WrittenBytes getWrittenBytes() {
+        return written;
+    }
+
+    /**
+     * Returns the URLs the ranges of this download are fetched from.
+     */
+    public SourceSet getSources() {
+        return sources;
+    }
+
+    /**
+     * Returns the journal recording finished blocks, or null if the download is not journaled.
+     */
+    public DownloadJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(DownloadJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Returns the controller deciding how many of the workers fetch at the same time.
+     */
+    public ConcurrencyController getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(ConcurrencyController concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Returns the extractor unpacking the file while it downloads, or null if it is not an archive
+     * or extraction is off.
+     */
+    public ArchiveExtractor getExtractor() {
+        return extractor;
+    }
+
+    public void setExtractor(ArchiveExtractor extractor) {
+        this.extractor = extractor;
+    }
+
+    public List<DownloadWorker> getTasks() {
+        return tasks;
+    }
+
+    public DownloadState getState() {
+        return state;
+    }
+
+    public void setState(DownloadState state) {
+        if (state == DownloadState.COMPLETED || state == DownloadState.FAILED || state == DownloadState.CANCELLED) {
+            finishedNanos = System.nanoTime();
+        }
+        this.state = state;
+    }
+
+    /**
+     * Returns true if the download completed, failed or was cancelled at least {@code nanos} before
+     * {@code now}, both in {@link System#nanoTime()} terms.
+     */
+    public boolean finishedBefore(long now, long nanos) {
+        DownloadState current = state;
+        boolean finished = current == DownloadState.COMPLETED || current == DownloadState.FAILED || current == DownloadState.CANCELLED;
+        return finished && now - finishedNanos >= nanos;
+    }
+
+    public DownloadPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(DownloadPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Returns true once workers should stop fetching, because the download failed or was cancelled.
+     */
+    public boolean isStopped() {
+        return state == DownloadState.FAILED || state == DownloadState.CANCELLED;
+    }
+
+    public ProgressSnapshot snapshot() {
+        long total = progress.getTotalBytes();
+        long downloaded = state == DownloadState.COMPLETED ? total : progress.getDownloadedBytes();
+        long rate = progress.getBytesPerSecond();
+        double percentage = total > 0 ? (downloaded * 100.0) / total : 0;
+        long eta = rate > 0 ? (total - downloaded) / rate : -1;
+        return new ProgressSnapshot(url, state.name(), total, downloaded, percentage, rate, eta,
+                Math.min(concurrency.getLimit(), tasks.size()), concurrency.getLastDecision().name());
+    }
+}
@@ -0,0 +1,128 @@
+package com.bhupender.Hyperion.service;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the file of a download, which may still be running, for a client of Hyperion. Bytes that
+ * are on disk are handed to the client's channel with {@link FileChannel#transferTo}, which the JDK
+ * turns into a {@code sendfile} when the channel is a socket; for bytes that are not there yet the
+ * reader waits on the download's {@link WrittenBytes}.
+ */
+public class DownloadContent implements Closeable {
+
+    private final ResourceMetadata metadata;
+    private final Path file;
+    private final WrittenBytes written;
+    private FileChannel channel;
+
+    DownloadContent(ResourceMetadata metadata, Path file, WrittenBytes written) {
+        this.metadata = metadata;
+        this.file = file;
+        this.written = written;
+    }
+
+    public ResourceMetadata getMetadata() {
+        return metadata;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getLength() {
+        return written.getLength();
+    }
+
+    /**
+     * Returns true if bytes {@code start} to {@code end}, inclusive, are all on disk.
+     */
+    public boolean isWritten(long start, long end) {
+        return written.writtenFrom(start) > end;
+    }
+
+    /**
+     * Sends bytes {@code start} to {@code end}, inclusive, to {@code out} as they become available.
+     *
+     * @throws IOException if the download stopped before all of them were written
+     */
+    public void transferTo(long start, long end, WritableByteChannel out) throws IOException, InterruptedException {
+        long position = start;
+        while (position <= end) {
+            long available = Math.min(written.awaitWritten(position), end + 1);
+            // Opened once there is something to read, as a file that is merged from parts only exists at the end
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            while (position < available) {
+                long sent = channel.transferTo(position, available - position, out);
+                if (sent <= 0) {
+                    throw new EOFException(file + " ends before byte " + position);
+                }
+                position += sent;
+            }
+        }
+    }
+
+    /**
+     * Returns a stream of the whole file in order, which blocks at the first byte that is not on
+     * disk yet until a worker writes it. Closing the stream closes this.
+     */
+    public InputStream openStream() {
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                if (position >= getLength()) {
+                    return -1;
+                }
+                long available;
+                try {
+                    available = written.awaitWritten(position);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for byte " + position + " of " + file);
+                }
+                if (channel == null) {
+                    channel = FileChannel.open(file, StandardOpenOption.READ);
+                }
+                int count = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, available - position)), position);
+                if (count < 0) {
+                    throw new EOFException(file + " ends before byte " + position);
+                }
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                DownloadContent.this.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
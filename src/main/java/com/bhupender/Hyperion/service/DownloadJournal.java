@@ -0,0 +1,308 @@
+package com.bhupender.Hyperion.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Persistent record of which blocks of a preallocated download are safely on disk, kept next to
+ * the target as {@code <name>.journal}. The file holds a small header with the URL, validators,
+ * expected checksum, bandwidth limit, priority and mirrors, followed by a memory-mapped bitmap with
+ * one bit per block.
+ *
+ * <p>Workers only flag finished blocks in memory. {@link #checkpoint(DownloadTarget)} periodically
+ * fsyncs the target and only then copies the flagged blocks into the mapped bitmap and forces it, so
+ * the journal never claims bytes that could still be lost and each checkpoint costs two fsyncs no
+ * matter how much was written since the last one.
+ */
+public class DownloadJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadJournal.class);
+
+    public static final String SUFFIX = ".journal";
+    private static final int MAGIC = 0x48594A33; // "HYJ3"
+    private static final int HEADER_CAPACITY = 3 * Long.BYTES + Integer.BYTES + 6 * (Short.BYTES + Short.MAX_VALUE);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer bitmap;
+    private final AtomicLongArray pending;
+    private final String url;
+    private final long contentLength;
+    private final long blockSize;
+    private final int blockCount;
+    private final String etag;
+    private final String lastModified;
+    private final String checksum;
+    private final long maxBytesPerSecond;
+    private final DownloadPriority priority;
+    private final List<String> mirrors;
+
+    private DownloadJournal(Path file, FileChannel channel, int bitmapOffset, String url, long contentLength, long blockSize,
+                            String etag, String lastModified, String checksum, long maxBytesPerSecond,
+                            DownloadPriority priority, List<String> mirrors) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.url = url;
+        this.contentLength = contentLength;
+        this.blockSize = blockSize;
+        this.blockCount = (int) ((contentLength + blockSize - 1) / blockSize);
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.priority = priority;
+        this.mirrors = mirrors;
+        int words = (blockCount + 63) / 64;
+        this.bitmap = channel.map(FileChannel.MapMode.READ_WRITE, bitmapOffset, (long) words * Long.BYTES);
+        this.pending = new AtomicLongArray(words);
+    }
+
+    /**
+     * Creates an empty journal for the download of {@code metadata} into {@code target} at normal
+     * priority and without mirrors.
+     */
+    public static DownloadJournal create(Path target, ResourceMetadata metadata, long blockSize, long maxBytesPerSecond) throws IOException {
+        return create(target, metadata, blockSize, maxBytesPerSecond, DownloadPriority.NORMAL, List.of());
+    }
+
+    /**
+     * Creates an empty journal for the download of {@code metadata} into {@code target}, remembering
+     * the {@code priority} and the URLs of the {@code mirrors} it was started with.
+     */
+    public static DownloadJournal create(Path target, ResourceMetadata metadata, long blockSize, long maxBytesPerSecond,
+                                         DownloadPriority priority, List<String> mirrors) throws IOException {
+        Path file = target.resolveSibling(target.getFileName() + SUFFIX);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_CAPACITY);
+        header.putInt(MAGIC);
+        header.putLong(metadata.contentLength());
+        header.putLong(blockSize);
+        header.putLong(maxBytesPerSecond);
+        putString(header, metadata.url());
+        putString(header, metadata.etag());
+        putString(header, metadata.lastModified());
+        String checksum = metadata.checksum() != null ? metadata.checksum().toString() : null;
+        putString(header, checksum);
+        putString(header, priority.name());
+        // URLs cannot contain line breaks
+        putString(header, String.join("\n", mirrors));
+        int bitmapOffset = (header.position() + 7) & ~7;
+        header.flip();
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.write(header, 0);
+        DownloadJournal journal = new DownloadJournal(file, channel, bitmapOffset, metadata.url(), metadata.contentLength(),
+                blockSize, metadata.etag(), metadata.lastModified(), checksum, maxBytesPerSecond, priority, List.copyOf(mirrors));
+        journal.bitmap.force();
+        channel.force(true);
+        return journal;
+    }
+
+    /**
+     * Opens a journal left behind by an earlier run.
+     */
+    public static DownloadJournal open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(HEADER_CAPACITY, channel.size()));
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < 4 || header.getInt() != MAGIC) {
+                throw new IOException("Not a download journal: " + file);
+            }
+            long contentLength = header.getLong();
+            long blockSize = header.getLong();
+            long maxBytesPerSecond = header.getLong();
+            String url = getString(header);
+            String etag = getString(header);
+            String lastModified = getString(header);
+            String checksum = getString(header);
+            DownloadPriority priority = DownloadPriority.valueOf(getString(header));
+            String mirrors = getString(header);
+            int bitmapOffset = (header.position() + 7) & ~7;
+            return new DownloadJournal(file, channel, bitmapOffset, url, contentLength, blockSize, etag, lastModified, checksum,
+                    maxBytesPerSecond, priority, mirrors.isEmpty() ? List.of() : List.of(mirrors.split("\n")));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ioException ? ioException : new IOException("Corrupt download journal: " + file, e);
+        }
+    }
+
+    /**
+     * Returns the download file this journal sits next to.
+     */
+    public Path getTargetFile() {
+        String name = file.getFileName().toString();
+        return file.resolveSibling(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public DownloadPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns the URLs of the mirrors the download was started with.
+     */
+    public List<String> getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * Returns the checksum the finished file was expected to have, or null.
+     */
+    public Checksum getChecksum() {
+        return checksum != null ? Checksum.parse(checksum) : null;
+    }
+
+    /**
+     * Returns true if the remote file still is the one this journal was written for.
+     */
+    public boolean matches(ResourceMetadata metadata) {
+        if (metadata.contentLength() != contentLength || (etag == null && lastModified == null)) {
+            return false;
+        }
+        return Objects.equals(etag, metadata.etag()) && Objects.equals(lastModified, metadata.lastModified());
+    }
+
+    /**
+     * Records that the bytes {@code [from, to)} of a range starting on a block boundary have been
+     * written, flagging every block that is now complete. Safe to call from any worker.
+     */
+    public void markWritten(long from, long to) {
+        for (long block = from / blockSize; block < blockCount; block++) {
+            long blockEnd = Math.min((block + 1) * blockSize, contentLength);
+            if (blockEnd > to) {
+                break;
+            }
+            int word = (int) (block >>> 6);
+            pending.accumulateAndGet(word, 1L << (block & 63), (current, bit) -> current | bit);
+        }
+    }
+
+    /**
+     * Makes the blocks flagged so far durable: syncs the target first, then the journal.
+     */
+    public synchronized void checkpoint(DownloadTarget target) throws IOException {
+        long[] flagged = new long[pending.length()];
+        boolean any = false;
+        for (int word = 0; word < flagged.length; word++) {
+            flagged[word] = pending.getAndSet(word, 0);
+            any |= flagged[word] != 0;
+        }
+        if (!any) {
+            return;
+        }
+        target.sync();
+        for (int word = 0; word < flagged.length; word++) {
+            if (flagged[word] != 0) {
+                int offset = word * Long.BYTES;
+                bitmap.putLong(offset, bitmap.getLong(offset) | flagged[word]);
+            }
+        }
+        bitmap.force();
+    }
+
+    public synchronized long completedBytes() {
+        long bytes = 0;
+        for (int block = 0; block < blockCount; block++) {
+            if (isDurable(block)) {
+                bytes += Math.min((block + 1L) * blockSize, contentLength) - block * blockSize;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the byte spans that are not durably written yet, as runs of adjacent missing blocks.
+     */
+    public synchronized List<RangeScheduler.Span> missingSpans() {
+        List<RangeScheduler.Span> spans = new ArrayList<>();
+        int block = 0;
+        while (block < blockCount) {
+            if (isDurable(block)) {
+                block++;
+                continue;
+            }
+            int first = block;
+            while (block < blockCount && !isDurable(block)) {
+                block++;
+            }
+            spans.add(new RangeScheduler.Span(first * blockSize, Math.min(block * blockSize, contentLength) - 1));
+        }
+        return spans;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Closes and removes the journal, e.g. once the download it describes is complete.
+     */
+    public void delete() {
+        try {
+            close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete journal {}", file, e);
+        }
+    }
+
+    private boolean isDurable(int block) {
+        return (bitmap.getLong((block >>> 6) * Long.BYTES) & (1L << (block & 63))) != 0;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Value too long for a journal header: " + value.length() + " characters");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
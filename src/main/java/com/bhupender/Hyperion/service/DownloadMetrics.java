@@ -0,0 +1,177 @@
+package com.bhupender.Hyperion.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters of the download pipeline. Every meter is registered up front, so recording from
+ * a worker's read loop only updates counters and histogram buckets and never allocates. Rates such
+ * as bytes per second are read from the downloads' own progress when a registry publishes.
+ * <p>
+ * Meters of a single download are tagged with the host it comes from and a sequence number, never
+ * with its URL: URLs would make a new time series for every file and may carry access tokens.
+ */
+@Component
+public class DownloadMetrics {
+
+    private final MeterRegistry registry;
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final Timer timeToFirstByte;
+    private final Timer chunkDuration;
+    private final Counter chunkFailures;
+    private final Counter chunkRetries;
+    private final Counter chunkHedges;
+    private final Counter concurrencyIncreases;
+    private final Counter concurrencyDecreases;
+    private final Timer throttleWait;
+    private final Timer diskWrite;
+    private final Timer finalizeTime;
+    private final Map<Download, List<Gauge>> downloadGauges = new ConcurrentHashMap<>();
+    private final AtomicLong downloadIds = new AtomicLong();
+
+    public DownloadMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        FunctionCounter.builder("hyperion.download.bytes", bytesDownloaded, LongAdder::sum)
+                .description("Bytes written by all downloads")
+                .baseUnit("bytes")
+                .register(registry);
+        timeToFirstByte = Timer.builder("hyperion.chunk.ttfb")
+                .description("Time from sending a range request to receiving its response headers")
+                .publishPercentileHistogram()
+                .register(registry);
+        chunkDuration = Timer.builder("hyperion.chunk.duration")
+                .description("Time to fetch and write a whole range")
+                .publishPercentileHistogram()
+                .register(registry);
+        chunkFailures = Counter.builder("hyperion.chunk.failures")
+                .description("Range fetches that ended in an error")
+                .register(registry);
+        chunkRetries = Counter.builder("hyperion.chunk.retries")
+                .description("Range fetches resumed after a failed one")
+                .register(registry);
+        chunkHedges = Counter.builder("hyperion.chunk.hedges")
+                .description("Straggling ranges fetched a second time")
+                .register(registry);
+        concurrencyIncreases = Counter.builder("hyperion.concurrency.adjustments")
+                .description("Changes of the number of streams a download fetches over")
+                .tag("decision", "increase")
+                .register(registry);
+        concurrencyDecreases = Counter.builder("hyperion.concurrency.adjustments")
+                .description("Changes of the number of streams a download fetches over")
+                .tag("decision", "decrease")
+                .register(registry);
+        throttleWait = Timer.builder("hyperion.throttle.wait")
+                .description("Time workers slept to stay within bandwidth limits")
+                .register(registry);
+        diskWrite = Timer.builder("hyperion.disk.write")
+                .description("Time spent writing buffers to download targets")
+                .register(registry);
+        finalizeTime = Timer.builder("hyperion.download.finalize")
+                .description("Time to flush or merge a target once all of its ranges are written")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Publishes the current value of {@code value} under {@code name}.
+     */
+    public void gauge(String name, String description, Tags tags, Supplier<Number> value) {
+        Gauge.builder(name, value).description(description).tags(tags).register(registry);
+    }
+
+    /**
+     * Publishes the throughput and stream limit of {@code download} until {@link #unregister(Download)} is called.
+     */
+    public void register(Download download) {
+        DownloadProgress progress = download.getProgress();
+        downloadGauges.computeIfAbsent(download, key -> {
+            Tags tags = Tags.of("host", host(download.getUrl()), "download", Long.toString(downloadIds.incrementAndGet()));
+            return List.of(
+                    Gauge.builder("hyperion.download.throughput", progress, DownloadProgress::getBytesPerSecond)
+                            .description("Bytes per second of a single download")
+                            .baseUnit("bytes")
+                            .tags(tags)
+                            .register(registry),
+                    Gauge.builder("hyperion.download.concurrency", download, d -> d.getConcurrency().getLimit())
+                            .description("Streams a single download may fetch over at the same time")
+                            .tags(tags)
+                            .register(registry));
+        });
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host : "unknown";
+        } catch (IllegalArgumentException e) {
+            return "unknown";
+        }
+    }
+
+    public void unregister(Download download) {
+        List<Gauge> gauges = downloadGauges.remove(download);
+        if (gauges != null) {
+            gauges.forEach(registry::remove);
+        }
+    }
+
+    public void addBytes(long bytes) {
+        bytesDownloaded.add(bytes);
+    }
+
+    public void recordTimeToFirstByte(long nanos) {
+        timeToFirstByte.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordChunk(long nanos) {
+        chunkDuration.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void chunkFailed() {
+        chunkFailures.increment();
+    }
+
+    public void chunkRetried() {
+        chunkRetries.increment();
+    }
+
+    public void chunkHedged() {
+        chunkHedges.increment();
+    }
+
+    public void concurrencyAdjusted(ConcurrencyController.Decision decision) {
+        if (decision == ConcurrencyController.Decision.INCREASE) {
+            concurrencyIncreases.increment();
+        } else if (decision == ConcurrencyController.Decision.DECREASE) {
+            concurrencyDecreases.increment();
+        }
+    }
+
+    public void recordThrottleWait(long nanos) {
+        if (nanos > 0) {
+            throttleWait.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordDiskWrite(long nanos) {
+        diskWrite.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordFinalize(long nanos) {
+        finalizeTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
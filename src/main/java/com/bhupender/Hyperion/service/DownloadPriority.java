@@ -0,0 +1,21 @@
+package com.bhupender.Hyperion.service;
+
+/**
+ * Priority class of a download. Queued downloads are started in priority order, and active ones
+ * share bandwidth and connections in proportion to their weight.
+ */
+public enum DownloadPriority {
+    LOW(1),
+    NORMAL(2),
+    HIGH(4);
+
+    private final int weight;
+
+    DownloadPriority(int weight) {
+        this.weight = weight;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
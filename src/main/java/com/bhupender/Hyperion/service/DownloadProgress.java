@@ -0,0 +1,84 @@
+package com.bhupender.Hyperion.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Byte counters of one download. Every worker owns one slot and is its only writer, so recording
+ * progress is a plain store without contention; readers add the slots up. Slots are spread over
+ * separate cache lines so workers on different cores do not invalidate each other's counter.
+ */
+public class DownloadProgress {
+
+    // 16 longs = 128 bytes between slots, enough to avoid false sharing with adjacent-line prefetch
+    private static final int SLOT_STRIDE = 16;
+    private static final long MIN_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final long totalBytes;
+    private final long initialBytes;
+    private final int slotCount;
+    private final AtomicLongArray slots;
+    private final long startNanos = System.nanoTime();
+
+    // Rate sampling state, only touched by readers
+    private long sampleBytes;
+    private long sampleNanos = startNanos;
+    private double bytesPerSecond = -1;
+
+    public DownloadProgress(long totalBytes, int slotCount) {
+        this(totalBytes, 0, slotCount);
+    }
+
+    /**
+     * Creates progress for a download of which {@code initialBytes} were already on disk when it started.
+     */
+    public DownloadProgress(long totalBytes, long initialBytes, int slotCount) {
+        this.totalBytes = totalBytes;
+        this.initialBytes = initialBytes;
+        this.sampleBytes = initialBytes;
+        this.slotCount = slotCount;
+        this.slots = new AtomicLongArray(slotCount * SLOT_STRIDE);
+    }
+
+    /**
+     * Records {@code bytes} written by the worker owning {@code slot}. Must only be called by that worker.
+     */
+    public void add(int slot, long bytes) {
+        int index = slot * SLOT_STRIDE;
+        slots.setRelease(index, slots.getPlain(index) + bytes);
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getDownloadedBytes() {
+        long sum = initialBytes;
+        for (int i = 0; i < slotCount; i++) {
+            sum += slots.getAcquire(i * SLOT_STRIDE);
+        }
+        return Math.min(sum, totalBytes);
+    }
+
+    /**
+     * Returns the smoothed transfer rate in bytes per second. The rate is resampled at most every
+     * half second, however often it is asked for.
+     */
+    public synchronized long getBytesPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - sampleNanos;
+        if (elapsed >= MIN_SAMPLE_NANOS || bytesPerSecond < 0) {
+            long downloaded = getDownloadedBytes();
+            double current = elapsed > 0 ? (downloaded - sampleBytes) * 1e9 / elapsed : 0;
+            bytesPerSecond = bytesPerSecond < 0 ? current : RATE_SMOOTHING * current + (1 - RATE_SMOOTHING) * bytesPerSecond;
+            sampleBytes = downloaded;
+            sampleNanos = now;
+        }
+        return (long) bytesPerSecond;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -1,16 +1,36 @@
 package com.bhupender.Hyperion.service;
 
-import com.bhupender.Hyperion.dto.DownloadTask;
+import com.bhupender.Hyperion.dto.DownloadWorker;
 import com.bhupender.Hyperion.dto.DownloadTaskFactory;
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
+import com.bhupender.Hyperion.dto.QueueEntry;
+import com.bhupender.Hyperion.dto.SourceStatus;
+import com.bhupender.Hyperion.dto.SubmissionStatus;
+import io.micrometer.core.instrument.Tags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 @Service
@@ -18,104 +38,1144 @@ public class DownloadService {
 
     private static final Logger logger = LoggerFactory.getLogger(DownloadService.class);
 
-    private final ConcurrentHashMap<String, Integer> progressMap = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, DownloadTask> downloadTasks = new ConcurrentHashMap<>();
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentHashMap<String, Download> downloads = new ConcurrentHashMap<>();
+    // Downloads waiting for a slot, by URL; admission decisions are made while holding its monitor
+    private final Map<String, QueuedDownload> queue = new LinkedHashMap<>();
+    private long queueSequence;
+    private final ExecutorService executor;
     private final DownloadTaskFactory downloadTaskFactory;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ConnectionLimiter connectionLimiter;
+    private final ResourceProbe resourceProbe;
+    private final DownloadMetrics metrics;
+    private final ContentCache contentCache;
+    // Checkpoints journals and tunes the concurrency of running downloads
+    private final ScheduledExecutorService housekeeper = Executors.newSingleThreadScheduledExecutor();
+    // Platform threads, as zstd-jni waits for the next bytes inside a monitor, which would pin a virtual thread's carrier
+    private final ExecutorService extractors = Executors.newCachedThreadPool(Thread.ofPlatform().daemon().name("extract-", 0).factory());
 
-    @Value("${download.maxBytesPerSecond:0}")
+    // Per-download limit used when a request does not ask for one; the process-wide cap is download.maxBytesPerSecond
+    @Value("${download.defaultMaxBytesPerSecond:0}")
     private int defaultMaxBytesPerSecond;
 
-    @Value("${download.chunkSize:1048576}") // Default chunk size is 1MB
+    @Value("${download.chunkSize:1048576}") // Default chunk size is 1MB, ranges are never split below it
     private int chunkSize;
 
-    public DownloadService(DownloadTaskFactory downloadTaskFactory) {
+    @Value("${download.parallelism:8}") // Number of workers, and so connections, a download starts with
+    private int parallelism;
+
+    // Tune the number of streams of each download between the floor and the ceiling while it runs
+    @Value("${download.concurrency.adaptive:true}")
+    private boolean adaptiveConcurrency;
+
+    @Value("${download.concurrency.floor:2}")
+    private int concurrencyFloor;
+
+    @Value("${download.concurrency.ceiling:16}")
+    private int concurrencyCeiling;
+
+    @Value("${download.concurrency.intervalMs:2000}")
+    private long concurrencyIntervalMs;
+
+    // An extra stream is only kept if it makes the download at least this much faster
+    @Value("${download.concurrency.minGain:0.05}")
+    private double concurrencyMinGain;
+
+    // Responses taking this many times as long as the fastest ones mean the server is overloaded
+    @Value("${download.concurrency.latencyRatio:3}")
+    private double concurrencyLatencyRatio;
+
+    @Value("${download.directory:downloads}")
+    private String downloadDirectory;
+
+    // Write chunks at their offsets into one preallocated file instead of merging .partN files
+    @Value("${download.preallocate:true}")
+    private boolean preallocate;
+
+    // Keep a journal of finished blocks next to each preallocated download so it survives a restart
+    @Value("${download.journal.enabled:true}")
+    private boolean journalEnabled;
+
+    @Value("${download.journal.checkpointIntervalMs:1000}")
+    private long checkpointIntervalMs;
+
+    // Decompress .gz and .zst files and unpack .zip files next to them, in order while they download
+    @Value("${download.extract.enabled:false}")
+    private boolean extractArchives;
+
+    @Value("${download.maxActiveDownloads:0}") // Downloads beyond this many wait in the queue, 0 for no limit
+    private int maxActiveDownloads;
+
+    // A queued download moves up one priority class for every this many seconds it waits
+    @Value("${download.queue.agingSeconds:60}")
+    private long queueAgingSeconds;
+
+    // Finished, failed and cancelled downloads stay listed for this long before they are forgotten
+    @Value("${download.retentionSeconds:3600}")
+    private long retentionSeconds;
+
+    // A mirror is dropped after failing this many ranges in a row
+    @Value("${download.mirrors.maxFailures:3}")
+    private int mirrorMaxFailures;
+
+    // A mirror is dropped once it is slower than this fraction of the fastest source of the download
+    @Value("${download.mirrors.slowRatio:0.2}")
+    private double mirrorSlowRatio;
+
+    public DownloadService(DownloadTaskFactory downloadTaskFactory, BandwidthLimiter bandwidthLimiter,
+                           ConnectionLimiter connectionLimiter, ResourceProbe resourceProbe,
+                           ExecutorService downloadExecutor, DownloadMetrics metrics, ContentCache contentCache) {
         this.downloadTaskFactory = downloadTaskFactory;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.connectionLimiter = connectionLimiter;
+        this.resourceProbe = resourceProbe;
+        this.executor = downloadExecutor;
+        this.metrics = metrics;
+        this.contentCache = contentCache;
+        registerGauges();
     }
 
-    public void downloadFile(String url, int maxBytesPerSecond) {
+    private void registerGauges() {
+        for (DownloadState state : DownloadState.values()) {
+            metrics.gauge("hyperion.downloads", "Downloads by state", Tags.of("state", state.name().toLowerCase()),
+                    () -> state == DownloadState.QUEUED ? queuedDownloads()
+                            : downloads.values().stream().filter(download -> download.getState() == state).count());
+        }
+        metrics.gauge("hyperion.tasks", "Workers fetching a range", Tags.of("state", "active"), connectionLimiter::activeConnections);
+        metrics.gauge("hyperion.tasks", "Workers waiting for a connection", Tags.of("state", "queued"), connectionLimiter::queuedWorkers);
+        metrics.gauge("hyperion.tasks", "Workers of paused downloads", Tags.of("state", "paused"),
+                () -> downloads.values().stream()
+                        .filter(download -> download.getState() == DownloadState.PAUSED)
+                        .flatMap(download -> download.getTasks().stream())
+                        .filter(DownloadWorker::isRunning)
+                        .count());
+        metrics.gauge("hyperion.throughput", "Bytes per second over all running downloads", Tags.empty(),
+                () -> downloads.values().stream()
+                        .filter(download -> download.getState() == DownloadState.RUNNING)
+                        .mapToLong(download -> download.getProgress().getBytesPerSecond())
+                        .sum());
+    }
+
+    public SubmissionResult downloadFile(String url, int maxBytesPerSecond) {
+        return downloadFile(url, maxBytesPerSecond, DownloadPriority.NORMAL);
+    }
+
+    /**
+     * Starts downloading {@code url}, or queues it if {@code download.maxActiveDownloads} downloads
+     * are already active. A URL that is already being downloaded or queued is not fetched twice;
+     * the request joins the existing download instead, raising its priority if it asks for more.
+     * A file that is still current in the {@link ContentCache} is delivered from there.
+     */
+    public SubmissionResult downloadFile(String url, int maxBytesPerSecond, DownloadPriority priority) {
+        return downloadFile(url, maxBytesPerSecond, priority, null);
+    }
+
+    /**
+     * Like {@link #downloadFile(String, int, DownloadPriority)}, but fails the download unless the
+     * finished file has {@code checksum}. Without one, a checksum the server advertises is used.
+     */
+    public SubmissionResult downloadFile(String url, int maxBytesPerSecond, DownloadPriority priority, Checksum checksum) {
+        return downloadFile(url, List.of(), maxBytesPerSecond, priority, checksum);
+    }
+
+    /**
+     * Like {@link #downloadFile(String, int, DownloadPriority, Checksum)}, but also fetches ranges
+     * from {@code mirrors}, URLs that serve the same file as {@code url}. Mirrors that do not have
+     * the same length and checksum or ETag are left out, and the ranges are spread over the others
+     * by how fast each turns out to be.
+     */
+    public SubmissionResult downloadFile(String url, List<String> mirrors, int maxBytesPerSecond, DownloadPriority priority,
+                                         Checksum checksum) {
         try {
-            int speedLimit = (maxBytesPerSecond > 0) ? maxBytesPerSecond : defaultMaxBytesPerSecond;
-            long contentLength = getContentLength(url); // Method to get the content length of the file
-            logger.info("Content length for {} is {}", url, contentLength);
-            logger.info("Chunk size is {}", chunkSize);
+            return submit(url, null, speedLimit(maxBytesPerSecond), priority, checksum, mirrors);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.error("Failed to start download for URL: {}", url, e);
+            throw new DownloadException("Failed to start download", e);
+        }
+    }
+
+    /**
+     * Submits every URL of {@code urls} like {@link #downloadFile(String, int, DownloadPriority)}
+     * and reports the outcome of each, in order. New URLs are probed concurrently, duplicates within
+     * the batch attach to the first occurrence, and one bad URL does not fail the others.
+     */
+    public List<SubmissionStatus> downloadFiles(List<String> urls, int maxBytesPerSecond, DownloadPriority priority) {
+        return downloadFiles(urls, maxBytesPerSecond, priority, Map.of());
+    }
 
-            if (contentLength <= 0 || chunkSize <= 0) {
-                logger.error("Invalid content length {} or chunk size {}", contentLength, chunkSize);
-                throw new IllegalArgumentException("Invalid content length or chunk size");
+    /**
+     * Like {@link #downloadFiles(List, int, DownloadPriority)}, expecting the checksums in
+     * {@code checksums} for the URLs it has one for.
+     */
+    public List<SubmissionStatus> downloadFiles(List<String> urls, int maxBytesPerSecond, DownloadPriority priority,
+                                                Map<String, Checksum> checksums) {
+        long speedLimit = speedLimit(maxBytesPerSecond);
+        Map<String, Future<ResourceMetadata>> probes = new LinkedHashMap<>();
+        for (String url : urls) {
+            if (!isActiveOrQueued(url)) {
+                probes.computeIfAbsent(url, key -> executor.submit(() -> revalidate(key)));
             }
+        }
 
-            int numberOfChunks = (int) Math.ceil((double) contentLength / chunkSize);
-            logger.info("Number of chunks for {} is {}", url, numberOfChunks);
+        List<SubmissionStatus> results = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            try {
+                Future<ResourceMetadata> probe = probes.get(url);
+                SubmissionResult result = submit(url, probe != null ? probe.get() : null, speedLimit, priority, checksums.get(url), List.of());
+                results.add(new SubmissionStatus(url, result.name(), null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                probes.values().forEach(probe -> probe.cancel(true));
+                throw new DownloadException("Interrupted while submitting batch", e);
+            } catch (Exception e) {
+                Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+                logger.error("Failed to start download for URL: {}", url, cause);
+                results.add(new SubmissionStatus(url, "FAILED", cause.toString()));
+            }
+        }
+        return results;
+    }
 
-            // Add a reasonable limit to prevent excessive chunk creation
-            if (numberOfChunks > 1000) {
-                throw new IllegalArgumentException("Too many chunks: " + numberOfChunks);
+    private long speedLimit(int maxBytesPerSecond) {
+        return (maxBytesPerSecond > 0) ? maxBytesPerSecond : defaultMaxBytesPerSecond;
+    }
+
+    /**
+     * Joins the download of {@code url} if there is one, otherwise probes it unless {@code metadata}
+     * is already known, and either delivers it from the cache or enqueues it. A caller's
+     * {@code checksum} replaces the one the server advertised; a request that joins a running
+     * download cannot change what it is verified against, nor add mirrors to it.
+     */
+    private SubmissionResult submit(String url, ResourceMetadata metadata, long speedLimit, DownloadPriority priority,
+                                    Checksum checksum, List<String> mirrors) throws IOException, InterruptedException {
+        if (attach(url, priority)) {
+            return SubmissionResult.ATTACHED;
+        }
+        ResourceMetadata current = metadata != null ? metadata : revalidate(url);
+        if (deliverFromCache(current, checksum)) {
+            return SubmissionResult.CACHED;
+        }
+        ResourceMetadata expected = current.withChecksum(checksum);
+        return enqueue(expected, probeMirrors(expected, mirrors), speedLimit, null, priority);
+    }
+
+    /**
+     * Probes {@code mirrors} concurrently and returns the metadata of those that serve the same file
+     * as {@code primary}. Mirrors that cannot be probed or differ from it are logged and left out.
+     */
+    private List<ResourceMetadata> probeMirrors(ResourceMetadata primary, List<String> mirrors) throws InterruptedException {
+        if (mirrors.isEmpty()) {
+            return List.of();
+        }
+        if (!primary.acceptsRanges()) {
+            logger.info("{} does not support range requests, ignoring its mirrors", primary.url());
+            return List.of();
+        }
+        Map<String, Future<ResourceMetadata>> probes = new LinkedHashMap<>();
+        for (String mirror : mirrors) {
+            if (!mirror.equals(primary.url())) {
+                probes.computeIfAbsent(mirror, key -> executor.submit(() -> probe(key)));
+            }
+        }
+        List<ResourceMetadata> accepted = new ArrayList<>();
+        for (Map.Entry<String, Future<ResourceMetadata>> probe : probes.entrySet()) {
+            try {
+                ResourceMetadata mirror = probe.getValue().get();
+                String inconsistency = SourceSet.inconsistency(primary, mirror);
+                if (inconsistency == null) {
+                    accepted.add(mirror);
+                } else {
+                    logger.warn("Not using {} as a mirror of {}: {}", probe.getKey(), primary.url(), inconsistency);
+                }
+            } catch (ExecutionException e) {
+                logger.warn("Not using {} as a mirror of {}: {}", probe.getKey(), primary.url(), e.getCause().toString());
+            } catch (InterruptedException e) {
+                probes.values().forEach(pending -> pending.cancel(true));
+                throw e;
             }
+        }
+        return accepted;
+    }
 
-            for (int i = 0; i < numberOfChunks; i++) {
-                long startByte = i * chunkSize;
-                long endByte = Math.min(startByte + chunkSize - 1, contentLength - 1);
+    /**
+     * Probes {@code url}, conditionally if it is cached so that an unchanged file costs a 304.
+     */
+    private ResourceMetadata revalidate(String url) throws IOException, InterruptedException {
+        ContentCache.Entry cached = contentCache.get(url);
+        return cached != null ? resourceProbe.revalidate(cached.metadata()) : probe(url);
+    }
 
-                DownloadTask task = downloadTaskFactory.create(url, progressMap, speedLimit, this, startByte, endByte, i, chunkSize, numberOfChunks);
-                Future<?> future = executor.submit(task);
-                task.setFuture(future);
-                downloadTasks.put(url + "-" + i, task);
-                logger.info("Submitted task for chunk {}", i);
+    /**
+     * Delivers the cached copy of {@code metadata.url()} if it is the current version and still has
+     * the checksum the caller named or, without one, the checksum it was cached with. Copies whose
+     * checksum is not known are not delivered. Returns false if the file has to be downloaded. The copy is
+     * verified and linked next to the target without holding the queue, and only moved into place
+     * once the queue confirms that no download of the URL started in the meantime.
+     */
+    private boolean deliverFromCache(ResourceMetadata metadata, Checksum checksum) {
+        String url = metadata.url();
+        ContentCache.Entry cached = contentCache.get(url);
+        // The cached content is shared with the delivered files, so it is only trusted after checking it
+        Checksum expected = checksum != null ? checksum : cached != null ? cached.checksum() : null;
+        if (cached == null || expected == null || !cached.matches(metadata) || isActiveOrQueued(url)) {
+            return false;
+        }
+        Path file = targetFile(url);
+        Path delivered = null;
+        try {
+            new DownloadVerifier(cached.content(), metadata.contentLength(), expected, true).verify();
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            // Unique, as another request for the URL may be delivering it at the same time
+            delivered = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".cached");
+            contentCache.deliver(cached, delivered);
+        } catch (IOException e) {
+            logger.warn("Cached copy of {} cannot be used, downloading it again", url, e);
+            contentCache.remove(url);
+            deleteQuietly(delivered);
+            return false;
+        }
+        Download download;
+        synchronized (queue) {
+            if (isActiveOrQueued(url)) {
+                deleteQuietly(delivered);
+                return false;
+            }
+            try {
+                Files.move(delivered, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("Failed to move the cached copy of {} into place, downloading it again", url, e);
+                deleteQuietly(delivered);
+                return false;
             }
-            logger.info("Download started for URL: {}", url);
+            long length = metadata.contentLength();
+            download = new Download(cached.metadata(), new CachedFileTarget(file),
+                    RangeScheduler.singleStream(length), null, new DownloadProgress(length, length, 1));
+            download.setState(DownloadState.COMPLETED);
+            download.getWrittenBytes().complete();
+            attachExtractor(download);
+            Download previous = downloads.put(url, download);
+            if (previous != null) {
+                metrics.unregister(previous);
+            }
+        }
+        // Not waited for, the extracted output only appears once it is complete
+        startExtraction(download);
+        logger.info("Delivered {} from the cache to {}", url, file);
+        return true;
+    }
+
+    /**
+     * Returns true if {@code url} is queued or active, raising its priority to {@code priority} if
+     * that is higher.
+     */
+    private boolean attach(String url, DownloadPriority priority) {
+        synchronized (queue) {
+            QueuedDownload queued = queue.get(url);
+            if (queued != null) {
+                if (priority.compareTo(queued.getPriority()) > 0) {
+                    queued.setPriority(priority);
+                }
+            } else {
+                Download download = downloads.get(url);
+                if (download == null || !isActive(download)) {
+                    return false;
+                }
+                if (priority.compareTo(download.getPriority()) > 0) {
+                    download.setPriority(priority);
+                    bandwidthLimiter.setWeight(url, priority.getWeight());
+                }
+            }
+        }
+        logger.info("Request for {} joined the download already in progress", url);
+        return true;
+    }
+
+    private boolean isActiveOrQueued(String url) {
+        Download download = downloads.get(url);
+        return (download != null && isActive(download)) || isQueued(url);
+    }
+
+    private static boolean isActive(Download download) {
+        return download.getState() == DownloadState.RUNNING || download.getState() == DownloadState.PAUSED;
+    }
+
+    private SubmissionResult enqueue(ResourceMetadata metadata, List<ResourceMetadata> mirrors, long speedLimit, DownloadJournal journal,
+                                     DownloadPriority priority) throws IOException {
+        String url = metadata.url();
+        long contentLength = metadata.contentLength();
+        logger.info("Content length for {} is {}", url, contentLength);
+        if (contentLength <= 0 || chunkSize <= 0) {
+            logger.error("Invalid content length {} or chunk size {}", contentLength, chunkSize);
+            throw new IllegalArgumentException("Invalid content length or chunk size");
+        }
+
+        QueuedDownload queued;
+        boolean immediate;
+        synchronized (queue) {
+            // Another request may have started the same URL while this one was probing it
+            if (attach(url, priority)) {
+                if (journal != null) {
+                    journal.close();
+                }
+                return SubmissionResult.ATTACHED;
+            }
+            queued = new QueuedDownload(metadata, mirrors, speedLimit, journal, priority, queueSequence++);
+            queue.put(url, queued);
+            // Start right away when nothing else is waiting, so that failures reach the caller
+            immediate = queuedInOrder().size() == 1 && hasFreeSlot();
+            if (immediate) {
+                reserve(queued);
+            } else {
+                logger.info("Queued download of {} with priority {}", url, priority);
+            }
+        }
+        if (immediate) {
+            start(queued);
+            return SubmissionResult.STARTED;
+        }
+        admitQueued();
+        synchronized (queue) {
+            return queued.isStarting() ? SubmissionResult.STARTED : SubmissionResult.QUEUED;
+        }
+    }
+
+    /**
+     * Starts queued downloads, best first, for as long as there are free slots. The slots are taken
+     * under the queue lock, while the files are set up after releasing it.
+     */
+    private void admitQueued() {
+        List<QueuedDownload> admitted = new ArrayList<>();
+        synchronized (queue) {
+            List<QueuedDownload> waiting = queuedInOrder();
+            for (int i = 0; i < waiting.size() && hasFreeSlot(); i++) {
+                reserve(waiting.get(i));
+                admitted.add(waiting.get(i));
+            }
+        }
+        for (QueuedDownload next : admitted) {
+            try {
+                start(next);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to start queued download for URL: {}", next.getMetadata().url(), e);
+            }
+        }
+    }
+
+    /**
+     * Gives {@code queued} a slot and its file. Called under the queue lock, which keeps the name from
+     * being handed to another download before this one is running.
+     */
+    private void reserve(QueuedDownload queued) {
+        DownloadJournal journal = queued.getJournal();
+        queued.setTarget(journal != null ? journal.getTargetFile() : targetFile(queued.getMetadata().url()));
+    }
+
+    private boolean hasFreeSlot() {
+        return maxActiveDownloads <= 0 || activeDownloads() + startingDownloads() < maxActiveDownloads;
+    }
+
+    private long startingDownloads() {
+        return queue.values().stream().filter(QueuedDownload::isStarting).count();
+    }
+
+    /**
+     * Downloads holding a slot. Paused downloads keep theirs, so resuming one never overshoots the limit.
+     */
+    private long activeDownloads() {
+        return downloads.values().stream().filter(DownloadService::isActive).count();
+    }
+
+    private long queuedDownloads() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Returns the downloads waiting for a slot, best first, leaving out those that are being started.
+     */
+    private List<QueuedDownload> queuedInOrder() {
+        long now = System.nanoTime();
+        long agingNanos = TimeUnit.SECONDS.toNanos(queueAgingSeconds);
+        List<QueuedDownload> ordered = new ArrayList<>(queue.values());
+        ordered.removeIf(QueuedDownload::isStarting);
+        ordered.sort(Comparator.comparingLong((QueuedDownload queued) -> -queued.effectiveRank(now, agingNanos))
+                .thenComparingLong(QueuedDownload::getSequence));
+        return ordered;
+    }
+
+    /**
+     * Starts fetching the download {@link #reserve reserved} for {@code admitted}. With a journal from
+     * an earlier run only the blocks it does not record as written are fetched. Ranges are also
+     * fetched from its mirrors, if any. The file is set up without holding the queue, which only
+     * guards handing over the download from the queue to the running ones, unless it was cancelled
+     * in the meantime.
+     */
+    private void start(QueuedDownload admitted) throws IOException {
+        ResourceMetadata metadata = admitted.getMetadata();
+        List<ResourceMetadata> mirrors = admitted.getMirrors();
+        long speedLimit = admitted.getSpeedLimit();
+        DownloadJournal journal = admitted.getJournal();
+        Path file = admitted.getTarget();
+        String url = metadata.url();
+        long contentLength = metadata.contentLength();
+        logger.info("Chunk size is {}", chunkSize);
+
+        RangeScheduler scheduler;
+        long initialBytes = 0;
+        ConcurrencyController concurrency = adaptiveConcurrency && concurrencyCeiling > 0
+                ? new ConcurrencyController(concurrencyFloor, concurrencyCeiling, parallelism, concurrencyMinGain, concurrencyLatencyRatio)
+                : ConcurrencyController.fixed(parallelism);
+        // One range and one worker per stream the download may grow to
+        int streams = concurrency.getCeiling();
+        if (journal != null) {
+            scheduler = RangeScheduler.forSpans(contentLength, journal.getBlockSize(), streams, journal.missingSpans());
+            initialBytes = journal.completedBytes();
+            logger.info("Resuming {} with {} of {} bytes already on disk", url, initialBytes, contentLength);
+        } else if (metadata.acceptsRanges()) {
+            scheduler = new RangeScheduler(contentLength, chunkSize, streams);
+        } else {
+            logger.info("{} does not support range requests, downloading over a single connection", url);
+            scheduler = RangeScheduler.singleStream(contentLength);
+        }
+        int workers = Math.min(streams, scheduler.getInitialRangeCount());
+        logger.info("Starting {} workers for {}, {} of them fetching at first", workers, url, Math.min(workers, concurrency.getLimit()));
+
+        DownloadTarget target = null;
+        try {
+            if (journal == null) {
+                // Replaces rather than writes through an earlier file, which may be linked into the cache
+                Files.deleteIfExists(file);
+            }
+            target = createTarget(file, contentLength);
+            // Only files written in place can be resumed; servers without range support cannot serve the missing parts
+            if (journal == null && journalEnabled && preallocate && metadata.acceptsRanges()) {
+                journal = DownloadJournal.create(file, metadata, chunkSize, speedLimit, admitted.getPriority(),
+                        mirrors.stream().map(ResourceMetadata::url).toList());
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (queue) {
+                queue.remove(url, admitted);
+            }
+            if (target != null) {
+                try {
+                    target.close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            admitQueued();
+            throw e;
+        }
+
+        Download download = null;
+        synchronized (queue) {
+            if (queue.get(url) == admitted) {
+                DownloadPriority priority = admitted.getPriority();
+                TokenBucket bandwidth = bandwidthLimiter.register(url, speedLimit, priority.getWeight());
+                SourceSet sources = new SourceSet(metadata, mirrors, mirrorMaxFailures, mirrorSlowRatio);
+                if (sources.isMultiSource()) {
+                    logger.info("Fetching {} from {} mirrors as well", url, mirrors.size());
+                }
+                download = new Download(metadata, sources, target, scheduler, bandwidth,
+                        new DownloadProgress(contentLength, initialBytes, workers));
+                download.setPriority(priority);
+                download.setConcurrency(concurrency);
+                if (admitted.getJournal() != null) {
+                    markJournaled(download.getWrittenBytes(), journal.missingSpans(), contentLength);
+                }
+                download.setJournal(journal);
+                // Running before it leaves the queue, so that it is always found in one or the other
+                Download previous = downloads.put(url, download);
+                queue.remove(url);
+                if (previous != null) {
+                    metrics.unregister(previous);
+                    previous.getTarget().close();
+                }
+                metrics.register(download);
+                attachExtractor(download);
+            }
+        }
+        if (download == null) {
+            logger.info("Download of {} was cancelled while it was being set up", url);
+            target.discard();
+            if (journal != null) {
+                journal.delete();
+            }
+            admitQueued();
+            return;
+        }
+        startExtraction(download);
+
+        for (int i = 0; i < workers; i++) {
+            DownloadWorker task = downloadTaskFactory.create(download, this, i);
+            Future<?> future = executor.submit(task);
+            task.setFuture(future);
+            download.getTasks().add(task);
+            logger.info("Submitted worker {}", i);
+        }
+        logger.info("Download started for URL: {}", url);
+    }
+
+    /**
+     * Picks up the downloads that were still running when the process stopped, using the journals
+     * they left in the download directory.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedDownloads() {
+        Path directory = Paths.get(downloadDirectory);
+        if (!journalEnabled || !Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory, "*" + DownloadJournal.SUFFIX)) {
+            for (Path file : journals) {
+                resumeFromJournal(file);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to scan {} for download journals", directory, e);
+        }
+    }
+
+    private void resumeFromJournal(Path file) {
+        DownloadJournal journal = null;
+        try {
+            journal = DownloadJournal.open(file);
+            String url = journal.getUrl();
+            if (downloads.containsKey(url) || isQueued(url)) {
+                journal.close();
+                return;
+            }
+            ResourceMetadata metadata = probe(url);
+            ResourceMetadata expected = metadata.withChecksum(journal.getChecksum());
+            List<ResourceMetadata> mirrors = probeMirrors(expected, journal.getMirrors());
+            if (!journal.matches(metadata) || !metadata.acceptsRanges()) {
+                logger.info("{} changed since it was journaled, downloading it again", url);
+                discard(journal);
+                enqueue(metadata, mirrors, journal.getMaxBytesPerSecond(), null, journal.getPriority());
+                return;
+            }
+            if (!hasJournaledTarget(journal)) {
+                // Blocks the journal counts as written would be read back as zeros from a recreated file
+                logger.info("{} is missing or was truncated since it was journaled, downloading it again", journal.getTargetFile());
+                discard(journal);
+                enqueue(expected, mirrors, journal.getMaxBytesPerSecond(), null, journal.getPriority());
+                return;
+            }
+            enqueue(expected, mirrors, journal.getMaxBytesPerSecond(), journal, journal.getPriority());
         } catch (Exception e) {
-            logger.error("Failed to start download for URL: {}", url, e);
-            throw new DownloadException("Failed to start download", e);
+            logger.error("Failed to resume download from journal {}", file, e);
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException closeException) {
+                    logger.warn("Failed to close journal {}", file, closeException);
+                }
+            }
         }
     }
 
-    public Integer getProgress(String url) {
-        return progressMap.getOrDefault(url, 0);
+    /**
+     * Deletes a journal that cannot be resumed together with its partial file, which belongs to the
+     * journaled URL and so would otherwise keep the fresh download from using its name.
+     */
+    private static void discard(DownloadJournal journal) throws IOException {
+        journal.delete();
+        Files.deleteIfExists(journal.getTargetFile());
     }
 
-    public void pauseDownload(String url) {
-        downloadTasks.forEach((key, task) -> {
-            if (key.startsWith(url)) {
-                task.pause();
-                logger.info("Download paused for URL: {}", key);
+    /**
+     * Returns true if the file the journal describes still has the length it was preallocated with.
+     */
+    private static boolean hasJournaledTarget(DownloadJournal journal) throws IOException {
+        Path target = journal.getTargetFile();
+        return Files.isRegularFile(target) && Files.size(target) == journal.getContentLength();
+    }
+
+    @PostConstruct
+    public void startCheckpointing() {
+        if (journalEnabled) {
+            housekeeper.scheduleWithFixedDelay(this::checkpointAll, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (adaptiveConcurrency && concurrencyIntervalMs > 0) {
+            housekeeper.scheduleWithFixedDelay(this::adjustConcurrency, concurrencyIntervalMs, concurrencyIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        long evictionIntervalSeconds = Math.max(1, Math.min(retentionSeconds, 60));
+        housekeeper.scheduleWithFixedDelay(this::evictFinished, evictionIntervalSeconds, evictionIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stopCheckpointing() {
+        housekeeper.shutdownNow();
+        extractors.shutdownNow();
+        checkpointAll();
+    }
+
+    /**
+     * Lets the {@link ConcurrencyController} of every running download take a sample and move its
+     * stream limit.
+     */
+    void adjustConcurrency() {
+        for (Download download : downloads.values()) {
+            ConcurrencyController concurrency = download.getConcurrency();
+            if (download.getState() != DownloadState.RUNNING || !concurrency.isAdaptive()) {
+                continue;
             }
-        });
+            int before = concurrency.getLimit();
+            ConcurrencyController.Decision decision = concurrency.sample(download.getProgress().getDownloadedBytes(), System.nanoTime());
+            if (concurrency.getLimit() != before) {
+                metrics.concurrencyAdjusted(decision);
+                logger.info("{} the streams of {} from {} to {}", decision == ConcurrencyController.Decision.INCREASE ? "Raised" : "Lowered",
+                        download.getUrl(), before, concurrency.getLimit());
+            }
+        }
     }
 
-    public void resumeDownload(String url) {
-        downloadTasks.forEach((key, task) -> {
-            if (key.startsWith(url)) {
-                task.resume();
-                logger.info("Download resumed for URL: {}", key);
+    /**
+     * Forgets downloads that finished, failed or were cancelled more than the retention period ago,
+     * so that a long-running service does not keep every download it ever ran.
+     */
+    void evictFinished() {
+        long now = System.nanoTime();
+        long retentionNanos = TimeUnit.SECONDS.toNanos(retentionSeconds);
+        downloads.forEach((url, download) -> {
+            // Only removes this very download, not one of the same URL that replaced it meanwhile
+            if (download.finishedBefore(now, retentionNanos) && downloads.remove(url, download)) {
+                logger.debug("Evicted {} download of {}", download.getState().name().toLowerCase(), url);
             }
         });
     }
 
-    public void mergeChunks(String url, int numberOfChunks) {
-        File mergedFile = new File("downloads/" + getFileNameFromUrl(url));
-        try (FileOutputStream fos = new FileOutputStream(mergedFile)) {
-            for (int i = 0; i < numberOfChunks; i++) {
-                File chunkFile = new File("downloads/" + getFileNameFromUrl(url) + ".part" + i);
-                if (chunkFile.exists()) {
-                    Files.copy(chunkFile.toPath(), fos);
-                    logger.info("Deleting chunk file {}", chunkFile.getName());
-                    Files.delete(chunkFile.toPath());
-                } else {
-                    logger.warn("Chunk file {} does not exist and cannot be merged", chunkFile.getName());
+    /**
+     * Makes the blocks finished since the last checkpoint durable for every journaled download.
+     */
+    void checkpointAll() {
+        for (Download download : downloads.values()) {
+            DownloadJournal journal = download.getJournal();
+            if (journal == null || download.getState() == DownloadState.COMPLETED || download.isStopped()) {
+                continue;
+            }
+            try {
+                journal.checkpoint(download.getTarget());
+            } catch (IOException e) {
+                logger.warn("Failed to checkpoint journal of {}", download.getUrl(), e);
+            }
+        }
+    }
+
+    /**
+     * Opens the file of {@code url} for reading while it downloads, making Hyperion a read-through
+     * proxy: unless the file is being downloaded or has been, a download of it starts first, or it
+     * is delivered from the cache. Returns null while the download waits in the queue.
+     */
+    public DownloadContent openContent(String url) {
+        DownloadContent content = contentOf(url);
+        if (content != null) {
+            return content;
+        }
+        downloadFile(url, 0);
+        return contentOf(url);
+    }
+
+    private DownloadContent contentOf(String url) {
+        Download download = downloads.get(url);
+        if (download == null || download.isStopped()) {
+            return null;
+        }
+        Path file = download.getTarget().getFile();
+        if (download.getState() == DownloadState.COMPLETED && !Files.exists(file)) {
+            return null;
+        }
+        return new DownloadContent(download.getMetadata(), file, download.getWrittenBytes());
+    }
+
+    /**
+     * Returns the progress of the download of {@code url}, or null if it is unknown.
+     */
+    public ProgressSnapshot getProgress(String url) {
+        synchronized (queue) {
+            QueuedDownload queued = queue.get(url);
+            if (queued != null) {
+                return queued.snapshot();
+            }
+        }
+        Download download = downloads.get(url);
+        return download != null ? download.snapshot() : null;
+    }
+
+    public List<ProgressSnapshot> getAllProgress() {
+        List<ProgressSnapshot> snapshots = new ArrayList<>();
+        downloads.values().forEach(download -> snapshots.add(download.snapshot()));
+        synchronized (queue) {
+            queue.values().forEach(queued -> snapshots.add(queued.snapshot()));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns the sources the download of {@code url} fetches from and how each is doing, or null if
+     * the download is unknown or has not started yet.
+     */
+    public List<SourceStatus> getSources(String url) {
+        Download download = downloads.get(url);
+        return download != null ? download.getSources().snapshot() : null;
+    }
+
+    /**
+     * Lists the active downloads followed by the queued ones in the order they will be started.
+     */
+    public List<QueueEntry> getQueue() {
+        List<QueueEntry> entries = new ArrayList<>();
+        for (Download download : downloads.values()) {
+            if (isActive(download)) {
+                entries.add(new QueueEntry(download.getUrl(), download.getPriority().name(), download.getState().name(), -1,
+                        download.snapshot().percentage()));
+            }
+        }
+        synchronized (queue) {
+            int position = 0;
+            for (QueuedDownload queued : queuedInOrder()) {
+                entries.add(new QueueEntry(queued.getMetadata().url(), queued.getPriority().name(),
+                        DownloadState.QUEUED.name(), position++, queued.snapshot().percentage()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Moves a queued download to another priority class, or changes the share of bandwidth and
+     * connections an active one gets. Returns false if there is no such download.
+     */
+    public boolean setPriority(String url, DownloadPriority priority) {
+        synchronized (queue) {
+            QueuedDownload queued = queue.get(url);
+            if (queued != null) {
+                queued.setPriority(priority);
+                logger.info("Priority of queued download {} set to {}", url, priority);
+                return true;
+            }
+        }
+        Download download = downloads.get(url);
+        if (download == null || !isActive(download)) {
+            return false;
+        }
+        download.setPriority(priority);
+        bandwidthLimiter.setWeight(url, priority.getWeight());
+        logger.info("Priority of download {} set to {}", url, priority);
+        return true;
+    }
+
+    /**
+     * Drops a queued download, or stops an active one and deletes what it wrote so far. Returns false
+     * if there is no such download.
+     */
+    public boolean cancelDownload(String url) {
+        synchronized (queue) {
+            QueuedDownload queued = queue.remove(url);
+            if (queued != null) {
+                if (queued.getJournal() != null) {
+                    queued.getJournal().delete();
                 }
+                logger.info("Queued download cancelled for URL: {}", url);
+                return true;
             }
-            logger.info("Chunks merged into final file for URL: {}", url);
+        }
+        Download download = downloads.get(url);
+        if (download == null || !stop(download, DownloadState.CANCELLED)) {
+            return false;
+        }
+        try {
+            download.getTarget().discard();
         } catch (IOException e) {
-            logger.error("Failed to merge chunks for URL: {}", url, e);
+            logger.warn("Failed to delete partial download of {}", url, e);
         }
+        logger.info("Download cancelled for URL: {}", url);
+        admitQueued();
+        return true;
     }
 
-    private long getContentLength(String url) throws IOException {
-        // Implementation to get content length from URL
-        // This method can use HttpURLConnection or any other method to determine the content length
-        // Here we are just simulating with a fixed value for testing purposes
-        return 10000000L; // Example length, 2MB
+    private boolean isQueued(String url) {
+        synchronized (queue) {
+            return queue.containsKey(url);
+        }
+    }
+
+    public void pauseDownload(String url) {
+        Download download = downloads.get(url);
+        if (download != null && download.getState() == DownloadState.RUNNING) {
+            download.setState(DownloadState.PAUSED);
+            download.getTasks().forEach(DownloadWorker::pause);
+            logger.info("Download paused for URL: {}", url);
+        }
+    }
+
+    public void resumeDownload(String url) {
+        Download download = downloads.get(url);
+        if (download != null && download.getState() == DownloadState.PAUSED) {
+            download.setState(DownloadState.RUNNING);
+            download.getTasks().forEach(DownloadWorker::resume);
+            logger.info("Download resumed for URL: {}", url);
+        }
+    }
+
+    public boolean setBandwidthLimit(String url, int maxBytesPerSecond) {
+        return bandwidthLimiter.setDownloadLimit(url, maxBytesPerSecond);
+    }
+
+    public void setGlobalBandwidthLimit(long maxBytesPerSecond) {
+        bandwidthLimiter.setGlobalLimit(maxBytesPerSecond);
+    }
+
+    /**
+     * Waits for a connection slot to the host of {@code url}, one of the sources of {@code download}.
+     */
+    public ConnectionLimiter.Permit acquireConnection(Download download, String url) throws InterruptedException {
+        return connectionLimiter.acquire(url, download, download.getPriority().getWeight());
+    }
+
+    public void completeDownload(Download download) {
+        if (download.isStopped()) {
+            return;
+        }
+        String url = download.getUrl();
+        bandwidthLimiter.unregister(url);
+        metrics.unregister(download);
+        try {
+            long startNanos = System.nanoTime();
+            download.getTarget().complete();
+            Checksum checksum = download.getVerifier().verify();
+            metrics.recordFinalize(System.nanoTime() - startNanos);
+            // Cached before the download reports completion, so nothing writes to the directory after it did
+            contentCache.store(download.getMetadata(), download.getTarget().getFile(), checksum);
+            download.getWrittenBytes().complete();
+            awaitExtraction(download);
+            download.setState(DownloadState.COMPLETED);
+            deleteJournal(download);
+            logger.info("Download completed for URL: {} in {} ms", url, download.getProgress().getElapsedMillis());
+        } catch (ChecksumMismatchException e) {
+            // No single range can be blamed for a wrong whole-file digest, so none of it can be kept
+            download.setState(DownloadState.FAILED);
+            download.getWrittenBytes().close(e.getMessage());
+            deleteJournal(download);
+            resourceProbe.invalidate(url);
+            try {
+                Files.deleteIfExists(download.getTarget().getFile());
+                if (download.getExtractor() != null) {
+                    // All bytes were on disk before the digest was checked, so the archive may be unpacked already
+                    download.getExtractor().discard();
+                }
+            } catch (IOException deleteException) {
+                logger.warn("Failed to delete {}", download.getTarget().getFile(), deleteException);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            logger.error("Download failed verification for URL: {}: {}", url, e.getMessage());
+        } catch (IOException e) {
+            download.setState(DownloadState.FAILED);
+            download.getWrittenBytes().close("Failed to finalize: " + e);
+            logger.error("Failed to finalize download for URL: {}", url, e);
+        }
+        admitQueued();
+    }
+
+    /**
+     * Gives {@code download} an extractor that unpacks its file while it downloads, if extraction is
+     * on and the file is an archive. Called under the queue lock, so that two downloads never pick
+     * the same output.
+     */
+    private void attachExtractor(Download download) {
+        Path file = download.getTarget().getFile();
+        ArchiveExtractor.Format format = extractArchives ? ArchiveExtractor.Format.of(file) : null;
+        if (format == null) {
+            return;
+        }
+        Path output = extractionOutput(download.getUrl(), format.output(file));
+        download.setExtractor(new ArchiveExtractor(format, new DownloadContent(download.getMetadata(), file, download.getWrittenBytes()), output));
+    }
+
+    private void startExtraction(Download download) {
+        ArchiveExtractor extractor = download.getExtractor();
+        if (extractor != null) {
+            extractor.start(extractors);
+            logger.info("Extracting {} to {} while it downloads", download.getTarget().getFile(), extractor.getOutput());
+        }
+    }
+
+    /**
+     * Returns where the archive of {@code url} is extracted to: {@code output}, unless that already
+     * exists without having been extracted from this URL, in which case the name is made unique so
+     * that replacing an earlier extraction can never delete someone else's file.
+     */
+    private Path extractionOutput(String url, Path output) {
+        if (isFreeFor(output, url)) {
+            return output;
+        }
+        Path unique = output.resolveSibling(uniqueName(output.getFileName().toString(), url));
+        logger.info("{} already exists, extracting {} to {}", output, url, unique);
+        return unique;
+    }
+
+    /**
+     * Waits for the extraction of a download whose bytes are all on disk, so that it is done by the
+     * time the download reports completion. A broken archive does not fail the download.
+     */
+    private void awaitExtraction(Download download) {
+        ArchiveExtractor extractor = download.getExtractor();
+        if (extractor == null) {
+            return;
+        }
+        try {
+            extractor.await();
+        } catch (IOException e) {
+            logger.error("Failed to extract {}", download.getTarget().getFile(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops a download that cannot be finished, e.g. because the file changed on the server.
+     */
+    public void failDownload(Download download, String reason) {
+        if (!stop(download, DownloadState.FAILED)) {
+            return;
+        }
+        resourceProbe.invalidate(download.getUrl());
+        try {
+            download.getTarget().close();
+        } catch (IOException e) {
+            logger.warn("Failed to close target of failed download {}", download.getUrl(), e);
+        }
+        logger.error("Download failed for URL: {}: {}", download.getUrl(), reason);
+        admitQueued();
+    }
+
+    /**
+     * Moves an unfinished download to {@code state} and releases what it holds. Returns false if the
+     * download had already finished or been stopped.
+     */
+    private boolean stop(Download download, DownloadState state) {
+        synchronized (download) {
+            if (download.isStopped() || download.getState() == DownloadState.COMPLETED) {
+                return false;
+            }
+            download.setState(state);
+        }
+        bandwidthLimiter.unregister(download.getUrl());
+        metrics.unregister(download);
+        deleteJournal(download);
+        download.getWrittenBytes().close("Download " + state.name().toLowerCase());
+        // Paused workers have to wake up to notice that they are done
+        download.getTasks().forEach(DownloadWorker::resume);
+        return true;
+    }
+
+    /**
+     * Records the bytes an earlier run wrote, everything but {@code missing}, as on disk.
+     */
+    private static void markJournaled(WrittenBytes written, List<RangeScheduler.Span> missing, long contentLength) {
+        long position = 0;
+        for (RangeScheduler.Span span : missing) {
+            written.add(position, span.start());
+            position = span.end() + 1;
+        }
+        written.add(position, contentLength);
+    }
+
+    private void deleteJournal(Download download) {
+        DownloadJournal journal = download.getJournal();
+        if (journal != null) {
+            // Serializes with a checkpoint that may be running for this download
+            synchronized (journal) {
+                journal.delete();
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete {}", file, e);
+        }
+    }
+
+    private DownloadTarget createTarget(Path file, long contentLength) throws IOException {
+        if (preallocate) {
+            return new PreallocatedFileTarget(file, contentLength);
+        }
+        return new PartFileTarget(file);
+    }
+
+    ResourceMetadata probe(String url) throws IOException, InterruptedException {
+        return resourceProbe.probe(url);
+    }
+
+    /**
+     * Returns where {@code url} is downloaded to: the last segment of its path, unless that file is
+     * {@link #isFreeFor taken}, in which case a hash of the full URL is added to the name. The hashed
+     * name depends on nothing but the URL, so it stays the same across restarts.
+     */
+    private Path targetFile(String url) {
+        String name = getFileNameFromUrl(url);
+        Path file = Paths.get(downloadDirectory, name);
+        if (isFreeFor(file, url)) {
+            return file;
+        }
+        String unique = uniqueName(name, url);
+        logger.info("{} is taken, saving {} as {}", name, url, unique);
+        return Paths.get(downloadDirectory, unique);
+    }
+
+    /**
+     * Returns true if {@code file} may be replaced by the download of {@code url}: it belongs to that
+     * URL, or it does not exist and belongs to no other download. A file whose owner is not known,
+     * e.g. one left by an earlier run, is never replaced.
+     */
+    private boolean isFreeFor(Path file, String url) {
+        String owner = ownerOf(file);
+        return owner != null ? owner.equals(url) : !Files.exists(file);
+    }
+
+    /**
+     * Returns {@code name} with the first 64 bits of the SHA-256 of {@code url} added before its extension.
+     */
+    private static String uniqueName(String name, String url) {
+        String suffix;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            suffix = "-" + HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix;
+    }
+
+    private String ownerOf(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        synchronized (queue) {
+            for (QueuedDownload queued : queue.values()) {
+                if (queued.isStarting() && queued.getTarget().toAbsolutePath().normalize().equals(normalized)) {
+                    return queued.getMetadata().url();
+                }
+            }
+        }
+        for (Download download : downloads.values()) {
+            if (download.getTarget().getFile().toAbsolutePath().normalize().equals(normalized)) {
+                return download.getUrl();
+            }
+            ArchiveExtractor extractor = download.getExtractor();
+            if (extractor != null && extractor.getOutput().toAbsolutePath().normalize().equals(normalized)) {
+                return download.getUrl();
+            }
+        }
+        return contentCache.ownerOf(file);
     }
 
     private String getFileNameFromUrl(String url) {
@@ -0,0 +1,10 @@
+package com.bhupender.Hyperion.service;
+
+public enum DownloadState {
+    QUEUED,
+    RUNNING,
+    PAUSED,
+    COMPLETED,
+    FAILED,
+    CANCELLED
+}
@@ -0,0 +1,49 @@
+package com.bhupender.Hyperion.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Destination of a download. Chunk tasks obtain a {@link ChunkWriter} for their byte range and the
+ * service calls {@link #complete()} once every chunk has finished.
+ */
+public interface DownloadTarget extends Closeable {
+
+    ChunkWriter openChunk(int chunkIndex, long startByte) throws IOException;
+
+    /**
+     * Returns the file the download ends up in.
+     */
+    Path getFile();
+
+    /**
+     * Whether chunks are written into {@link #getFile()} itself, so it can be read before
+     * {@link #complete()}.
+     */
+    boolean isWrittenInPlace();
+
+    /**
+     * Finalizes the target after the last chunk has been written.
+     */
+    void complete() throws IOException;
+
+    /**
+     * Forces everything written so far to the storage device.
+     */
+    void sync() throws IOException;
+
+    /**
+     * Closes the target and deletes whatever was written, for downloads that will not be finished.
+     */
+    void discard() throws IOException;
+
+    interface ChunkWriter extends Closeable {
+
+        /**
+         * Writes all remaining bytes of {@code src} after whatever this writer wrote before.
+         */
+        void write(ByteBuffer src) throws IOException;
+    }
+}
@@ -0,0 +1,198 @@
+package com.bhupender.Hyperion.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Checks a finished download against the checksum it is expected to have without reading the
+ * whole file again once the last byte is in.
+ * <p>
+ * Workers compute a CRC32C of every span they write while the bytes are still in their buffer and
+ * report it with {@link #recordSegment}. A whole-file CRC32C is combined from those values and only
+ * spans nobody reported, such as blocks written before a restart, are read back. SHA-256 and MD5
+ * cannot be combined from pieces, so for those {@link #advance()} hashes the file in order while it
+ * downloads, following the contiguous prefix of finished spans while they are still in the page
+ * cache.
+ */
+public class DownloadVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadVerifier.class);
+
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final Path file;
+    private final long length;
+    private final Checksum expected;
+    private final boolean writtenInPlace;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // Only used for digests that have to be computed in file order
+    private final MessageDigest digest;
+    private final ReentrantLock digestLock = new ReentrantLock();
+    private long digestedUpTo;
+
+    /**
+     * @param expected       checksum the file must have, or null to only report the combined CRC32C
+     * @param writtenInPlace whether {@code file} receives the bytes while downloading, so that it can
+     *                       be hashed before the download completes
+     */
+    public DownloadVerifier(Path file, long length, Checksum expected, boolean writtenInPlace) {
+        this.file = file;
+        this.length = length;
+        this.expected = expected;
+        this.writtenInPlace = writtenInPlace;
+        this.digest = expected != null && !expected.isCrc32c() ? expected.newDigest() : null;
+    }
+
+    public Checksum getExpected() {
+        return expected;
+    }
+
+    /**
+     * Records that {@code [start, start + length)} was written with the given CRC32C.
+     */
+    public void recordSegment(long start, long length, int crc) {
+        if (length > 0) {
+            segments.put(start, new Segment(start, length, crc));
+        }
+    }
+
+    /**
+     * Hashes as much of the file as is contiguously written. Returns right away if there is
+     * nothing to hash in order or another worker is already doing it.
+     */
+    public void advance() throws IOException {
+        if (digest == null || !writtenInPlace || !digestLock.tryLock()) {
+            return;
+        }
+        try {
+            digestUpTo(contiguousEnd(digestedUpTo));
+        } finally {
+            digestLock.unlock();
+        }
+    }
+
+    /**
+     * Computes the checksum of the complete file and compares it with the expected one. Returns the
+     * computed checksum, or null if nothing was expected and the CRC32C cannot be had without
+     * reading the file.
+     *
+     * @throws ChecksumMismatchException if the file does not have the expected checksum
+     */
+    public Checksum verify() throws IOException {
+        Checksum actual;
+        if (digest == null) {
+            if (expected == null && contiguousEnd(0) < length) {
+                return null;
+            }
+            actual = Checksum.crc32c(combinedCrc());
+        } else {
+            digestLock.lock();
+            try {
+                digestUpTo(length);
+                actual = new Checksum(expected.algorithm(), digest.digest());
+            } finally {
+                digestLock.unlock();
+            }
+        }
+        if (expected != null && !expected.matches(actual)) {
+            throw new ChecksumMismatchException(file + " has " + actual + " but " + expected + " was expected");
+        }
+        logger.info("{} has {}{}", file, actual, expected != null ? " as expected" : "");
+        return actual;
+    }
+
+    /**
+     * Combines the recorded CRCs in offset order, reading only the bytes no segment covers.
+     */
+    private int combinedCrc() throws IOException {
+        int crc = 0;
+        long position = 0;
+        for (Segment segment : segments.values()) {
+            if (segment.start() < position) {
+                // Overlaps bytes that were already accounted for, so its CRC cannot be used
+                continue;
+            }
+            if (segment.start() > position) {
+                crc = Crc32c.combine(crc, crcOf(position, segment.start()), segment.start() - position);
+            }
+            crc = Crc32c.combine(crc, segment.crc(), segment.length());
+            position = segment.end();
+        }
+        if (position < length) {
+            crc = Crc32c.combine(crc, crcOf(position, length), length - position);
+        }
+        return crc;
+    }
+
+    /**
+     * Feeds the in-order digest up to {@code end}, keeping track of each buffer so a failed read can
+     * be picked up where it stopped.
+     */
+    private void digestUpTo(long end) throws IOException {
+        read(digestedUpTo, end, buffer -> {
+            digestedUpTo += buffer.remaining();
+            digest.update(buffer);
+        });
+    }
+
+    private int crcOf(long from, long to) throws IOException {
+        CRC32C crc = new CRC32C();
+        read(from, to, crc::update);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the end of the run of recorded segments that covers {@code from}.
+     */
+    private long contiguousEnd(long from) {
+        long end = from;
+        while (end < length) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(end);
+            if (entry == null || entry.getValue().end() <= end) {
+                break;
+            }
+            end = entry.getValue().end();
+        }
+        return end;
+    }
+
+    private void read(long from, long to, ByteConsumer consumer) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_SIZE, to - from));
+        long position = from;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (position < to) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), to - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException(file + " ends at " + position + " instead of " + to);
+                }
+                consumer.accept(buffer.flip());
+                position += read;
+            }
+        }
+    }
+
+    private interface ByteConsumer {
+        void accept(ByteBuffer buffer);
+    }
+
+    private record Segment(long start, long length, int crc) {
+        long end() {
+            return start + length;
+        }
+    }
+}
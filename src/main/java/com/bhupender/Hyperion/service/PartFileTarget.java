@@ -0,0 +1,111 @@
+package com.bhupender.Hyperion.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Legacy target that writes each range to its own {@code .partN} file and concatenates them in offset
+ * order into the final file once all ranges are done. A range that is opened again, e.g. to fetch
+ * its rest from another source, continues its part file at the offset it is reopened at.
+ */
+public class PartFileTarget implements DownloadTarget {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartFileTarget.class);
+
+    private final Path file;
+    private final ConcurrentSkipListMap<Long, Integer> chunksByOffset = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Long> chunkStarts = new ConcurrentHashMap<>();
+
+    public PartFileTarget(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+    }
+
+    @Override
+    public ChunkWriter openChunk(int chunkIndex, long startByte) throws IOException {
+        long chunkStart = chunkStarts.computeIfAbsent(chunkIndex, index -> {
+            chunksByOffset.put(startByte, index);
+            return startByte;
+        });
+        FileChannel channel = FileChannel.open(partFile(chunkIndex), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            // Anything past the reopening offset was not confirmed and is fetched again
+            channel.truncate(startByte - chunkStart);
+            channel.position(startByte - chunkStart);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new ChunkWriter() {
+            @Override
+            public void write(ByteBuffer src) throws IOException {
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    @Override
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public boolean isWrittenInPlace() {
+        return false;
+    }
+
+    @Override
+    public void complete() throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file.toFile())) {
+            for (int chunkIndex : chunksByOffset.values()) {
+                Path chunkFile = partFile(chunkIndex);
+                if (Files.exists(chunkFile)) {
+                    Files.copy(chunkFile, fos);
+                    logger.info("Deleting chunk file {}", chunkFile.getFileName());
+                    Files.delete(chunkFile);
+                } else {
+                    logger.warn("Chunk file {} does not exist and cannot be merged", chunkFile.getFileName());
+                }
+            }
+        }
+        logger.info("Chunks merged into final file {}", file);
+    }
+
+    @Override
+    public void sync() {
+        // Part files are not journaled, so there is nothing to make durable ahead of completion
+    }
+
+    @Override
+    public void discard() throws IOException {
+        for (int chunkIndex : chunksByOffset.values()) {
+            Files.deleteIfExists(partFile(chunkIndex));
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Path partFile(int chunkIndex) {
+        return file.resolveSibling(file.getFileName() + ".part" + chunkIndex);
+    }
+}
@@ -0,0 +1,101 @@
+package com.bhupender.Hyperion.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes every chunk straight into one output file that is sized up front. Chunks share a single
+ * {@link FileChannel} and write at their own offsets, so the file is complete as soon as the last
+ * chunk finishes and no merge pass is needed.
+ */
+public class PreallocatedFileTarget implements DownloadTarget {
+
+    private static final Logger logger = LoggerFactory.getLogger(PreallocatedFileTarget.class);
+
+    private final Path file;
+    private final FileChannel channel;
+
+    public PreallocatedFileTarget(Path file, long length) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        preallocate(length);
+    }
+
+    private void preallocate(long length) throws IOException {
+        if (channel.size() > length) {
+            channel.truncate(length);
+        } else if (channel.size() < length && length > 0) {
+            // Writing the last byte extends the file without touching the rest, which leaves a sparse
+            // file on filesystems that support it.
+            channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+        }
+        logger.info("Preallocated {} bytes for {}", length, file);
+    }
+
+    @Override
+    public ChunkWriter openChunk(int chunkIndex, long startByte) {
+        return new PositionalWriter(startByte);
+    }
+
+    @Override
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public boolean isWrittenInPlace() {
+        return true;
+    }
+
+    @Override
+    public void complete() throws IOException {
+        channel.force(true);
+        channel.close();
+        logger.info("Download written to {}", file);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void discard() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private class PositionalWriter implements ChunkWriter {
+
+        private long position;
+
+        PositionalWriter(long startByte) {
+            this.position = startByte;
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                position += channel.write(src, position);
+            }
+        }
+
+        @Override
+        public void close() {
+            // The channel is shared between chunks and closed by the target.
+        }
+    }
+}
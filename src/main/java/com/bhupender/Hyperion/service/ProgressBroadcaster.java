@@ -0,0 +1,242 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pushes progress to streaming subscribers. One pass every {@code download.progress.streamIntervalMs}
+ * takes the snapshots of all downloads and serializes each of them once, however many subscribers
+ * there are. Subscribers can ask for a longer interval but not a shorter one. Each subscriber only
+ * ever has the latest update pending, so a slow client skips intermediate updates instead of
+ * building up a backlog, and nothing is sent while a download's progress does not change.
+ * <p>
+ * A subscription to a single download ends after the update that shows it completed, failed or was
+ * cancelled, or as soon as the download is no longer known at all, e.g. because it was cancelled
+ * while queued or forgotten after its retention period.
+ */
+@Component
+public class ProgressBroadcaster {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgressBroadcaster.class);
+
+    private final DownloadService downloadService;
+    private final ObjectMapper objectMapper;
+    private final long intervalMillis;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("progress-broadcaster").daemon().factory());
+    // Writes to clients can block, so they never run on the ticker
+    private final ExecutorService sender = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("progress-sender-", 0).factory());
+
+    public ProgressBroadcaster(DownloadService downloadService, ObjectMapper objectMapper,
+                               @Value("${download.progress.streamIntervalMs:500}") long intervalMillis) {
+        this.downloadService = downloadService;
+        this.objectMapper = objectMapper;
+        this.intervalMillis = Math.max(1, intervalMillis);
+    }
+
+    /**
+     * Receives the serialized updates of one subscription.
+     */
+    public interface ProgressSink {
+
+        void send(String json) throws IOException;
+
+        /**
+         * Called after the last update of a subscription to a download that has finished.
+         */
+        void complete();
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker.scheduleAtFixedRate(this::publish, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+        subscriptions.forEach(Subscription::cancel);
+        sender.shutdownNow();
+    }
+
+    /**
+     * Streams the progress of the download of {@code url}, or of all downloads as one JSON array if
+     * {@code url} is null, to {@code sink} at most every {@code intervalMillis}.
+     */
+    public Subscription subscribe(String url, long intervalMillis, ProgressSink sink) {
+        long interval = Math.max(intervalMillis, this.intervalMillis);
+        Subscription subscription = new Subscription(url, TimeUnit.MILLISECONDS.toNanos(interval), sink);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Takes one round of snapshots and hands them to the subscribers that are due.
+     */
+    void publish() {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            List<ProgressSnapshot> snapshots = null;
+            String all = null;
+            Map<String, Update> byUrl = null;
+            for (Subscription subscription : subscriptions) {
+                if (!subscription.isDue(now)) {
+                    continue;
+                }
+                if (snapshots == null) {
+                    snapshots = downloadService.getAllProgress();
+                }
+                if (subscription.url == null) {
+                    if (all == null) {
+                        all = objectMapper.writeValueAsString(snapshots);
+                    }
+                    subscription.offer(all, false);
+                    continue;
+                }
+                if (byUrl == null) {
+                    byUrl = new HashMap<>();
+                    for (ProgressSnapshot snapshot : snapshots) {
+                        byUrl.put(snapshot.url(), new Update(snapshot));
+                    }
+                }
+                Update update = byUrl.get(subscription.url);
+                if (update != null) {
+                    subscription.offer(update.json(), update.finished);
+                } else if (downloadService.getProgress(subscription.url) == null) {
+                    // Looked up again, as a queued download may have started between the two halves of the snapshot
+                    subscription.end();
+                }
+            }
+        } catch (RuntimeException | JsonProcessingException e) {
+            // An exception would cancel the periodic task for every subscriber
+            logger.error("Failed to publish download progress", e);
+        }
+    }
+
+    /**
+     * Snapshot of one download serialized at most once per pass.
+     */
+    private class Update {
+
+        private final ProgressSnapshot snapshot;
+        private final boolean finished;
+        private String json;
+
+        Update(ProgressSnapshot snapshot) {
+            this.snapshot = snapshot;
+            this.finished = snapshot.state().equals(DownloadState.COMPLETED.name())
+                    || snapshot.state().equals(DownloadState.FAILED.name())
+                    || snapshot.state().equals(DownloadState.CANCELLED.name());
+        }
+
+        String json() throws JsonProcessingException {
+            if (json == null) {
+                json = objectMapper.writeValueAsString(snapshot);
+            }
+            return json;
+        }
+    }
+
+    public class Subscription {
+
+        private final String url;
+        private final long intervalNanos;
+        private final ProgressSink sink;
+        private final AtomicReference<String> pending = new AtomicReference<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private long nextDueNanos = System.nanoTime();
+        private String lastOffered;
+        private volatile boolean finishing;
+        private volatile boolean cancelled;
+
+        private Subscription(String url, long intervalNanos, ProgressSink sink) {
+            this.url = url;
+            this.intervalNanos = intervalNanos;
+            this.sink = sink;
+        }
+
+        private boolean isDue(long now) {
+            if (cancelled || finishing || now - nextDueNanos < 0) {
+                return false;
+            }
+            nextDueNanos = now + intervalNanos;
+            return true;
+        }
+
+        private void offer(String json, boolean last) {
+            if (json.equals(lastOffered) && !last) {
+                return;
+            }
+            lastOffered = json;
+            finishing = last;
+            pending.set(json);
+            if (sending.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        /**
+         * Completes the subscription once whatever is pending has been sent.
+         */
+        private void end() {
+            finishing = true;
+            if (sending.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                String json;
+                while (!cancelled && (json = pending.getAndSet(null)) != null) {
+                    try {
+                        sink.send(json);
+                    } catch (IOException | RuntimeException e) {
+                        logger.debug("Dropping progress subscriber of {}: {}", url, e.toString());
+                        cancel();
+                    }
+                }
+                sending.set(false);
+                // An update offered after the loop ended but before the flag was cleared is ours to send
+            } while (!cancelled && pending.get() != null && sending.compareAndSet(false, true));
+
+            if (finishing && !cancelled && pending.get() == null) {
+                cancel();
+                sink.complete();
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A download waiting for a free slot, together with everything needed to start it. A download that
+ * was given a slot stays queued while its file is set up, so that it remains visible and its file
+ * name stays reserved until it runs.
+ */
+final class QueuedDownload {
+
+    private final ResourceMetadata metadata;
+    private final List<ResourceMetadata> mirrors;
+    private final long speedLimit;
+    private final DownloadJournal journal;
+    private final long sequence;
+    private final long enqueuedNanos = System.nanoTime();
+    private DownloadPriority priority;
+    // Set once the download was given a slot and is being started
+    private Path target;
+
+    QueuedDownload(ResourceMetadata metadata, List<ResourceMetadata> mirrors, long speedLimit, DownloadJournal journal,
+                   DownloadPriority priority, long sequence) {
+        this.metadata = metadata;
+        this.mirrors = mirrors;
+        this.speedLimit = speedLimit;
+        this.journal = journal;
+        this.priority = priority;
+        this.sequence = sequence;
+    }
+
+    ResourceMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Mirrors that were found to serve the same file.
+     */
+    List<ResourceMetadata> getMirrors() {
+        return mirrors;
+    }
+
+    long getSpeedLimit() {
+        return speedLimit;
+    }
+
+    /**
+     * Journal of an interrupted earlier run to resume from, or null.
+     */
+    DownloadJournal getJournal() {
+        return journal;
+    }
+
+    DownloadPriority getPriority() {
+        return priority;
+    }
+
+    void setPriority(DownloadPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * File the download was given when it got its slot, or null while it waits for one.
+     */
+    Path getTarget() {
+        return target;
+    }
+
+    void setTarget(Path target) {
+        this.target = target;
+    }
+
+    boolean isStarting() {
+        return target != null;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    ProgressSnapshot snapshot() {
+        long total = metadata.contentLength();
+        long done = journal != null ? journal.completedBytes() : 0;
+        return new ProgressSnapshot(metadata.url(), DownloadState.QUEUED.name(), total, done, total > 0 ? done * 100.0 / total : 0, 0, -1,
+                0, ConcurrencyController.Decision.START.name());
+    }
+
+    /**
+     * Priority class adjusted for how long the download has waited: it moves up one class for every
+     * {@code agingNanos} in the queue, so a steady stream of urgent downloads cannot starve it.
+     */
+    long effectiveRank(long now, long agingNanos) {
+        long aged = agingNanos > 0 ? (now - enqueuedNanos) / agingNanos : 0;
+        return priority.ordinal() + aged;
+    }
+}
@@ -0,0 +1,268 @@
+package com.bhupender.Hyperion.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Hands out the byte ranges of one download to its workers. The file starts out as one range per
+ * worker; a worker that runs out of work splits the largest unfinished range in half and takes over
+ * its tail, so a slow connection only holds on to as much of the file as it can finish in time.
+ * Splits are aligned to the base chunk size, which is also the smallest range ever created.
+ * Files from servers without range support are fetched as one range that is never split.
+ * <p>
+ * Once nothing is left to split, {@link #hedge} lets an idle worker fetch the rest of a straggling
+ * range a second time. The pair counts as one open range: whichever copy finishes first wins, and
+ * the other is cancelled when the winner is {@link #resolveHedge resolved}.
+ */
+public class RangeScheduler {
+
+    private static final int RECENT_RATES = 32;
+
+    private final long contentLength;
+    private final long blockSize;
+    private final boolean splittable;
+    private final Deque<ByteRange> pending = new ArrayDeque<>();
+    private final List<ByteRange> active = new ArrayList<>();
+    // Counts ranges that have been created but not finished; it only reaches zero once the file is complete
+    private final AtomicInteger openRanges = new AtomicInteger();
+    // Both copies of a hedged range, each mapped to the other
+    private final Map<ByteRange, ByteRange> twins = new HashMap<>();
+    private final Set<ByteRange> hedges = new HashSet<>();
+    // Bytes per second of recently finished ranges, the baseline a straggler is compared with
+    private final Deque<Double> recentRates = new ArrayDeque<>();
+    private int nextId;
+
+    public RangeScheduler(long contentLength, long blockSize, int parallelism) {
+        this(contentLength, blockSize, parallelism, List.of(new Span(0, contentLength - 1)), true);
+    }
+
+    private RangeScheduler(long contentLength, long blockSize, int parallelism, List<Span> spans, boolean splittable) {
+        if (contentLength <= 0 || blockSize <= 0 || parallelism <= 0 || spans.isEmpty()) {
+            throw new IllegalArgumentException("Invalid content length, block size or parallelism");
+        }
+        this.contentLength = contentLength;
+        this.blockSize = blockSize;
+        this.splittable = splittable;
+
+        // Cut the spans into about one range per worker, giving each span a share proportional to its size
+        long totalBlocks = spans.stream().mapToLong(this::blocks).sum();
+        long targetRanges = Math.min(parallelism, totalBlocks);
+        for (Span span : spans) {
+            long spanBlocks = blocks(span);
+            long slices = Math.max(1, Math.min(spanBlocks, Math.round((double) spanBlocks * targetRanges / totalBlocks)));
+            long blocksPerRange = spanBlocks / slices;
+            long extraBlocks = spanBlocks % slices;
+            long start = span.start();
+            for (int i = 0; i < slices; i++) {
+                long rangeBlocks = blocksPerRange + (i < extraBlocks ? 1 : 0);
+                long end = Math.min(start + rangeBlocks * blockSize - 1, span.end());
+                pending.add(new ByteRange(nextId++, start, end));
+                start = end + 1;
+            }
+        }
+        openRanges.set(pending.size());
+    }
+
+    /**
+     * Creates a scheduler that hands out the whole file as a single range.
+     */
+    public static RangeScheduler singleStream(long contentLength) {
+        return new RangeScheduler(contentLength, contentLength, 1, List.of(new Span(0, contentLength - 1)), false);
+    }
+
+    /**
+     * Creates a scheduler that only fetches {@code spans}, e.g. the parts of a file that were still
+     * missing when an earlier run stopped. Spans have to start on a block boundary.
+     */
+    public static RangeScheduler forSpans(long contentLength, long blockSize, int parallelism, List<Span> spans) {
+        return new RangeScheduler(contentLength, blockSize, parallelism, spans, true);
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public synchronized int getInitialRangeCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the next range to fetch, splitting the largest active range when nothing is queued.
+     * Returns null once there is nothing left that is worth splitting.
+     */
+    public synchronized ByteRange next() {
+        ByteRange range = pending.poll();
+        if (range == null) {
+            range = stealLargest();
+        }
+        if (range != null) {
+            active.add(range);
+            range.begin(System.nanoTime());
+        }
+        return range;
+    }
+
+    /**
+     * Returns a hedged copy of the remaining blocks of the active range that is slowest compared to
+     * the median rate of the download, or null if no range that has been fetched for at least
+     * {@code minAgeNanos} is below {@code slowRatio} of it. {@code budget} is only asked once a
+     * straggler has been found, and no copy is made if it refuses.
+     */
+    public synchronized ByteRange hedge(double slowRatio, long minAgeNanos, BooleanSupplier budget) {
+        if (!splittable || slowRatio <= 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        List<Double> rates = new ArrayList<>(recentRates);
+        for (ByteRange range : active) {
+            if (range.fetchNanos(now) >= minAgeNanos) {
+                rates.add(range.bytesPerSecond(now));
+            }
+        }
+        if (rates.size() < 2) {
+            return null;
+        }
+        rates.sort(null);
+        double median = rates.get(rates.size() / 2);
+
+        ByteRange straggler = null;
+        double longestTimeLeft = 0;
+        for (ByteRange range : active) {
+            if (twins.containsKey(range) || range.fetchNanos(now) < minAgeNanos || range.remaining() <= 0) {
+                continue;
+            }
+            double rate = range.bytesPerSecond(now);
+            double timeLeft = range.remaining() / Math.max(rate, 1);
+            if (rate < slowRatio * median && timeLeft > longestTimeLeft) {
+                longestTimeLeft = timeLeft;
+                straggler = range;
+            }
+        }
+        if (straggler == null || !budget.getAsBoolean()) {
+            return null;
+        }
+        // The copy starts on the block the straggler is in, so it writes whole blocks the journal can flag
+        long start = straggler.getPosition() / blockSize * blockSize;
+        ByteRange copy = new ByteRange(nextId++, start, straggler.getEnd());
+        twins.put(straggler, copy);
+        twins.put(copy, straggler);
+        hedges.add(copy);
+        active.add(copy);
+        copy.begin(now);
+        return copy;
+    }
+
+    /**
+     * Returns true if {@code range} is a hedged copy, whose bytes count towards the download only if
+     * it wins.
+     */
+    public synchronized boolean isHedge(ByteRange range) {
+        return hedges.contains(range);
+    }
+
+    /**
+     * Settles the race between {@code winner} and its twin, if it has one that is still running,
+     * by cancelling the twin and aborting its fetch. Returns how many bytes the winner fetched that
+     * have not been counted yet: the bytes the original still had left if the winner is the hedged
+     * copy, and zero otherwise. Must be called before {@link #finish(ByteRange)}.
+     */
+    public long resolveHedge(ByteRange winner) {
+        ByteRange twin;
+        long abandoned;
+        boolean winnerIsHedge;
+        synchronized (this) {
+            twin = twins.remove(winner);
+            winnerIsHedge = hedges.remove(winner);
+            if (twin == null) {
+                return 0;
+            }
+            twins.remove(twin);
+            hedges.remove(twin);
+            active.remove(twin);
+            abandoned = twin.cancel();
+        }
+        // Outside the monitor, as closing a connection may take a moment
+        twin.abort();
+        return winnerIsHedge ? abandoned : 0;
+    }
+
+    /**
+     * Marks a range as fetched and returns true when it was the last open range of the download.
+     */
+    public boolean finish(ByteRange range) {
+        synchronized (this) {
+            if (!active.remove(range)) {
+                return false;
+            }
+            recentRates.addLast(range.bytesPerSecond(System.nanoTime()));
+            if (recentRates.size() > RECENT_RATES) {
+                recentRates.removeFirst();
+            }
+        }
+        return openRanges.decrementAndGet() == 0;
+    }
+
+    /**
+     * Returns true if {@code range} has been handed out and is neither finished nor cancelled.
+     */
+    public synchronized boolean isActive(ByteRange range) {
+        return active.contains(range);
+    }
+
+    /**
+     * Returns true while some range is being fetched, so that a straggler may still turn up.
+     */
+    public synchronized boolean hasActiveRanges() {
+        return !active.isEmpty();
+    }
+
+    public boolean isComplete() {
+        return openRanges.get() == 0;
+    }
+
+    private long blocks(Span span) {
+        return (span.end() - span.start() + blockSize) / blockSize;
+    }
+
+    private ByteRange stealLargest() {
+        if (!splittable) {
+            return null;
+        }
+        ByteRange victim = null;
+        long largest = 0;
+        for (ByteRange range : active) {
+            if (twins.containsKey(range)) {
+                // Both copies would have to be cut at the same offset
+                continue;
+            }
+            long remaining = range.remaining();
+            if (remaining > largest) {
+                largest = remaining;
+                victim = range;
+            }
+        }
+        if (victim == null) {
+            return null;
+        }
+        ByteRange tail = victim.splitTail(nextId, blockSize);
+        if (tail != null) {
+            nextId++;
+            openRanges.incrementAndGet();
+        }
+        return tail;
+    }
+
+    /**
+     * An inclusive span of bytes.
+     */
+    public record Span(long start, long end) {
+    }
+}
@@ -0,0 +1,13 @@
+package com.bhupender.Hyperion.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server indicates that a file changed while it was being downloaded, so the bytes
+ * already written can no longer be combined with new ones.
+ */
+public class ResourceChangedException extends IOException {
+    public ResourceChangedException(String message) {
+        super(message);
+    }
+}
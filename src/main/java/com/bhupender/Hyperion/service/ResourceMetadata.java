@@ -0,0 +1,41 @@
+package com.bhupender.Hyperion.service;
+
+/**
+ * What a probe learned about a remote file.
+ *
+ * @param contentLength length in bytes, or -1 when the server did not say
+ * @param acceptsRanges whether the server answers range requests with 206 Partial Content
+ * @param etag          entity tag, or null
+ * @param lastModified  Last-Modified header value, or null
+ * @param checksum      digest the downloaded file must have, or null if neither the server nor the
+ *                      caller named one
+ */
+public record ResourceMetadata(String url, long contentLength, boolean acceptsRanges, String etag, String lastModified,
+                               Checksum checksum) {
+
+    public ResourceMetadata(String url, long contentLength, boolean acceptsRanges, String etag, String lastModified) {
+        this(url, contentLength, acceptsRanges, etag, lastModified, null);
+    }
+
+    /**
+     * Returns a copy that expects {@code checksum} instead, e.g. one supplied by the caller. A null
+     * checksum keeps the current one.
+     */
+    public ResourceMetadata withChecksum(Checksum checksum) {
+        if (checksum == null) {
+            return this;
+        }
+        return new ResourceMetadata(url, contentLength, acceptsRanges, etag, lastModified, checksum);
+    }
+
+    /**
+     * Returns the validator to send as {@code If-Range}, or null if there is none. Weak entity tags
+     * are not allowed there, so the modification date is used instead.
+     */
+    public String ifRangeValidator() {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+}
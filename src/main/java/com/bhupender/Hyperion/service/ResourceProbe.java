@@ -0,0 +1,186 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.transport.ChunkTransport;
+import com.bhupender.Hyperion.transport.TransportResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds out the length, range support and validators of a remote file with a HEAD request, falling
+ * back to a {@code bytes=0-0} GET when HEAD does not tell us enough. Results are kept in a bounded
+ * LRU cache with a time to live, and concurrent probes of the same URL share one request.
+ * {@link #revalidate(ResourceMetadata)} instead asks with a conditional HEAD whether a file known
+ * from an earlier download is still current.
+ */
+@Component
+public class ResourceProbe {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceProbe.class);
+
+    private final ChunkTransport transport;
+    private final long ttlNanos;
+    private final Map<String, CacheEntry> cache;
+
+    public ResourceProbe(ChunkTransport transport,
+                         @Value("${download.probe.cacheSize:1024}") int cacheSize,
+                         @Value("${download.probe.cacheTtlSeconds:300}") long cacheTtlSeconds) {
+        this.transport = transport;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(cacheTtlSeconds);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public ResourceMetadata probe(String url) throws IOException, InterruptedException {
+        CompletableFuture<ResourceMetadata> result;
+        boolean owner = false;
+        synchronized (cache) {
+            CacheEntry entry = cache.get(url);
+            if (entry == null || entry.isExpired()) {
+                entry = new CacheEntry(new CompletableFuture<>(), System.nanoTime() + ttlNanos);
+                cache.put(url, entry);
+                owner = true;
+            }
+            result = entry.metadata;
+        }
+
+        if (owner) {
+            try {
+                result.complete(fetch(url));
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                invalidate(url);
+                result.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Failed to probe " + url, e.getCause());
+        }
+    }
+
+    /**
+     * Checks whether the file described by {@code known} is still current with a HEAD request
+     * carrying its validators as {@code If-None-Match} and {@code If-Modified-Since}. Returns
+     * {@code known} itself if the server answers 304 Not Modified, and otherwise what the server
+     * says now, probing it as usual if the HEAD response does not tell enough.
+     */
+    public ResourceMetadata revalidate(ResourceMetadata known) throws IOException, InterruptedException {
+        String url = known.url();
+        Map<String, String> headers = new HashMap<>();
+        if (known.etag() != null) {
+            headers.put("If-None-Match", known.etag());
+        }
+        if (known.lastModified() != null) {
+            headers.put("If-Modified-Since", known.lastModified());
+        }
+        try (TransportResponse response = transport.head(url, headers)) {
+            if (response.statusCode() == 304) {
+                logger.info("{} has not been modified", url);
+                return known;
+            }
+            ResourceMetadata metadata = response.statusCode() == 200 ? fromHead(url, response) : null;
+            if (metadata != null) {
+                synchronized (cache) {
+                    cache.put(url, new CacheEntry(CompletableFuture.completedFuture(metadata), System.nanoTime() + ttlNanos));
+                }
+                return metadata;
+            }
+        }
+        invalidate(url);
+        return probe(url);
+    }
+
+    /**
+     * Forgets what is known about {@code url}, e.g. because it changed during a download.
+     */
+    public void invalidate(String url) {
+        synchronized (cache) {
+            cache.remove(url);
+        }
+    }
+
+    private ResourceMetadata fetch(String url) throws IOException, InterruptedException {
+        try (TransportResponse response = transport.head(url, Map.of())) {
+            ResourceMetadata metadata = response.statusCode() == 200 ? fromHead(url, response) : null;
+            if (metadata != null) {
+                return metadata;
+            }
+        }
+
+        // HEAD was refused or left range support open, so ask for the first byte instead
+        try (TransportResponse response = transport.get(url, Map.of("Range", "bytes=0-0"))) {
+            ResourceMetadata metadata;
+            if (response.statusCode() == 206) {
+                long length = response.header("Content-Range")
+                        .map(value -> value.substring(value.lastIndexOf('/') + 1))
+                        .map(ResourceProbe::parseLong)
+                        .orElse(-1L);
+                metadata = metadata(url, length, length > 0, response, false);
+            } else if (response.statusCode() == 200) {
+                metadata = metadata(url, parseLong(response.header("Content-Length")), false, response, true);
+            } else {
+                throw new IOException("Unexpected HTTP status " + response.statusCode() + " while probing " + url);
+            }
+            logger.info("Probed {} with a range request: {}", url, metadata);
+            return metadata;
+        }
+    }
+
+    /**
+     * Returns the metadata from a successful HEAD response, or null if it leaves the length or range
+     * support open.
+     */
+    private static ResourceMetadata fromHead(String url, TransportResponse response) {
+        long length = parseLong(response.header("Content-Length"));
+        boolean ranges = response.header("Accept-Ranges").map(value -> value.contains("bytes")).orElse(false);
+        if (length <= 0 || !ranges) {
+            return null;
+        }
+        ResourceMetadata metadata = metadata(url, length, true, response, true);
+        logger.info("Probed {} with HEAD: {}", url, metadata);
+        return metadata;
+    }
+
+    private static ResourceMetadata metadata(String url, long length, boolean ranges, TransportResponse response, boolean wholeBody) {
+        return new ResourceMetadata(url, length, ranges,
+                response.header("ETag").orElse(null), response.header("Last-Modified").orElse(null),
+                Checksum.ofRepresentation(response::header, wholeBody));
+    }
+
+    private static long parseLong(Optional<String> value) {
+        return value.map(ResourceProbe::parseLong).orElse(-1L);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private record CacheEntry(CompletableFuture<ResourceMetadata> metadata, long expiresAtNanos) {
+        boolean isExpired() {
+            return metadata.isDone() && System.nanoTime() - expiresAtNanos > 0;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.bhupender.Hyperion.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a failed range is fetched again and when a straggling one is fetched twice.
+ * <p>
+ * A range is retried from the last byte that was written, after an exponential backoff with
+ * jitter so that workers hit by the same outage do not come back in lockstep, and given up on after
+ * {@code download.retry.maxAttempts} failures in a row without progress. Retries and hedged
+ * requests draw from one process-wide budget: every request deposits {@code budgetRatio} of a token
+ * and a small reserve refills over time, so extra requests stay a fraction of the real ones. Once
+ * the budget is spent, a failed range waits out the longest backoff instead of adding to a retry
+ * storm, and stragglers are no longer hedged.
+ */
+@Component
+public class RetryPolicy {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    // How many seconds of the reserve refill the budget can hold
+    private static final int BUDGET_SECONDS = 10;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double budgetRatio;
+    private final double reservePerSecond;
+    private final double hedgeSlowRatio;
+    private final long hedgeMinAgeNanos;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public RetryPolicy(@Value("${download.retry.maxAttempts:5}") int maxAttempts,
+                       @Value("${download.retry.baseDelayMs:200}") long baseDelayMillis,
+                       @Value("${download.retry.maxDelayMs:10000}") long maxDelayMillis,
+                       @Value("${download.retry.budgetRatio:0.2}") double budgetRatio,
+                       @Value("${download.retry.reservePerSecond:5}") double reservePerSecond,
+                       @Value("${download.hedge.slowRatio:0.25}") double hedgeSlowRatio,
+                       @Value("${download.hedge.minAgeMs:1000}") long hedgeMinAgeMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.budgetRatio = budgetRatio;
+        this.reservePerSecond = reservePerSecond;
+        this.hedgeSlowRatio = hedgeSlowRatio;
+        this.hedgeMinAgeNanos = TimeUnit.MILLISECONDS.toNanos(hedgeMinAgeMillis);
+        this.capacity = Math.max(1, reservePerSecond * BUDGET_SECONDS);
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Failures in a row after which a range is given up on, failing its download.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns how long to wait before attempt {@code failures + 1}, using the budget if it allows a
+     * retry and the longest backoff if not. The wait is drawn from the upper half of the exponential
+     * delay so that it never collapses to zero.
+     */
+    public long backoffMillis(int failures) {
+        if (!tryAcquire()) {
+            return maxDelayMillis;
+        }
+        int shift = Math.min(Math.max(0, failures - 1), 30);
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * A range is hedged once it is fetched at less than this fraction of the median rate of its
+     * download; zero or less disables hedging.
+     */
+    public double getHedgeSlowRatio() {
+        return hedgeSlowRatio;
+    }
+
+    /**
+     * How long a range has to be fetched before its rate is trusted enough to hedge it.
+     */
+    public long getHedgeMinAgeNanos() {
+        return hedgeMinAgeNanos;
+    }
+
+    /**
+     * Takes a token for a hedged request, returning false if the budget is spent.
+     */
+    public boolean tryHedge() {
+        return tryAcquire();
+    }
+
+    /**
+     * Pays into the budget for a request that is about to be sent.
+     */
+    public synchronized void recordRequest() {
+        refill(System.nanoTime());
+        tokens = Math.min(capacity, tokens + budgetRatio);
+    }
+
+    private synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * reservePerSecond / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+    }
+}
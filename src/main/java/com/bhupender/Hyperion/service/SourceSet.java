@@ -0,0 +1,226 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.dto.SourceStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The equivalent URLs a download fetches its ranges from: the requested URL and the mirrors that
+ * were found to serve the same file.
+ * <p>
+ * Every source keeps a smoothed estimate of the throughput of one connection to it, sampled from
+ * the ranges it served. Workers reserve a source per range with {@link #acquire()}, which hands out
+ * connections in proportion to those estimates, so a mirror that is twice as fast ends up serving
+ * about twice as many ranges. A source is dropped once it fails {@code maxFailures} times in a row,
+ * serves bytes that do not belong to the file, or falls below {@code slowRatio} of the fastest
+ * source, as long as another source is left.
+ */
+public class SourceSet {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceSet.class);
+
+    private static final double RATE_SMOOTHING = 0.3;
+    // Fetches of fewer bytes mostly measure latency rather than throughput
+    private static final long MIN_SAMPLE_BYTES = 64 * 1024;
+    private static final int MIN_SAMPLES_BEFORE_DROP = 3;
+
+    private final List<Source> sources = new ArrayList<>();
+    private final int maxFailures;
+    private final double slowRatio;
+
+    public SourceSet(ResourceMetadata primary, List<ResourceMetadata> mirrors, int maxFailures, double slowRatio) {
+        sources.add(new Source(primary));
+        mirrors.forEach(mirror -> sources.add(new Source(mirror)));
+        this.maxFailures = Math.max(1, maxFailures);
+        this.slowRatio = slowRatio;
+    }
+
+    /**
+     * Creates a set with {@code metadata} as its only source.
+     */
+    public static SourceSet of(ResourceMetadata metadata) {
+        return new SourceSet(metadata, List.of(), 1, 0);
+    }
+
+    /**
+     * Returns why {@code mirror} cannot stand in for {@code primary}, or null if it can. The length
+     * has to match, and so do advertised checksums. If the finished file will be verified against a
+     * checksum that is enough, as servers often tag the same bytes differently. Otherwise the entity
+     * tags have to match.
+     */
+    public static String inconsistency(ResourceMetadata primary, ResourceMetadata mirror) {
+        if (!mirror.acceptsRanges()) {
+            return "it does not serve byte ranges";
+        }
+        if (mirror.contentLength() != primary.contentLength()) {
+            return "it has " + mirror.contentLength() + " bytes instead of " + primary.contentLength();
+        }
+        Checksum expected = primary.checksum();
+        Checksum advertised = mirror.checksum();
+        if (expected != null && advertised != null && expected.algorithm().equals(advertised.algorithm())) {
+            return expected.matches(advertised) ? null : "it advertises " + advertised + " instead of " + expected;
+        }
+        if (expected != null) {
+            return null;
+        }
+        if (primary.etag() != null && mirror.etag() != null) {
+            return primary.etag().equals(mirror.etag()) ? null : "its ETag " + mirror.etag() + " differs from " + primary.etag();
+        }
+        return "nothing shows that it serves the same file";
+    }
+
+    public boolean isMultiSource() {
+        return sources.size() > 1;
+    }
+
+    /**
+     * Reserves a connection to the live source with the fewest connections relative to its speed.
+     * Sources without a sample yet count as fast as the fastest one, so each gets tried early.
+     * Returns null once every source has been dropped.
+     */
+    public synchronized Source acquire() {
+        double fastest = 1;
+        for (Source source : sources) {
+            if (source.isLive() && source.samples > 0) {
+                fastest = Math.max(fastest, source.bytesPerSecond);
+            }
+        }
+        Source best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (Source source : sources) {
+            if (!source.isLive()) {
+                continue;
+            }
+            double rate = source.samples > 0 ? Math.max(1, source.bytesPerSecond) : fastest;
+            double load = (source.active + 1) / rate;
+            if (load < bestLoad) {
+                bestLoad = load;
+                best = source;
+            }
+        }
+        if (best != null) {
+            best.active++;
+        }
+        return best;
+    }
+
+    /**
+     * Returns a connection reserved with {@link #acquire()} after {@code bytes} were fetched over it
+     * in {@code nanos}, and drops the source if it is far slower than the others.
+     */
+    public synchronized void release(Source source, long bytes, long nanos) {
+        source.active--;
+        source.bytes += bytes;
+        if (bytes <= 0) {
+            return;
+        }
+        source.consecutiveFailures = 0;
+        if (bytes < MIN_SAMPLE_BYTES || nanos <= 0) {
+            return;
+        }
+        double rate = bytes * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+        source.bytesPerSecond = source.samples == 0 ? rate : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * source.bytesPerSecond;
+        source.samples++;
+        dropSlowest();
+    }
+
+    /**
+     * Returns a connection reserved with {@link #acquire()} whose fetch failed with {@code failure},
+     * dropping the source if it served the wrong bytes or failed too often. Returns true if a live
+     * source is left to fetch the range from.
+     */
+    public synchronized boolean reportFailure(Source source, IOException failure) {
+        source.active--;
+        source.consecutiveFailures++;
+        source.failures++;
+        if (failure instanceof ResourceChangedException || failure instanceof ChecksumMismatchException) {
+            drop(source, failure.getMessage());
+        } else if (source.consecutiveFailures >= maxFailures) {
+            drop(source, source.consecutiveFailures + " failures in a row, the last one " + failure);
+        }
+        return sources.stream().anyMatch(Source::isLive);
+    }
+
+    public synchronized List<SourceStatus> snapshot() {
+        List<SourceStatus> statuses = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            statuses.add(new SourceStatus(source.getUrl(), source.isLive() ? "LIVE" : "DROPPED",
+                    source.samples > 0 ? Math.round(source.bytesPerSecond) : -1,
+                    source.active, source.bytes, source.failures, source.droppedReason));
+        }
+        return statuses;
+    }
+
+    private void dropSlowest() {
+        if (slowRatio <= 0) {
+            return;
+        }
+        Source fastest = null;
+        Source slowest = null;
+        int live = 0;
+        for (Source source : sources) {
+            if (!source.isLive()) {
+                continue;
+            }
+            live++;
+            if (source.samples < MIN_SAMPLES_BEFORE_DROP) {
+                continue;
+            }
+            if (fastest == null || source.bytesPerSecond > fastest.bytesPerSecond) {
+                fastest = source;
+            }
+            if (slowest == null || source.bytesPerSecond < slowest.bytesPerSecond) {
+                slowest = source;
+            }
+        }
+        if (live > 1 && slowest != fastest && slowest.bytesPerSecond < slowRatio * fastest.bytesPerSecond) {
+            drop(slowest, String.format("%.0f B/s is too far behind %.0f B/s of %s",
+                    slowest.bytesPerSecond, fastest.bytesPerSecond, fastest.getUrl()));
+        }
+    }
+
+    private void drop(Source source, String reason) {
+        if (!source.isLive()) {
+            return;
+        }
+        source.droppedReason = reason;
+        logger.warn("No longer fetching from {}: {}", source.getUrl(), reason);
+    }
+
+    /**
+     * One URL the file can be fetched from, with the metadata its own server reported.
+     */
+    public static final class Source {
+
+        private final ResourceMetadata metadata;
+        // Guarded by the enclosing set
+        private int active;
+        private int samples;
+        private double bytesPerSecond;
+        private int consecutiveFailures;
+        private int failures;
+        private long bytes;
+        private String droppedReason;
+
+        private Source(ResourceMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        public String getUrl() {
+            return metadata.url();
+        }
+
+        public ResourceMetadata getMetadata() {
+            return metadata;
+        }
+
+        private boolean isLive() {
+            return droppedReason == null;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.bhupender.Hyperion.service;
+
+/**
+ * What became of a download request.
+ */
+public enum SubmissionResult {
+    /** The download was started right away. */
+    STARTED,
+    /** The download waits in the queue for a free slot. */
+    QUEUED,
+    /** The URL was already being downloaded or queued and the request joined that download. */
+    ATTACHED,
+    /** The file was still current in the content cache and was delivered without a transfer. */
+    CACHED
+}
@@ -0,0 +1,88 @@
+package com.bhupender.Hyperion.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Byte-accurate token bucket shared by every chunk thread of a download. Callers report the bytes
+ * they actually read and are made to wait until the bucket has paid for them. Reservations are
+ * taken in arrival order, so concurrent chunk threads share the rate fairly, and the bucket may run
+ * into debt by at most one read. A rate of zero or less disables throttling.
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long burstBytes;
+    private volatile long bytesPerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(long bytesPerSecond, long burstBytes) {
+        this.burstBytes = burstBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = capacity();
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Consumes {@code bytes} tokens, sleeping as long as needed to stay within the rate, and returns
+     * how long that was in nanoseconds.
+     */
+    public long acquire(long bytes) throws InterruptedException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Consumes {@code bytes} tokens and returns how long the caller has to wait before using them.
+     */
+    public long reserve(long bytes) {
+        // Unthrottled downloads never touch the lock
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        return reserveThrottled(bytes);
+    }
+
+    private synchronized long reserveThrottled(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        refill(now);
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond);
+    }
+
+    /**
+     * Changes the rate without losing the tokens or debt accumulated so far.
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        refill(System.nanoTime());
+        this.bytesPerSecond = bytesPerSecond;
+        tokens = Math.min(tokens, capacity());
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    private void refill(long now) {
+        if (bytesPerSecond > 0) {
+            double earned = (double) (now - lastRefillNanos) * bytesPerSecond / NANOS_PER_SECOND;
+            tokens = Math.min(capacity(), tokens + earned);
+        }
+        lastRefillNanos = now;
+    }
+
+    private double capacity() {
+        // Without an explicit burst allowance a bucket can save up one second worth of traffic
+        return burstBytes > 0 ? burstBytes : bytesPerSecond;
+    }
+}
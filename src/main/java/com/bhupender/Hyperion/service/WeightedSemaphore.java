@@ -0,0 +1,143 @@
+package com.bhupender.Hyperion.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counting semaphore whose permits are shared between owners in proportion to their weights. A
+ * free permit goes to the waiting owner that holds the fewest permits per unit of weight, and the
+ * one served longest ago on a tie, so while two owners have workers waiting one of weight 2 ends up
+ * with twice the permits of one of weight 1 and neither is ever starved. Workers of the same owner
+ * are served in arrival order.
+ */
+final class WeightedSemaphore {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Object, Owner> owners = new HashMap<>();
+    private final int permits;
+    private int available;
+    private long grants;
+
+    WeightedSemaphore(int permits) {
+        this.permits = permits;
+        this.available = permits;
+    }
+
+    void acquire(Object key, int weight) throws InterruptedException {
+        lock.lock();
+        try {
+            Owner owner = owners.computeIfAbsent(key, k -> new Owner(lock.newCondition()));
+            owner.weight = Math.max(1, weight);
+            owner.waiting++;
+            try {
+                while (available == 0 || next() != owner) {
+                    owner.turn.await();
+                }
+            } catch (InterruptedException e) {
+                owner.waiting--;
+                forgetIfIdle(key, owner);
+                // The permit this worker was woken up for goes to the next owner in line
+                signalNext();
+                throw e;
+            }
+            owner.waiting--;
+            owner.held++;
+            owner.lastGrant = ++grants;
+            available--;
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(Object key) {
+        lock.lock();
+        try {
+            Owner owner = owners.get(key);
+            if (owner == null || owner.held == 0) {
+                throw new IllegalStateException("No permit held by " + key);
+            }
+            owner.held--;
+            available++;
+            forgetIfIdle(key, owner);
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int availablePermits() {
+        lock.lock();
+        try {
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getPermits() {
+        return permits;
+    }
+
+    int getQueueLength() {
+        lock.lock();
+        try {
+            int waiting = 0;
+            for (Owner owner : owners.values()) {
+                waiting += owner.waiting;
+            }
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Owner next() {
+        Owner best = null;
+        for (Owner owner : owners.values()) {
+            if (owner.waiting == 0) {
+                continue;
+            }
+            if (best == null) {
+                best = owner;
+                continue;
+            }
+            // Compare held / weight without dividing
+            long share = (long) owner.held * best.weight;
+            long bestShare = (long) best.held * owner.weight;
+            if (share < bestShare || (share == bestShare && owner.lastGrant < best.lastGrant)) {
+                best = owner;
+            }
+        }
+        return best;
+    }
+
+    private void signalNext() {
+        if (available > 0) {
+            Owner next = next();
+            if (next != null) {
+                next.turn.signal();
+            }
+        }
+    }
+
+    private void forgetIfIdle(Object key, Owner owner) {
+        if (owner.held == 0 && owner.waiting == 0) {
+            owners.remove(key);
+        }
+    }
+
+    private static final class Owner {
+        private final Condition turn;
+        private int weight = 1;
+        private int held;
+        private int waiting;
+        private long lastGrant;
+
+        private Owner(Condition turn) {
+            this.turn = turn;
+        }
+    }
+}
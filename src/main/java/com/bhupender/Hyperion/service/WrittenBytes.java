@@ -0,0 +1,135 @@
+package com.bhupender.Hyperion.service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The parts of a download's file that are on disk, so that the file can be read while it is still
+ * being downloaded. Workers add every buffer they write; readers wait for the byte they need next.
+ * Bytes count as written before the download is verified, so a reader may see a range that is
+ * fetched again later. Failing or cancelling the download closes this, waking readers with an error.
+ */
+public class WrittenBytes {
+
+    private final long length;
+    // A j.u.c. lock rather than a monitor so that waiting virtual threads unmount from their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition grown = lock.newCondition();
+    // Disjoint, non-adjacent spans from their start to their exclusive end
+    private final TreeMap<Long, Long> spans = new TreeMap<>();
+    private int waiters;
+    private String failure;
+
+    public WrittenBytes(long length) {
+        this.length = length;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Records that bytes {@code start} up to {@code end}, exclusive, are on disk.
+     */
+    public void add(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+        lock.lock();
+        try {
+            Map.Entry<Long, Long> previous = spans.floorEntry(start);
+            if (previous != null && previous.getValue() >= start) {
+                start = previous.getKey();
+                end = Math.max(end, previous.getValue());
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = spans.higherEntry(start)) != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                spans.remove(next.getKey());
+            }
+            spans.put(start, end);
+            if (waiters > 0) {
+                grown.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that the whole file is on disk.
+     */
+    public void complete() {
+        add(0, length);
+    }
+
+    /**
+     * Wakes waiting readers with {@code reason}, because the missing bytes will never be written.
+     */
+    public void close(String reason) {
+        lock.lock();
+        try {
+            if (!isComplete()) {
+                failure = reason;
+            }
+            grown.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isComplete() {
+        lock.lock();
+        try {
+            return writtenFrom(0) >= length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the end, exclusive, of the bytes on disk from {@code position} on without a gap, or
+     * {@code position} if that byte is not written yet.
+     */
+    public long writtenFrom(long position) {
+        lock.lock();
+        try {
+            Map.Entry<Long, Long> span = spans.floorEntry(position);
+            return span != null && span.getValue() > position ? span.getValue() : position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the byte at {@code position} is written, then returns the end, exclusive, of the
+     * bytes on disk from there on without a gap.
+     *
+     * @throws IOException if the download stopped before the byte was written
+     */
+    public long awaitWritten(long position) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long end = writtenFrom(position);
+                if (end > position) {
+                    return end;
+                }
+                if (failure != null) {
+                    throw new IOException("Byte " + position + " will not be written: " + failure);
+                }
+                waiters++;
+                try {
+                    grown.await();
+                } finally {
+                    waiters--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.bhupender.Hyperion.transport;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Issues the HTTP requests of the download engine. Implementations are shared by every worker and
+ * are expected to reuse connections between requests to the same origin.
+ */
+public interface ChunkTransport {
+
+    /**
+     * Sends a GET request for {@code url}. The caller owns the returned response and must close it,
+     * whether or not the body was read to the end.
+     */
+    TransportResponse get(String url, Map<String, String> headers) throws IOException, InterruptedException;
+
+    /**
+     * Sends a HEAD request for {@code url}. The response has an empty body.
+     */
+    TransportResponse head(String url, Map<String, String> headers) throws IOException, InterruptedException;
+
+    /**
+     * Returns how many requests were sent, are still open or failed, and over which protocol they were answered.
+     */
+    RequestCounters getRequestCounters();
+}
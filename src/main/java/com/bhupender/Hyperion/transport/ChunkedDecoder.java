@@ -0,0 +1,105 @@
+package com.bhupender.Hyperion.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a {@code Transfer-Encoding: chunked} body incrementally, in whatever pieces it arrives
+ * off a non-blocking socket. It keeps no bytes of its own: chunk sizes and trailers are parsed as
+ * they stream past, and the data is moved to the front of the buffer it came in.
+ */
+public class ChunkedDecoder {
+
+    private enum State { SIZE, EXTENSION, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER, TRAILER_LINE, TRAILER_LF, DONE }
+
+    private static final int MAX_SIZE_DIGITS = 15;
+
+    private State state = State.SIZE;
+    private long chunkRemaining;
+    private int sizeDigits;
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Decodes the bytes {@code buffer} holds before its position, leaving only the data they contain
+     * before the position. Bytes after the end of the body are dropped.
+     *
+     * @return the number of data bytes now in the buffer
+     * @throws IOException if the bytes are not a valid chunked body
+     */
+    public int decode(ByteBuffer buffer) throws IOException {
+        int end = buffer.position();
+        int in = 0;
+        int out = 0;
+        while (in < end && state != State.DONE) {
+            if (state == State.DATA) {
+                int count = (int) Math.min(chunkRemaining, end - in);
+                if (out != in) {
+                    buffer.put(out, buffer, in, count);
+                }
+                in += count;
+                out += count;
+                chunkRemaining -= count;
+                if (chunkRemaining == 0) {
+                    state = State.DATA_CR;
+                }
+                continue;
+            }
+            byte b = buffer.get(in++);
+            switch (state) {
+                case SIZE -> {
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0 && sizeDigits < MAX_SIZE_DIGITS) {
+                        chunkRemaining = chunkRemaining * 16 + digit;
+                        sizeDigits++;
+                    } else if (sizeDigits > 0 && (b == ';' || b == ' ' || b == '\t')) {
+                        state = State.EXTENSION;
+                    } else if (sizeDigits > 0 && b == '\r') {
+                        state = State.SIZE_LF;
+                    } else {
+                        throw new IOException("Malformed chunk size");
+                    }
+                }
+                case EXTENSION -> {
+                    if (b == '\r') {
+                        state = State.SIZE_LF;
+                    }
+                }
+                case SIZE_LF -> {
+                    expect(b, '\n');
+                    sizeDigits = 0;
+                    state = chunkRemaining > 0 ? State.DATA : State.TRAILER;
+                }
+                case DATA_CR -> {
+                    expect(b, '\r');
+                    state = State.DATA_LF;
+                }
+                case DATA_LF -> {
+                    expect(b, '\n');
+                    state = State.SIZE;
+                }
+                case TRAILER -> state = b == '\r' ? State.TRAILER_LF : State.TRAILER_LINE;
+                case TRAILER_LINE -> {
+                    if (b == '\n') {
+                        state = State.TRAILER;
+                    }
+                }
+                case TRAILER_LF -> {
+                    expect(b, '\n');
+                    state = State.DONE;
+                }
+                default -> throw new IllegalStateException(state.name());
+            }
+        }
+        buffer.position(out);
+        return out;
+    }
+
+    private static void expect(byte actual, char expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed chunked body, expected " + (int) expected + " but got " + actual);
+        }
+    }
+}
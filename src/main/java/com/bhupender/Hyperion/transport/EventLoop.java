@@ -0,0 +1,150 @@
+package com.bhupender.Hyperion.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread with a {@link Selector} that drives any number of non-blocking channels. Handlers run
+ * on the loop thread only, so the state they keep needs no locking as long as other threads hand
+ * work to them through {@link #execute}. Timers replace sleeping: a handler that has to wait
+ * schedules its continuation instead of blocking the loop.
+ */
+public final class EventLoop implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Only touched by the loop thread
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long timerSequence;
+    private volatile boolean closed;
+
+    /**
+     * Gets called by the loop when the channel it was registered with is ready.
+     */
+    public interface Handler {
+        void ready(SelectionKey key);
+    }
+
+    private record Timer(long dueNanos, long sequence, Runnable task) implements Comparable<Timer> {
+        @Override
+        public int compareTo(Timer other) {
+            int byDue = Long.compare(dueNanos - other.dueNanos, 0);
+            return byDue != 0 ? byDue : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::loop, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs {@code task} on the loop thread, soon after the current iteration.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs {@code task} on the loop thread once {@code delayNanos} have passed.
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        long due = System.nanoTime() + delayNanos;
+        execute(() -> timers.add(new Timer(due, timerSequence++, task)));
+    }
+
+    /**
+     * Registers {@code channel} for {@code ops}, calling {@code handler} when it is ready. Must be
+     * called on the loop thread.
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    private void loop() {
+        while (!closed) {
+            try {
+                Timer next = timers.peek();
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (next != null) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.dueNanos() - System.nanoTime())));
+                } else {
+                    selector.select();
+                }
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    if (key.isValid()) {
+                        dispatch(key);
+                    }
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    run(task);
+                }
+                long now = System.nanoTime();
+                while ((next = timers.peek()) != null && next.dueNanos() - now <= 0) {
+                    timers.poll();
+                    run(next.task());
+                }
+            } catch (IOException e) {
+                logger.error("Event loop {} failed to select", thread.getName(), e);
+            }
+        }
+    }
+
+    private void dispatch(SelectionKey key) {
+        try {
+            ((Handler) key.attachment()).ready(key);
+        } catch (RuntimeException e) {
+            logger.error("Handler failed on {}", thread.getName(), e);
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // A broken handler must not take down every other channel on this loop
+            logger.error("Event loop task failed on {}", thread.getName(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+    }
+}
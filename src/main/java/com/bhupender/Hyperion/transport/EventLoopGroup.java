@@ -0,0 +1,48 @@
+package com.bhupender.Hyperion.transport;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The event loops of the non-blocking engine, {@code download.nio.threads} of them, which share
+ * all range transfers between them round robin. Only created when {@code download.engine=nio}.
+ */
+@Component
+@ConditionalOnProperty(name = "download.engine", havingValue = "nio")
+public class EventLoopGroup {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventLoopGroup.class);
+
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public EventLoopGroup(@Value("${download.nio.threads:2}") int threads) throws IOException {
+        loops = new EventLoop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("download-loop-" + i);
+        }
+        logger.info("Started {} download event loops", loops.length);
+    }
+
+    public EventLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    @PreDestroy
+    public void close() {
+        for (EventLoop loop : loops) {
+            try {
+                loop.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close event loop", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.bhupender.Hyperion.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default transport built on one shared {@link HttpClient}. The client keeps idle HTTP/1.1
+ * connections alive in its pool and, where the server negotiates HTTP/2, multiplexes all range
+ * requests to that origin as streams over a single connection, so a download pays for the TCP and
+ * TLS handshakes once instead of once per range.
+ * <p>
+ * A response whose headers or body bytes do not arrive for {@code download.transport.idleTimeoutMs}
+ * fails with a timeout, so that a stalled connection is retried like any other failure.
+ */
+@Component
+public class HttpClientTransport implements ChunkTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientTransport.class);
+
+    private final HttpClient client;
+    private final Duration idleTimeout;
+    private final AtomicLong totalRequests = new AtomicLong();
+    private final AtomicLong activeRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong http1Responses = new AtomicLong();
+    private final AtomicLong http2Responses = new AtomicLong();
+
+    public HttpClientTransport(@Value("${download.transport.http2:true}") boolean http2,
+                               @Value("${download.transport.connectTimeoutMs:10000}") long connectTimeoutMs,
+                               @Value("${download.transport.idleTimeoutMs:30000}") long idleTimeoutMs) {
+        this.idleTimeout = Duration.ofMillis(idleTimeoutMs);
+        this.client = HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        logger.info("HTTP transport created with {} preferred", client.version());
+    }
+
+    @Override
+    public TransportResponse get(String url, Map<String, String> headers) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(url)).GET(), headers);
+    }
+
+    @Override
+    public TransportResponse head(String url, Map<String, String> headers) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(url)).method("HEAD", HttpRequest.BodyPublishers.noBody()), headers);
+    }
+
+    private TransportResponse send(HttpRequest.Builder request, Map<String, String> headers) throws IOException, InterruptedException {
+        headers.forEach(request::header);
+        if (idleTimeout.isPositive()) {
+            // Only bounds the wait for the response headers; the body has its own idle timeout
+            request.timeout(idleTimeout);
+        }
+
+        totalRequests.incrementAndGet();
+        HttpResponse<Flow.Publisher<List<ByteBuffer>>> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofPublisher());
+        } catch (IOException | InterruptedException e) {
+            failedRequests.incrementAndGet();
+            throw e;
+        }
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.incrementAndGet();
+        } else {
+            http1Responses.incrementAndGet();
+        }
+        activeRequests.incrementAndGet();
+        return new Response(response);
+    }
+
+    @Override
+    public RequestCounters getRequestCounters() {
+        return new RequestCounters(totalRequests.get(), activeRequests.get(), failedRequests.get(),
+                http1Responses.get(), http2Responses.get());
+    }
+
+    private class Response implements TransportResponse {
+
+        private final HttpResponse<?> response;
+        private final PublisherChannel body = new PublisherChannel(idleTimeout.toNanos());
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Response(HttpResponse<Flow.Publisher<List<ByteBuffer>>> response) {
+            this.response = response;
+            // The body has to be subscribed to, even if it is never read, for the connection to be released
+            response.body().subscribe(body);
+        }
+
+        @Override
+        public int statusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public Optional<String> header(String name) {
+            return response.headers().firstValue(name);
+        }
+
+        @Override
+        public ReadableByteChannel body() {
+            return body;
+        }
+
+        @Override
+        public String protocol() {
+            return response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1";
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                activeRequests.decrementAndGet();
+                body.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.bhupender.Hyperion.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking channel view of an HTTP response body publisher. Reads copy straight from the buffers the
+ * HTTP client received into the caller's buffer, which is usually a pooled direct buffer, without
+ * going through an intermediate {@code byte[]}. One batch of buffers is requested ahead of the
+ * reader, which is all the buffering there is.
+ * <p>
+ * A read fails once no bytes have arrived for the idle timeout, so a stalled connection turns into
+ * an error the caller can retry instead of blocking its thread forever. Closing the channel from
+ * another thread wakes a blocked reader too.
+ */
+final class PublisherChannel implements ReadableByteChannel, Flow.Subscriber<List<ByteBuffer>> {
+
+    private static final List<ByteBuffer> END = List.of();
+
+    private final BlockingQueue<List<ByteBuffer>> received = new LinkedBlockingQueue<>();
+    private final long idleTimeoutNanos;
+    private volatile Flow.Subscription subscription;
+    private volatile Throwable failure;
+    private volatile boolean open = true;
+    private List<ByteBuffer> current = List.of();
+    private int index;
+    private boolean finished;
+
+    /**
+     * @param idleTimeoutNanos longest a read waits for the next bytes, 0 to wait forever
+     */
+    PublisherChannel(long idleTimeoutNanos) {
+        this.idleTimeoutNanos = idleTimeoutNanos;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (open) {
+            subscription.request(1);
+        } else {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        received.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        failure = throwable;
+        received.add(END);
+    }
+
+    @Override
+    public void onComplete() {
+        received.add(END);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int copied = 0;
+        while (dst.hasRemaining()) {
+            // Only block while nothing has been copied yet, like a socket read would
+            ByteBuffer source = nextBuffer(copied == 0);
+            if (source == null) {
+                break;
+            }
+            int length = Math.min(dst.remaining(), source.remaining());
+            int limit = source.limit();
+            source.limit(source.position() + length);
+            dst.put(source);
+            source.limit(limit);
+            copied += length;
+        }
+        if (copied == 0 && finished) {
+            if (failure != null) {
+                throw new IOException("Response body failed", failure);
+            }
+            return -1;
+        }
+        return copied;
+    }
+
+    private ByteBuffer nextBuffer(boolean block) throws IOException {
+        while (true) {
+            while (index < current.size()) {
+                ByteBuffer buffer = current.get(index);
+                if (buffer.hasRemaining()) {
+                    return buffer;
+                }
+                index++;
+            }
+            if (finished) {
+                return null;
+            }
+            List<ByteBuffer> next;
+            try {
+                if (!block) {
+                    next = received.poll();
+                } else if (idleTimeoutNanos > 0) {
+                    next = received.poll(idleTimeoutNanos, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        close();
+                        throw new SocketTimeoutException("No bytes of the response body arrived for "
+                                + TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) + " ms");
+                    }
+                } else {
+                    next = received.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading response body");
+            }
+            if (next == null) {
+                return null;
+            }
+            if (next == END) {
+                finished = true;
+                if (!open) {
+                    throw new ClosedChannelException();
+                }
+                return null;
+            }
+            current = next;
+            index = 0;
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        // Wakes a reader that is waiting for the next buffers
+        received.add(END);
+        Flow.Subscription subscription = this.subscription;
+        if (subscription != null) {
+            // Resets the HTTP/2 stream or drops the HTTP/1.1 connection of an unfinished body
+            subscription.cancel();
+        }
+    }
+}
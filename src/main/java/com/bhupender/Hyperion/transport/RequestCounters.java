@@ -0,0 +1,15 @@
+package com.bhupender.Hyperion.transport;
+
+/**
+ * Counts of the requests a {@link ChunkTransport} sent and the responses it got, as returned by
+ * {@code /downloads/transport/requests}. The connections underneath are the HTTP client's own and
+ * are not counted here.
+ *
+ * @param activeRequests requests whose response body has not been closed yet
+ */
+public record RequestCounters(long totalRequests,
+                              long activeRequests,
+                              long failedRequests,
+                              long http1Responses,
+                              long http2Responses) {
+}
@@ -0,0 +1,19 @@
+package com.bhupender.Hyperion.transport;
+
+import java.io.Closeable;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Optional;
+
+public interface TransportResponse extends Closeable {
+
+    int statusCode();
+
+    Optional<String> header(String name);
+
+    ReadableByteChannel body();
+
+    /**
+     * Protocol the response was received over, e.g. {@code HTTP/1.1} or {@code HTTP/2}.
+     */
+    String protocol();
+}
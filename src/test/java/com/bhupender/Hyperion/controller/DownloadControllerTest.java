@@ -1,19 +1,41 @@
 package com.bhupender.Hyperion.controller;
 
+import com.bhupender.Hyperion.dto.SubmissionStatus;
+import com.bhupender.Hyperion.service.DownloadContent;
+import com.bhupender.Hyperion.service.DownloadPriority;
 import com.bhupender.Hyperion.service.DownloadService;
+import com.bhupender.Hyperion.service.ProgressBroadcaster;
+import com.bhupender.Hyperion.service.ResourceMetadata;
+import com.bhupender.Hyperion.transport.ChunkTransport;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(DownloadController.class)
@@ -25,6 +47,12 @@ public class DownloadControllerTest {
     @MockBean
     private DownloadService downloadService;
 
+    @MockBean
+    private ChunkTransport transport;
+
+    @MockBean
+    private ProgressBroadcaster progressBroadcaster;
+
     @BeforeEach
     public void setUp() {
         // Reset the mock between tests
@@ -58,4 +86,70 @@ public class DownloadControllerTest {
 
         verify(downloadService, times(1)).resumeDownload(anyString());
     }
+
+    @Test
+    @WithMockUser
+    public void testBatchDownload() throws Exception {
+        when(downloadService.downloadFiles(anyList(), anyInt(), any(), anyMap())).thenReturn(List.of(
+                new SubmissionStatus("http://example.com/a.zip", "STARTED", null),
+                new SubmissionStatus("http://example.com/a.zip", "ATTACHED", null)));
+
+        mockMvc.perform(post("/downloads/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"urls\": [\"http://example.com/a.zip\", \"http://example.com/a.zip\"], \"priority\": \"HIGH\"}")
+                        .with(SecurityMockMvcRequestPostProcessors.csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("STARTED"))
+                .andExpect(jsonPath("$[1].status").value("ATTACHED"));
+
+        verify(downloadService).downloadFiles(List.of("http://example.com/a.zip", "http://example.com/a.zip"), 0, DownloadPriority.HIGH, Map.of());
+    }
+
+    @Test
+    @WithMockUser
+    public void testRejectsMalformedChecksum() throws Exception {
+        mockMvc.perform(post("/downloads/download")
+                        .param("url", "http://example.com/a.zip")
+                        .param("checksum", "sha-256:not-a-digest")
+                        .with(SecurityMockMvcRequestPostProcessors.csrf()))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(downloadService);
+    }
+
+    @Test
+    @WithMockUser
+    public void testStreamsRequestedRangeOfContent() throws Exception {
+        DownloadContent content = mock(DownloadContent.class);
+        when(content.getLength()).thenReturn(10L);
+        when(content.getMetadata()).thenReturn(new ResourceMetadata("http://example.com/a.zip", 10, true, "\"v1\"", null));
+        doAnswer(invocation -> {
+            WritableByteChannel out = invocation.getArgument(2);
+            out.write(ByteBuffer.wrap("2345".getBytes()));
+            return null;
+        }).when(content).transferTo(eq(2L), eq(5L), any());
+        when(downloadService.openContent("http://example.com/a.zip")).thenReturn(content);
+
+        MvcResult result = mockMvc.perform(get("/downloads/content")
+                        .param("url", "http://example.com/a.zip")
+                        .header("Range", "bytes=2-5"))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 2-5/10"))
+                .andExpect(header().string("Content-Length", "4"))
+                .andExpect(header().string("ETag", "\"v1\""))
+                .andExpect(content().string("2345"));
+    }
+
+    @Test
+    @WithMockUser
+    public void testAsksToRetryContentOfQueuedDownload() throws Exception {
+        when(downloadService.openContent(anyString())).thenReturn(null);
+
+        mockMvc.perform(get("/downloads/content").param("url", "http://example.com/a.zip"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
 }
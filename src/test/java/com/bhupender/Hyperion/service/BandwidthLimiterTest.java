@@ -0,0 +1,69 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BandwidthLimiterTest {
+
+    @Test
+    public void testGlobalLimitIsSharedFairly() {
+        BandwidthLimiter limiter = new BandwidthLimiter(300_000, 0);
+
+        TokenBucket slow = limiter.register("http://example.com/a.zip", 50_000);
+        TokenBucket first = limiter.register("http://example.com/b.zip", 0);
+        TokenBucket second = limiter.register("http://example.com/c.zip", 0);
+
+        // The capped download keeps its own limit and the rest is split evenly
+        assertEquals(50_000, slow.getRate());
+        assertEquals(125_000, first.getRate());
+        assertEquals(125_000, second.getRate());
+
+        limiter.unregister("http://example.com/a.zip");
+        assertEquals(150_000, first.getRate());
+        assertEquals(150_000, second.getRate());
+    }
+
+    @Test
+    public void testGlobalLimitIsSharedByWeight() {
+        BandwidthLimiter limiter = new BandwidthLimiter(300_000, 0);
+
+        TokenBucket urgent = limiter.register("http://example.com/a.zip", 0, 4);
+        TokenBucket normal = limiter.register("http://example.com/b.zip", 0, 2);
+        assertEquals(200_000, urgent.getRate());
+        assertEquals(100_000, normal.getRate());
+
+        // What a capped heavy download leaves unused goes to the others
+        assertTrue(limiter.setDownloadLimit("http://example.com/a.zip", 50_000));
+        assertEquals(50_000, urgent.getRate());
+        assertEquals(250_000, normal.getRate());
+
+        assertTrue(limiter.setWeight("http://example.com/b.zip", 8));
+        assertTrue(limiter.setDownloadLimit("http://example.com/a.zip", 0));
+        assertEquals(100_000, urgent.getRate());
+        assertEquals(200_000, normal.getRate());
+    }
+
+    @Test
+    public void testLimitsCanBeChangedAtRuntime() {
+        BandwidthLimiter limiter = new BandwidthLimiter(0, 0);
+        TokenBucket bucket = limiter.register("http://example.com/a.zip", 10_000);
+
+        assertTrue(limiter.setDownloadLimit("http://example.com/a.zip", 20_000));
+        assertEquals(20_000, bucket.getRate());
+
+        limiter.setGlobalLimit(5_000);
+        assertEquals(5_000, bucket.getRate());
+    }
+
+    @Test
+    public void testBucketAccountsForActualBytes() {
+        TokenBucket bucket = new TokenBucket(1_000_000, 100_000);
+
+        // The burst allowance is free, anything beyond it is paid for at the configured rate
+        assertEquals(0, bucket.reserve(100_000));
+        long waitNanos = bucket.reserve(500_000);
+        assertTrue(waitNanos > 400_000_000L && waitNanos <= 500_000_000L, "Unexpected wait " + waitNanos);
+    }
+}
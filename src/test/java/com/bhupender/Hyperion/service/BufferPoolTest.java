@@ -0,0 +1,40 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(4096, 2);
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(4096, buffer.capacity());
+
+        buffer.put(new byte[100]).limit(50);
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(4096, reused.limit());
+    }
+
+    @Test
+    public void testKeepsAtMostPoolSizeBuffers() {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        ByteBuffer third = pool.acquire();
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        assertEquals(2, pool.pooledBuffers());
+    }
+}
@@ -0,0 +1,85 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChecksumTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testParsesHexAndBase64() {
+        Checksum hex = Checksum.parse("SHA-256:e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+        Checksum base64 = Checksum.parse("sha-256:47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=");
+
+        assertEquals(Checksum.SHA_256, hex.algorithm());
+        assertEquals(hex, base64);
+        assertEquals("crc32c:0000002a", Checksum.parse("crc32c:0000002a").toString());
+        assertThrows(IllegalArgumentException.class, () -> Checksum.parse("sha-1:da39a3ee5e6b4b0d3255bfef95601890afd80709"));
+        assertThrows(IllegalArgumentException.class, () -> Checksum.parse("md5:abc"));
+    }
+
+    @Test
+    public void testPicksCheapestDigestFromHeaders() {
+        Map<String, String> headers = Map.of(
+                "Repr-Digest", "sha-256=:47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=:, unixsum=:AAAA:",
+                "x-goog-hash", "crc32c=AAAAKg==",
+                "Content-MD5", "1B2M2Y8AsgTpgAmY7PhCfg==");
+
+        Checksum representation = Checksum.ofRepresentation(name -> Optional.ofNullable(headers.get(name)), false);
+        Checksum content = Checksum.ofContent(name -> Optional.ofNullable(headers.get(name)));
+
+        assertEquals(Checksum.parse("crc32c:0000002a"), representation);
+        assertEquals(Checksum.parse("md5:d41d8cd98f00b204e9800998ecf8427e"), content);
+        assertNull(Checksum.ofContent(name -> Optional.empty()));
+    }
+
+    @Test
+    public void testCombinesCrcsOfAdjacentSpans() {
+        byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+
+        int combined = 0;
+        for (int offset = 0; offset < data.length; offset += 7_919) {
+            int length = Math.min(7_919, data.length - offset);
+            CRC32C part = new CRC32C();
+            part.update(data, offset, length);
+            combined = Crc32c.combine(combined, (int) part.getValue(), length);
+        }
+
+        CRC32C whole = new CRC32C();
+        whole.update(data);
+        assertEquals((int) whole.getValue(), combined);
+    }
+
+    @Test
+    public void testVerifierReadsOnlyUnrecordedSpans() throws Exception {
+        byte[] data = new byte[50_000];
+        new Random(2).nextBytes(data);
+        Path file = Files.write(directory.resolve("file.bin"), data);
+        CRC32C whole = new CRC32C();
+        whole.update(data);
+
+        DownloadVerifier verifier = new DownloadVerifier(file, data.length, Checksum.crc32c((int) whole.getValue()), true);
+        CRC32C tail = new CRC32C();
+        tail.update(data, 30_000, 20_000);
+        verifier.recordSegment(30_000, 20_000, (int) tail.getValue());
+
+        assertEquals(Checksum.crc32c((int) whole.getValue()), verifier.verify());
+
+        // A CRC recorded for bytes that differ from the expected file makes verification fail
+        verifier.recordSegment(0, 30_000, 42);
+        assertThrows(ChecksumMismatchException.class, verifier::verify);
+    }
+}
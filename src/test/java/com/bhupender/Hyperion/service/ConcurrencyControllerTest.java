@@ -0,0 +1,82 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyControllerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testAddsStreamsWhileTheyPayOffAndGivesBackOneThatDoesNot() {
+        ConcurrencyController controller = new ConcurrencyController(1, 8, 2, 0.05, 3);
+        long bytes = 0;
+        controller.sample(bytes, SECOND);
+
+        // Every stream adds 1 MB/s until the link is full at 4 MB/s
+        long now = SECOND;
+        for (int i = 0; i < 2; i++) {
+            bytes += Math.min(controller.getLimit(), 4) * 1_000_000L;
+            now += SECOND;
+            assertEquals(ConcurrencyController.Decision.INCREASE, controller.sample(bytes, now));
+        }
+        assertEquals(4, controller.getLimit());
+        bytes += 4_000_000L;
+        now += SECOND;
+        assertEquals(ConcurrencyController.Decision.INCREASE, controller.sample(bytes, now));
+        assertEquals(5, controller.getLimit());
+
+        bytes += 4_000_000L;
+        now += SECOND;
+        assertEquals(ConcurrencyController.Decision.DECREASE, controller.sample(bytes, now), "The fifth stream did not pay off");
+        assertEquals(4, controller.getLimit());
+        bytes += 4_000_000L;
+        now += SECOND;
+        assertEquals(ConcurrencyController.Decision.HOLD, controller.sample(bytes, now));
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    public void testHalvesOnFailuresAndSlowResponsesDownToFloor() {
+        ConcurrencyController controller = new ConcurrencyController(3, 16, 12, 0.05, 3);
+        controller.sample(0, SECOND);
+
+        controller.recordResponse(TimeUnit.MILLISECONDS.toNanos(50));
+        controller.recordFailure();
+        assertEquals(ConcurrencyController.Decision.DECREASE, controller.sample(1_000_000, 2 * SECOND));
+        assertEquals(6, controller.getLimit());
+
+        controller.recordResponse(TimeUnit.MILLISECONDS.toNanos(400));
+        assertEquals(ConcurrencyController.Decision.DECREASE, controller.sample(2_000_000, 3 * SECOND), "Eight times the fastest response");
+        assertEquals(3, controller.getLimit());
+
+        controller.recordFailure();
+        assertEquals(ConcurrencyController.Decision.HOLD, controller.sample(3_000_000, 4 * SECOND));
+        assertEquals(3, controller.getLimit(), "Never below the floor");
+    }
+
+    @Test
+    public void testWorkersBeyondLimitWaitUntilItGrows() throws Exception {
+        ConcurrencyController controller = new ConcurrencyController(1, 2, 1, 0.05, 3);
+        assertTrue(controller.awaitTurn(0, () -> false));
+
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return controller.awaitTurn(1, () -> false);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(second.isDone());
+
+        controller.sample(0, SECOND);
+        controller.sample(1_000_000, 2 * SECOND);
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertFalse(controller.awaitTurn(2, () -> true), "Returns once the download is done");
+    }
+}
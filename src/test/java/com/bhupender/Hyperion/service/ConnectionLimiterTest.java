@@ -0,0 +1,78 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionLimiterTest {
+
+    @Test
+    public void testLimitsConnectionsPerHost() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(2, 10);
+        ConnectionLimiter.Permit first = limiter.acquire("http://a.example.com/file.zip");
+        ConnectionLimiter.Permit second = limiter.acquire("http://a.example.com/other.zip");
+
+        // Another host is not affected by the first one being saturated
+        limiter.acquire("http://b.example.com/file.zip").close();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try (ConnectionLimiter.Permit permit = limiter.acquire("http://a.example.com/third.zip")) {
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS), "Third connection to the same host should wait");
+        first.close();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        second.close();
+        assertEquals(10, limiter.availableConnections());
+    }
+
+    @Test
+    public void testSharesConnectionsByWeight() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(10, 3);
+        String url = "http://a.example.com/file.zip";
+        Object light = "light";
+        Object heavy = "heavy";
+        List<ConnectionLimiter.Permit> held = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            held.add(limiter.acquire(url, light, 1));
+        }
+
+        // The light owner's waiters arrive first, yet the heavy owner is served until it holds its share
+        List<Object> grants = new CopyOnWriteArrayList<>();
+        List<Thread> waiters = new ArrayList<>();
+        for (Object owner : List.of(light, light, heavy, heavy)) {
+            int weight = owner == heavy ? 2 : 1;
+            waiters.add(Thread.ofVirtual().start(() -> {
+                try {
+                    limiter.acquire(url, owner, weight);
+                    grants.add(owner);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            await().atMost(5, TimeUnit.SECONDS).until(() -> limiter.queuedWorkers() == waiters.size());
+        }
+
+        for (int i = 0; i < 3; i++) {
+            held.get(i).close();
+            int expected = i + 1;
+            await().atMost(5, TimeUnit.SECONDS).until(() -> grants.size() == expected);
+        }
+        assertEquals(List.of(heavy, heavy, light), grants);
+        assertEquals(1, limiter.queuedWorkers());
+        waiters.forEach(Thread::interrupt);
+    }
+}
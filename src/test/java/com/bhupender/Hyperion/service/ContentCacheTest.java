@@ -0,0 +1,67 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntries() throws Exception {
+        ContentCache cache = new ContentCache(directory.resolve("cache").toString(), 2500);
+        cache.store(metadata("a", 1000), download("a", 1000), null);
+        cache.store(metadata("b", 1000), download("b", 1000), null);
+        assertNotNull(cache.get("http://example.com/a"));
+
+        cache.store(metadata("c", 1000), download("c", 1000), null);
+
+        assertNotNull(cache.get("http://example.com/a"));
+        assertNull(cache.get("http://example.com/b"), "b was used least recently");
+        assertNotNull(cache.get("http://example.com/c"));
+        assertEquals(2000, cache.getTotalBytes());
+        assertTrue(Files.exists(directory.resolve("b")), "Evicting an entry keeps the delivered file");
+    }
+
+    @Test
+    public void testReloadsIndexAfterRestart() throws Exception {
+        ContentCache cache = new ContentCache(directory.resolve("cache").toString(), 10_000);
+        Path file = download("a", 1000);
+        cache.store(metadata("a", 1000), file, Checksum.parse("crc32c:0000002a"));
+        cache.save();
+
+        ContentCache reloaded = new ContentCache(directory.resolve("cache").toString(), 10_000);
+        reloaded.load();
+
+        ContentCache.Entry entry = reloaded.get("http://example.com/a");
+        assertNotNull(entry);
+        assertTrue(entry.matches(metadata("a", 1000)));
+        assertFalse(entry.matches(new ResourceMetadata("http://example.com/a", 1000, true, "\"other\"", null)));
+        assertEquals(Checksum.parse("crc32c:0000002a"), entry.checksum());
+        assertEquals("http://example.com/a", reloaded.ownerOf(file));
+        assertEquals(1000, reloaded.getTotalBytes());
+    }
+
+    @Test
+    public void testDoesNotCacheFilesWithoutValidator() throws Exception {
+        ContentCache cache = new ContentCache(directory.resolve("cache").toString(), 10_000);
+
+        cache.store(new ResourceMetadata("http://example.com/a", 1000, true, null, null), download("a", 1000), null);
+
+        assertNull(cache.get("http://example.com/a"));
+    }
+
+    private ResourceMetadata metadata(String name, long length) {
+        return new ResourceMetadata("http://example.com/" + name, length, true, "\"" + name + "\"", null);
+    }
+
+    private Path download(String name, int length) throws Exception {
+        return Files.write(directory.resolve(name), new byte[length]);
+    }
+}
@@ -0,0 +1,754 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.dto.DownloadTaskFactory;
+import com.bhupender.Hyperion.dto.DownloadTaskFactoryImpl;
+import com.bhupender.Hyperion.dto.EventLoopDownloadTaskFactory;
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
+import com.bhupender.Hyperion.dto.QueueEntry;
+import com.bhupender.Hyperion.dto.SourceStatus;
+import com.bhupender.Hyperion.dto.SubmissionStatus;
+import com.bhupender.Hyperion.support.RangeHttpServer;
+import com.bhupender.Hyperion.transport.EventLoopGroup;
+import com.bhupender.Hyperion.transport.HttpClientTransport;
+import com.github.luben.zstd.ZstdOutputStream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs real downloads against a local {@link RangeHttpServer}.
+ */
+public class DownloadEndToEndTest {
+
+    @TempDir
+    Path downloadDirectory;
+
+    private RangeHttpServer server;
+    private ExecutorService executor;
+    private DownloadService downloadService;
+    private SimpleMeterRegistry registry;
+    private RetryPolicy retryPolicy;
+    private EventLoopGroup loops;
+    private EventLoopDownloadTaskFactory eventLoopFactory;
+    private long idleTimeoutMs = 5000;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new RangeHttpServer();
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        retryPolicy = new RetryPolicy(5, 10, 100, 0.2, 5, 0.25, 1000);
+        downloadService = createService(4);
+    }
+
+    private DownloadService createService(int connectionsPerHost) throws Exception {
+        return createService(connectionsPerHost, false);
+    }
+
+    private DownloadService createService(int connectionsPerHost, boolean eventLoops) throws Exception {
+        HttpClientTransport transport = new HttpClientTransport(true, 5000, idleTimeoutMs);
+        registry = new SimpleMeterRegistry();
+        DownloadMetrics metrics = new DownloadMetrics(registry);
+        BufferPool bufferPool = new BufferPool(16 * 1024, 8);
+        DownloadTaskFactory taskFactory = new DownloadTaskFactoryImpl(transport, bufferPool, metrics, retryPolicy);
+        if (eventLoops) {
+            loops = new EventLoopGroup(2);
+            eventLoopFactory = new EventLoopDownloadTaskFactory(transport, bufferPool, metrics, retryPolicy, loops, executor, 16 * 1024, 2, 5000, idleTimeoutMs);
+            taskFactory = eventLoopFactory;
+        }
+        downloadService = new DownloadService(taskFactory,
+                new BandwidthLimiter(0, 0), new ConnectionLimiter(connectionsPerHost, 64), new ResourceProbe(transport, 16, 60),
+                executor, metrics, new ContentCache(downloadDirectory.resolve(".cache").toString(), 64L << 20));
+        setField("chunkSize", 65536);
+        setField("parallelism", 4);
+        setField("downloadDirectory", downloadDirectory.toString());
+        setField("preallocate", true);
+        setField("journalEnabled", true);
+        return downloadService;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+        if (loops != null) {
+            eventLoopFactory.close();
+            loops.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void testDownloadsFileInParallelRanges() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(3_000_000, 7);
+        String url = server.serve("/data/file.bin", content);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("file.bin")));
+        assertEquals(content.length, downloadService.getProgress(url).downloadedBytes());
+    }
+
+    @Test
+    public void testRecordsMetrics() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(1_000_000, 13);
+        String url = server.serve("/metered.bin", content);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertEquals(content.length, registry.get("hyperion.download.bytes").functionCounter().count());
+        long ranges = registry.get("hyperion.chunk.duration").timer().count();
+        assertTrue(ranges >= 4, "At least one range per worker");
+        assertEquals(ranges, registry.get("hyperion.chunk.ttfb").timer().count());
+        assertEquals(1, registry.get("hyperion.download.finalize").timer().count());
+        assertEquals(1, registry.get("hyperion.downloads").tag("state", "completed").gauge().value());
+        assertEquals(0, registry.find("hyperion.download.throughput").gauges().size(), "Finished downloads are no longer published");
+    }
+
+    @Test
+    public void testQueuesDownloadsBeyondActiveLimit() throws Exception {
+        setField("maxActiveDownloads", 1);
+        server.setDelayPerWriteMillis(20);
+        byte[] first = RangeHttpServer.randomBytes(1_000_000, 14);
+        byte[] second = RangeHttpServer.randomBytes(200_000, 15);
+        byte[] urgent = RangeHttpServer.randomBytes(200_000, 16);
+        String firstUrl = server.serve("/first.bin", first);
+        String secondUrl = server.serve("/second.bin", second);
+        String droppedUrl = server.serve("/dropped.bin", RangeHttpServer.randomBytes(200_000, 17));
+        String urgentUrl = server.serve("/urgent.bin", urgent);
+
+        downloadService.downloadFile(firstUrl, 0);
+        downloadService.downloadFile(secondUrl, 0);
+        downloadService.downloadFile(droppedUrl, 0);
+        downloadService.downloadFile(urgentUrl, 0, DownloadPriority.HIGH);
+
+        assertEquals("RUNNING", downloadService.getProgress(firstUrl).state());
+        assertEquals("QUEUED", downloadService.getProgress(secondUrl).state());
+        assertEquals(List.of(firstUrl, urgentUrl, secondUrl, droppedUrl), queuedUrls());
+
+        assertTrue(downloadService.cancelDownload(droppedUrl));
+        assertNull(downloadService.getProgress(droppedUrl));
+        assertTrue(downloadService.setPriority(urgentUrl, DownloadPriority.LOW));
+        assertEquals(List.of(firstUrl, secondUrl, urgentUrl), queuedUrls());
+
+        awaitCompletion(urgentUrl);
+        assertEquals("COMPLETED", downloadService.getProgress(firstUrl).state());
+        assertEquals("COMPLETED", downloadService.getProgress(secondUrl).state());
+        assertArrayEquals(first, Files.readAllBytes(downloadDirectory.resolve("first.bin")));
+        assertArrayEquals(second, Files.readAllBytes(downloadDirectory.resolve("second.bin")));
+        assertArrayEquals(urgent, Files.readAllBytes(downloadDirectory.resolve("urgent.bin")));
+        assertFalse(Files.exists(downloadDirectory.resolve("dropped.bin")));
+    }
+
+    @Test
+    public void testConcurrentRequestsForTheSameUrlShareOneDownload() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(1_000_000, 19);
+        String url = server.serve("/shared.bin", content);
+        server.setDelayPerWriteMillis(5);
+
+        List<Future<SubmissionResult>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> downloadService.downloadFile(url, 0)));
+        }
+        List<SubmissionResult> outcomes = new ArrayList<>();
+        for (Future<SubmissionResult> result : results) {
+            outcomes.add(result.get(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, outcomes.stream().filter(outcome -> outcome == SubmissionResult.STARTED).count());
+        assertEquals(7, outcomes.stream().filter(outcome -> outcome == SubmissionResult.ATTACHED).count());
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("shared.bin")));
+        assertTrue(server.getBytesServed() < 2L * content.length, "The file is fetched once");
+    }
+
+    @Test
+    public void testBatchReportsStatusPerUrl() throws Exception {
+        setField("maxActiveDownloads", 1);
+        byte[] first = RangeHttpServer.randomBytes(300_000, 20);
+        byte[] second = RangeHttpServer.randomBytes(300_000, 21);
+        String firstUrl = server.serve("/batch-1.bin", first);
+        String secondUrl = server.serve("/batch-2.bin", second);
+        String missingUrl = server.url("/missing.bin");
+
+        List<SubmissionStatus> statuses = downloadService.downloadFiles(
+                List.of(firstUrl, secondUrl, firstUrl, missingUrl), 0, DownloadPriority.NORMAL);
+
+        assertEquals(List.of(firstUrl, secondUrl, firstUrl, missingUrl), statuses.stream().map(SubmissionStatus::url).toList());
+        assertEquals(List.of("STARTED", "QUEUED", "ATTACHED", "FAILED"), statuses.stream().map(SubmissionStatus::status).toList());
+        assertNotNull(statuses.get(3).message());
+        awaitCompletion(firstUrl);
+        awaitCompletion(secondUrl);
+        assertArrayEquals(second, Files.readAllBytes(downloadDirectory.resolve("batch-2.bin")));
+    }
+
+    @Test
+    public void testForgetsFinishedDownloadsAfterRetention() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(300_000, 51);
+        String url = server.serve("/retained.bin", content);
+        setField("retentionSeconds", 3600L);
+
+        downloadService.downloadFile(url, 0);
+        awaitCompletion(url);
+        downloadService.evictFinished();
+        assertNotNull(downloadService.getProgress(url), "Kept within the retention period");
+
+        setField("retentionSeconds", 0L);
+        downloadService.evictFinished();
+        assertNull(downloadService.getProgress(url));
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("retained.bin")), "Only the entry is forgotten");
+    }
+
+    @Test
+    public void testCancelDeletesPartialDownload() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 18);
+        String url = server.serve("/cancelled.bin", content);
+        server.setDelayPerWriteMillis(10);
+
+        downloadService.downloadFile(url, 0);
+        await().atMost(30, TimeUnit.SECONDS).until(() -> downloadService.getProgress(url).downloadedBytes() > 0);
+        downloadService.pauseDownload(url);
+
+        assertTrue(downloadService.cancelDownload(url));
+        assertEquals("CANCELLED", downloadService.getProgress(url).state());
+        assertFalse(Files.exists(downloadDirectory.resolve("cancelled.bin")));
+        assertFalse(Files.exists(downloadDirectory.resolve("cancelled.bin" + DownloadJournal.SUFFIX)));
+        assertFalse(downloadService.cancelDownload(url));
+    }
+
+    @Test
+    public void testVerifiesDownloadAgainstCallerChecksum() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(1_500_000, 19);
+        String goodUrl = server.serve("/verified.bin", content);
+        String badUrl = server.serve("/mismatch.bin", content);
+        String sha256 = RangeHttpServer.sha256(content, 0, content.length);
+
+        downloadService.downloadFile(goodUrl, 0, DownloadPriority.NORMAL, Checksum.parse("sha-256:" + sha256));
+        downloadService.downloadFile(badUrl, 0, DownloadPriority.NORMAL, Checksum.parse("crc32c:00000000"));
+
+        awaitCompletion(goodUrl);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("verified.bin")));
+        awaitState(badUrl, "FAILED");
+        assertFalse(Files.exists(downloadDirectory.resolve("mismatch.bin")), "A file that fails verification is removed");
+    }
+
+    @Test
+    public void testVerifiesCrc32cAdvertisedByServer() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(1_200_000, 20);
+        String url = server.serve("/advertised.bin", content);
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        server.setHeader("x-goog-hash", "crc32c=" + Base64.getEncoder().encodeToString(Checksum.crc32c((int) crc.getValue()).value()));
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("advertised.bin")));
+    }
+
+    @Test
+    public void testRefetchesRangeThatFailsItsContentDigest() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(1_000_000, 21);
+        String url = server.serve("/digested.bin", content);
+        server.setContentDigests(true);
+        server.corruptResponses(2);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("digested.bin")));
+        assertEquals(2, registry.get("hyperion.chunk.failures").counter().count());
+    }
+
+    @Test
+    public void testServesUnchangedFileFromCache() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(1_000_000, 22);
+        String url = server.serve("/cached.bin", content);
+        Path file = downloadDirectory.resolve("cached.bin");
+        assertEquals(SubmissionResult.STARTED, downloadService.downloadFile(url, 0));
+        awaitCompletion(url);
+        int requests = server.getRequestCount();
+        long served = server.getBytesServed();
+        Files.delete(file);
+
+        assertEquals(SubmissionResult.CACHED, downloadService.downloadFile(url, 0));
+
+        assertEquals("COMPLETED", downloadService.getProgress(url).state());
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertEquals(requests + 1, server.getRequestCount(), "Only a conditional HEAD");
+        assertEquals(served, server.getBytesServed());
+
+        // A new version replaces the cached one
+        byte[] changed = RangeHttpServer.randomBytes(1_000_000, 23);
+        server.serve("/cached.bin", changed);
+        assertEquals(SubmissionResult.STARTED, downloadService.downloadFile(url, 0));
+        awaitCompletion(url);
+        assertArrayEquals(changed, Files.readAllBytes(file));
+        assertEquals(SubmissionResult.CACHED, downloadService.downloadFile(url, 0));
+    }
+
+    @Test
+    public void testDownloadsAgainWhenCachedContentWasModified() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(300_000, 53);
+        String url = server.serve("/tampered.bin", content);
+        Path file = downloadDirectory.resolve("tampered.bin");
+        downloadService.downloadFile(url, 0);
+        awaitCompletion(url);
+        assertFalse(Files.getPosixFilePermissions(file).contains(PosixFilePermission.OWNER_WRITE), "Cached content is read-only");
+
+        // Someone makes it writable again and changes the content the cache shares
+        assertTrue(file.toFile().setWritable(true));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 0);
+        }
+
+        assertEquals(SubmissionResult.STARTED, downloadService.downloadFile(url, 0));
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void testKeepsFilesOfDifferentUrlsWithTheSameName() throws Exception {
+        byte[] first = RangeHttpServer.randomBytes(300_000, 24);
+        byte[] second = RangeHttpServer.randomBytes(300_000, 25);
+        String firstUrl = server.serve("/one/same.bin", first);
+        String secondUrl = server.serve("/two/same.bin", second);
+
+        downloadService.downloadFile(firstUrl, 0);
+        awaitCompletion(firstUrl);
+        downloadService.downloadFile(secondUrl, 0);
+        awaitCompletion(secondUrl);
+
+        assertArrayEquals(first, Files.readAllBytes(downloadDirectory.resolve("same.bin")));
+        try (var files = Files.list(downloadDirectory)) {
+            Path other = files.filter(path -> path.getFileName().toString().matches("same-[0-9a-f]+\\.bin")).findFirst().orElseThrow();
+            assertArrayEquals(second, Files.readAllBytes(other));
+        }
+    }
+
+    private List<String> queuedUrls() {
+        return downloadService.getQueue().stream().map(QueueEntry::url).toList();
+    }
+
+    @Test
+    public void testDownloadsFileThroughPartFiles() throws Exception {
+        setField("preallocate", false);
+        byte[] content = RangeHttpServer.randomBytes(1_000_000, 8);
+        String url = server.serve("/parts.bin", content);
+        server.setDelayPerWriteMillis(2);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("parts.bin")));
+    }
+
+    @Test
+    public void testFallsBackToSingleStreamWithoutRangeSupport() throws Exception {
+        server.setRangesSupported(false);
+        byte[] content = RangeHttpServer.randomBytes(500_000, 9);
+        String url = server.serve("/plain.bin", content);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("plain.bin")));
+        assertEquals(3, server.getRequestCount(), "HEAD, the 0-0 probe and one streaming GET");
+    }
+
+    @Test
+    public void testDetectsFileChangingMidDownload() throws Exception {
+        // With one connection at a time the later ranges are requested after the file has changed
+        createService(1);
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 10);
+        String url = server.serve("/changing.bin", content);
+        server.setDelayPerWriteMillis(5);
+
+        downloadService.downloadFile(url, 0);
+        server.serve("/changing.bin", RangeHttpServer.randomBytes(2_000_000, 11));
+
+        awaitState(url, "FAILED");
+    }
+
+    @Test
+    public void testResumesFromJournalAfterRestart() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 12);
+        String url = server.serve("/resumable.bin", content);
+        server.setDelayPerWriteMillis(5);
+
+        downloadService.downloadFile(url, 0);
+        await().atMost(30, TimeUnit.SECONDS).until(() -> downloadService.getProgress(url).downloadedBytes() > content.length / 3);
+        downloadService.checkpointAll();
+        Path journal = downloadDirectory.resolve("resumable.bin" + DownloadJournal.SUFFIX);
+        assertTrue(Files.exists(journal));
+
+        // Simulate a crash: the workers die and a new service starts from what is on disk
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        createService(4);
+        long servedBeforeRestart = server.getBytesServed();
+        server.setDelayPerWriteMillis(0);
+
+        downloadService.resumeInterruptedDownloads();
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("resumable.bin")));
+        assertTrue(server.getBytesServed() - servedBeforeRestart < content.length, "Only missing ranges should be fetched again");
+        assertFalse(Files.exists(journal), "The journal is removed once the download is complete");
+    }
+
+    @Test
+    public void testDiscardsJournalOfTruncatedFile() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 52);
+        String url = server.serve("/truncated.bin", content);
+        server.setDelayPerWriteMillis(5);
+
+        downloadService.downloadFile(url, 0, DownloadPriority.HIGH);
+        await().atMost(30, TimeUnit.SECONDS).until(() -> downloadService.getProgress(url).downloadedBytes() > content.length / 3);
+        downloadService.checkpointAll();
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        try (FileChannel file = FileChannel.open(downloadDirectory.resolve("truncated.bin"), StandardOpenOption.WRITE)) {
+            file.truncate(content.length / 2);
+        }
+        createService(4);
+        long servedBeforeRestart = server.getBytesServed();
+        server.setDelayPerWriteMillis(0);
+
+        downloadService.resumeInterruptedDownloads();
+
+        assertEquals("HIGH", downloadService.getQueue().get(0).priority(), "The priority survives the restart");
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("truncated.bin")));
+        assertTrue(server.getBytesServed() - servedBeforeRestart >= content.length, "The whole file is fetched again");
+    }
+
+    @Test
+    public void testSpreadsRangesOverMirrorsAndDropsBadOnes() throws Exception {
+        setField("mirrorMaxFailures", 3);
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 41);
+        String url = server.serve("/mirrored.bin", content);
+        try (RangeHttpServer good = new RangeHttpServer();
+             RangeHttpServer failing = new RangeHttpServer();
+             RangeHttpServer other = new RangeHttpServer()) {
+            String goodUrl = good.serve("/mirrored.bin", content);
+            String failingUrl = failing.serve("/mirrored.bin", content);
+            failing.failRequests(Integer.MAX_VALUE);
+            String otherUrl = other.serve("/mirrored.bin", RangeHttpServer.randomBytes(content.length, 42));
+
+            downloadService.downloadFile(url, List.of(goodUrl, failingUrl, otherUrl), 0, DownloadPriority.NORMAL, null);
+
+            awaitCompletion(url);
+            assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("mirrored.bin")));
+            List<SourceStatus> sources = downloadService.getSources(url);
+            assertEquals(List.of(url, goodUrl, failingUrl), sources.stream().map(SourceStatus::url).toList(),
+                    "A mirror with another ETag is never used");
+            assertEquals("LIVE", sources.get(0).state());
+            assertEquals("LIVE", sources.get(1).state());
+            assertEquals("DROPPED", sources.get(2).state());
+            assertTrue(sources.get(1).bytes() > 0, "The good mirror served ranges");
+            assertEquals(content.length, sources.stream().mapToLong(SourceStatus::bytes).sum());
+        }
+    }
+
+    @Test
+    public void testResumesFailedRangesFromLastByte() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(3_000_000, 43);
+        String url = server.serve("/flaky.bin", content);
+        server.failRequests(1);
+        server.truncateResponses(2);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("flaky.bin")));
+        assertTrue(registry.get("hyperion.chunk.retries").counter().count() >= 3);
+        assertTrue(server.getRangeHeaders().stream()
+                        .map(range -> Long.parseLong(range.substring("bytes=".length(), range.indexOf('-'))))
+                        .anyMatch(start -> start % 65536 != 0),
+                "A truncated range continues from its last byte rather than from the start of a block");
+    }
+
+    @Test
+    public void testDownloadsOnEventLoops() throws Exception {
+        createService(4, true);
+        byte[] content = RangeHttpServer.randomBytes(3_000_000, 45);
+        String url = server.serve("/looped.bin", content);
+        server.failRequests(1);
+        server.truncateResponses(2);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("looped.bin")));
+        assertEquals(content.length, downloadService.getProgress(url).downloadedBytes());
+        assertTrue(registry.get("hyperion.chunk.retries").counter().count() >= 3);
+        assertTrue(server.getConnectionCount() < server.getRequestCount(), "Ranges reuse kept-alive connections");
+    }
+
+    @Test
+    public void testRetriesStalledResponses() throws Exception {
+        idleTimeoutMs = 300;
+        createService(4);
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 46);
+        String url = server.serve("/stalled.bin", content);
+        server.stallResponses(1);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("stalled.bin")));
+        assertTrue(registry.get("hyperion.chunk.retries").counter().count() >= 1);
+    }
+
+    @Test
+    public void testRetriesStalledResponsesOnEventLoops() throws Exception {
+        idleTimeoutMs = 300;
+        createService(4, true);
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 47);
+        String url = server.serve("/stalled.bin", content);
+        server.stallResponses(1);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("stalled.bin")));
+        assertTrue(registry.get("hyperion.chunk.retries").counter().count() >= 1);
+    }
+
+    @Test
+    public void testRefetchesRangeThatFailsItsContentDigestOnEventLoops() throws Exception {
+        createService(4, true);
+        byte[] content = RangeHttpServer.randomBytes(1_000_000, 48);
+        String url = server.serve("/digested.bin", content);
+        server.setContentDigests(true);
+        server.corruptResponses(2);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("digested.bin")));
+        assertEquals(2, registry.get("hyperion.chunk.failures").counter().count());
+        assertEquals(content.length, downloadService.getProgress(url).downloadedBytes());
+    }
+
+    @Test
+    public void testHedgesStragglingRange() throws Exception {
+        retryPolicy = new RetryPolicy(5, 10, 100, 0.2, 5, 0.25, 100);
+        createService(4);
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 44);
+        String url = server.serve("/straggler.bin", content);
+        server.slowResponses(1, 16 * 1024);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("straggler.bin")));
+        assertTrue(registry.get("hyperion.chunk.hedges").counter().count() >= 1);
+    }
+
+    @Test
+    public void testLowersStreamsWhenRangesFail() throws Exception {
+        setField("adaptiveConcurrency", true);
+        setField("concurrencyFloor", 1);
+        setField("concurrencyCeiling", 4);
+        server.setDelayPerWriteMillis(20);
+        byte[] content = RangeHttpServer.randomBytes(1_000_000, 45);
+        String url = server.serve("/adaptive.bin", content);
+        server.truncateResponses(2);
+
+        downloadService.downloadFile(url, 0);
+        downloadService.adjustConcurrency();
+        await().atMost(10, TimeUnit.SECONDS).until(() -> registry.get("hyperion.chunk.retries").counter().count() >= 1);
+        downloadService.adjustConcurrency();
+
+        ProgressSnapshot progress = downloadService.getProgress(url);
+        assertEquals(2, progress.streams());
+        assertEquals("DECREASE", progress.concurrency());
+        assertEquals(1, registry.get("hyperion.concurrency.adjustments").tag("decision", "decrease").counter().count());
+        assertEquals(2, registry.get("hyperion.download.concurrency").tag("host", "127.0.0.1").gauge().value());
+        assertNull(registry.get("hyperion.download.concurrency").gauge().getId().getTag("url"), "URLs are not used as tags");
+        awaitCompletion(url);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("adaptive.bin")));
+    }
+
+    @Test
+    public void testStreamsContentWhileItDownloads() throws Exception {
+        server.setDelayPerWriteMillis(20);
+        byte[] content = RangeHttpServer.randomBytes(1_000_000, 46);
+        String url = server.serve("/streamed.bin", content);
+
+        // Reading starts the download
+        DownloadContent streamed = downloadService.openContent(url);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        List<String> stateAtFirstByte = new ArrayList<>();
+        WritableByteChannel out = Channels.newChannel(new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                if (stateAtFirstByte.isEmpty()) {
+                    stateAtFirstByte.add(downloadService.getProgress(url).state());
+                }
+                received.write(bytes, offset, length);
+            }
+        });
+        try (streamed) {
+            streamed.transferTo(100_000, content.length - 1, out);
+        }
+
+        assertEquals(List.of("RUNNING"), stateAtFirstByte);
+        assertArrayEquals(Arrays.copyOfRange(content, 100_000, content.length), received.toByteArray());
+        awaitCompletion(url);
+        try (DownloadContent finished = downloadService.openContent(url)) {
+            assertTrue(finished.isWritten(0, content.length - 1));
+        }
+    }
+
+    @Test
+    public void testDecompressesArchivesWhileTheyDownload() throws Exception {
+        setField("extractArchives", true);
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 46);
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(content);
+        }
+        ByteArrayOutputStream zstd = new ByteArrayOutputStream();
+        try (OutputStream out = new ZstdOutputStream(zstd)) {
+            out.write(content);
+        }
+        String gzipUrl = server.serve("/data.bin.gz", gzip.toByteArray());
+        String zstdUrl = server.serve("/data.txt.zst", zstd.toByteArray());
+
+        downloadService.downloadFile(gzipUrl, 0);
+        downloadService.downloadFile(zstdUrl, 0);
+
+        awaitCompletion(gzipUrl);
+        awaitCompletion(zstdUrl);
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("data.bin")));
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("data.txt")));
+        assertArrayEquals(gzip.toByteArray(), Files.readAllBytes(downloadDirectory.resolve("data.bin.gz")), "The archive is kept");
+    }
+
+    @Test
+    public void testExtractsOnlyVerifiedRanges() throws Exception {
+        setField("extractArchives", true);
+        byte[] content = RangeHttpServer.randomBytes(2_000_000, 50);
+        ByteArrayOutputStream zstd = new ByteArrayOutputStream();
+        try (OutputStream out = new ZstdOutputStream(zstd)) {
+            out.write(content);
+        }
+        String url = server.serve("/verified.bin.zst", zstd.toByteArray());
+        server.setContentDigests(true);
+        server.corruptResponses(2);
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        assertEquals(2, registry.get("hyperion.chunk.failures").counter().count());
+        assertArrayEquals(content, Files.readAllBytes(downloadDirectory.resolve("verified.bin")));
+    }
+
+    @Test
+    public void testExtractsNextToFilesItDoesNotOwn() throws Exception {
+        setField("extractArchives", true);
+        byte[] plain = RangeHttpServer.randomBytes(300_000, 48);
+        byte[] content = RangeHttpServer.randomBytes(300_000, 49);
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(content);
+        }
+        String plainUrl = server.serve("/shared.bin", plain);
+        String gzipUrl = server.serve("/shared.bin.gz", gzip.toByteArray());
+
+        downloadService.downloadFile(plainUrl, 0);
+        awaitCompletion(plainUrl);
+        downloadService.downloadFile(gzipUrl, 0);
+        awaitCompletion(gzipUrl);
+
+        assertArrayEquals(plain, Files.readAllBytes(downloadDirectory.resolve("shared.bin")), "The other download is kept");
+        try (var files = Files.list(downloadDirectory)) {
+            Path extracted = files.filter(path -> path.getFileName().toString().matches("shared-[0-9a-f]+\\.bin")).findFirst().orElseThrow();
+            assertArrayEquals(content, Files.readAllBytes(extracted));
+        }
+    }
+
+    @Test
+    public void testUnpacksZipWhileItDownloads() throws Exception {
+        setField("extractArchives", true);
+        byte[] first = RangeHttpServer.randomBytes(1_500_000, 47);
+        byte[] second = RangeHttpServer.randomBytes(500_000, 48);
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("bin/first.bin"));
+            out.write(first);
+            out.putNextEntry(new ZipEntry("second.bin"));
+            out.write(second);
+        }
+        String url = server.serve("/bundle.zip", zip.toByteArray());
+
+        downloadService.downloadFile(url, 0);
+
+        awaitCompletion(url);
+        Path unpacked = downloadDirectory.resolve("bundle");
+        assertArrayEquals(first, Files.readAllBytes(unpacked.resolve("bin/first.bin")));
+        assertArrayEquals(second, Files.readAllBytes(unpacked.resolve("second.bin")));
+        assertFalse(Files.exists(downloadDirectory.resolve("bundle.extracting")));
+    }
+
+    private void awaitCompletion(String url) {
+        awaitState(url, "COMPLETED");
+    }
+
+    private void awaitState(String url, String state) {
+        await().atMost(30, TimeUnit.SECONDS).until(() -> {
+            ProgressSnapshot progress = downloadService.getProgress(url);
+            return progress != null && state.equals(progress.state());
+        });
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = DownloadService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(downloadService, value);
+    }
+}
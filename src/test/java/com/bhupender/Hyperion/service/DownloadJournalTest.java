@@ -0,0 +1,73 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DownloadJournalTest {
+
+    private static final long BLOCK = 1000;
+
+    @TempDir
+    Path directory;
+
+    private final ResourceMetadata metadata = new ResourceMetadata("http://example.com/file.bin", 10_500, true, "\"abc\"", null);
+
+    @Test
+    public void testOnlyCheckpointedBlocksAreDurable() throws Exception {
+        Path target = directory.resolve("file.bin");
+        DownloadTarget downloadTarget = mock(DownloadTarget.class);
+
+        try (DownloadJournal journal = DownloadJournal.create(target, metadata, BLOCK, 5000, DownloadPriority.HIGH,
+                List.of("http://mirror-a.example.com/file.bin", "http://mirror-b.example.com/file.bin"))) {
+            journal.markWritten(0, 2500);       // blocks 0 and 1, block 2 only partially
+            journal.markWritten(10_000, 10_500); // the short last block
+            assertEquals(List.of(new RangeScheduler.Span(0, 10_499)), journal.missingSpans());
+
+            journal.checkpoint(downloadTarget);
+            verify(downloadTarget).sync();
+            assertEquals(2500, journal.completedBytes());
+        }
+
+        try (DownloadJournal reopened = DownloadJournal.open(directory.resolve("file.bin" + DownloadJournal.SUFFIX))) {
+            assertEquals("http://example.com/file.bin", reopened.getUrl());
+            assertEquals(5000, reopened.getMaxBytesPerSecond());
+            assertEquals(DownloadPriority.HIGH, reopened.getPriority());
+            assertEquals(List.of("http://mirror-a.example.com/file.bin", "http://mirror-b.example.com/file.bin"), reopened.getMirrors());
+            assertTrue(reopened.matches(metadata));
+            assertFalse(reopened.matches(new ResourceMetadata(metadata.url(), 10_500, true, "\"def\"", null)));
+            assertEquals(List.of(new RangeScheduler.Span(2000, 9999)), reopened.missingSpans());
+        }
+    }
+
+    @Test
+    public void testCheckpointWithoutNewBlocksSkipsSync() throws Exception {
+        DownloadTarget downloadTarget = mock(DownloadTarget.class);
+
+        try (DownloadJournal journal = DownloadJournal.create(directory.resolve("file.bin"), metadata, BLOCK, 0)) {
+            journal.checkpoint(downloadTarget);
+            verify(downloadTarget, never()).sync();
+        }
+    }
+
+    @Test
+    public void testSchedulerOnlyFetchesMissingSpans() {
+        RangeScheduler scheduler = RangeScheduler.forSpans(10_500, BLOCK, 4,
+                List.of(new RangeScheduler.Span(2000, 3999), new RangeScheduler.Span(6000, 10_499)));
+
+        long bytes = 0;
+        ByteRange range;
+        while ((range = scheduler.next()) != null) {
+            assertTrue(range.getStart() >= 2000);
+            assertFalse(range.getStart() < 6000 && range.getEnd() >= 4000, "Ranges must not cover durable blocks");
+            bytes += range.remaining();
+            range.claim((int) range.remaining());
+        }
+        assertEquals(2000 + 4500, bytes);
+    }
+}
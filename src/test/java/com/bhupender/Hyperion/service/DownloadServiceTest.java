@@ -2,19 +2,25 @@ package com.bhupender.Hyperion.service;
 
 import com.bhupender.Hyperion.dto.DownloadTask;
 import com.bhupender.Hyperion.dto.DownloadTaskFactory;
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
 import org.awaitility.Awaitility;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.*;
 
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -28,28 +34,38 @@ public class DownloadServiceTest {
     private DownloadTask mockTask;
     private final String testUrl = "http://ipv4.download.thinkbroadband.com/10MB.zip"; // Example URL
 
+    @TempDir
+    Path downloadDirectory;
+
     @BeforeEach
     public void setUp() throws Exception {
         downloadTaskFactory = mock(DownloadTaskFactory.class);
         mockTask = mock(DownloadTask.class);
-        when(downloadTaskFactory.create(anyString(), any(), anyInt(), any(), anyLong(), anyLong(), anyInt())).thenReturn(mockTask);
+        when(downloadTaskFactory.create(any(), any(), anyInt())).thenReturn(mockTask);
 
-        downloadService = spy(new DownloadService(downloadTaskFactory));
+        downloadService = spy(new DownloadService(downloadTaskFactory, new BandwidthLimiter(0, 0),
+                new ConnectionLimiter(6, 64), mock(ResourceProbe.class), mock(ExecutorService.class),
+                new DownloadMetrics(new SimpleMeterRegistry()), new ContentCache("downloads/.cache", 0)));
 
-        // Use reflection to mock getContentLength method
-        Method getContentLengthMethod = DownloadService.class.getDeclaredMethod("getContentLength", String.class);
-        getContentLengthMethod.setAccessible(true);
-        doReturn(2000000L).when(downloadService).getContentLength(anyString()); // 2MB for example
+        doAnswer(invocation -> new ResourceMetadata(invocation.getArgument(0), 2000000L, true, null, null))
+                .when(downloadService).probe(anyString()); // 2MB for example
 
         // Use reflection to set chunkSize
         Field chunkSizeField = DownloadService.class.getDeclaredField("chunkSize");
         chunkSizeField.setAccessible(true);
         chunkSizeField.set(downloadService, 1048576); // 1MB
 
-        // Use reflection to set executor
-        Field executorField = DownloadService.class.getDeclaredField("executor");
-        executorField.setAccessible(true);
-        executorField.set(downloadService, mock(ExecutorService.class));
+        Field parallelismField = DownloadService.class.getDeclaredField("parallelism");
+        parallelismField.setAccessible(true);
+        parallelismField.set(downloadService, 8);
+
+        Field downloadDirectoryField = DownloadService.class.getDeclaredField("downloadDirectory");
+        downloadDirectoryField.setAccessible(true);
+        downloadDirectoryField.set(downloadService, downloadDirectory.toString());
+
+        Field preallocateField = DownloadService.class.getDeclaredField("preallocate");
+        preallocateField.setAccessible(true);
+        preallocateField.set(downloadService, true);
     }
 
     @Test
@@ -62,11 +78,14 @@ public class DownloadServiceTest {
 
         verify(executorService, times(2)).submit(any(DownloadTask.class)); // For 2 chunks
 
+        ArgumentCaptor<Download> downloadCaptor = ArgumentCaptor.forClass(Download.class);
+        verify(downloadTaskFactory, times(2)).create(downloadCaptor.capture(), any(), anyInt());
+        Download download = downloadCaptor.getValue();
+
         // Simulate progress advancement
         doAnswer(invocation -> {
             logger.info("Simulating progress update...");
-            ConcurrentHashMap<String, Integer> progressMap = (ConcurrentHashMap<String, Integer>) getPrivateField(downloadService, "progressMap");
-            progressMap.put(testUrl + "-0", 100); // Simulate complete progress for chunk 0
+            download.getProgress().add(0, 1048576); // Worker 0 has written its whole first chunk
             return null;
         }).when(mockTask).run();
 
@@ -75,12 +94,39 @@ public class DownloadServiceTest {
 
         // Use Awaitility to wait for progress to advance
         await().atMost(5, TimeUnit.SECONDS).until(() -> {
-            Integer progress = downloadService.getProgress(testUrl + "-0");
-            logger.info("Current progress for {}: {}", testUrl + "-0", progress);
-            return progress != null && progress == 100;
+            ProgressSnapshot progress = downloadService.getProgress(testUrl);
+            logger.info("Current progress for {}: {}", testUrl, progress);
+            return progress != null && progress.downloadedBytes() == 1048576;
         });
 
-        assertTrue(downloadService.getProgress(testUrl + "-0") == 100, "Chunk should be completely downloaded");
+        ProgressSnapshot progress = downloadService.getProgress(testUrl);
+        assertEquals(2000000L, progress.totalBytes());
+        assertEquals(52.4288, progress.percentage(), 0.0001);
+        assertEquals("RUNNING", progress.state());
+    }
+
+    @Test
+    public void testProgressIsTrackedPerDownload() throws Exception {
+        String otherUrl = "http://ipv4.download.thinkbroadband.com/20MB.zip";
+        downloadService.downloadFile(testUrl, 0);
+        downloadService.downloadFile(otherUrl, 0);
+
+        ArgumentCaptor<Download> downloadCaptor = ArgumentCaptor.forClass(Download.class);
+        verify(downloadTaskFactory, times(4)).create(downloadCaptor.capture(), any(), anyInt());
+        Download first = downloadCaptor.getAllValues().get(0);
+        first.getProgress().add(1, 1000);
+
+        assertEquals(1000, downloadService.getProgress(testUrl).downloadedBytes());
+        assertEquals(0, downloadService.getProgress(otherUrl).downloadedBytes());
+    }
+
+    @Test
+    public void testPreallocatesTargetFile() throws Exception {
+        downloadService.downloadFile(testUrl, 0);
+
+        Path target = downloadDirectory.resolve("10MB.zip");
+        assertTrue(Files.exists(target), "Target file should be created up front");
+        assertEquals(2000000L, Files.size(target));
     }
 
     private Object getPrivateField(Object object, String fieldName) throws Exception {
@@ -0,0 +1,111 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.dto.ProgressSnapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ProgressBroadcasterTest {
+
+    private static final String URL = "http://example.com/file.zip";
+
+    private DownloadService downloadService;
+    private ProgressBroadcaster broadcaster;
+
+    @BeforeEach
+    public void setUp() {
+        downloadService = mock(DownloadService.class);
+        broadcaster = new ProgressBroadcaster(downloadService, new ObjectMapper(), 1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        broadcaster.stop();
+    }
+
+    @Test
+    public void testOnePassServesAllSubscribers() throws Exception {
+        when(downloadService.getAllProgress()).thenReturn(List.of(snapshot("RUNNING", 100)));
+        List<CollectingSink> sinks = List.of(new CollectingSink(), new CollectingSink(), new CollectingSink());
+        sinks.forEach(sink -> broadcaster.subscribe(URL, 0, sink));
+        CollectingSink all = new CollectingSink();
+        broadcaster.subscribe(null, 0, all);
+
+        broadcaster.publish();
+
+        verify(downloadService, times(1)).getAllProgress();
+        for (CollectingSink sink : sinks) {
+            await().atMost(5, TimeUnit.SECONDS).until(() -> sink.updates.size() == 1);
+            assertTrue(sink.updates.get(0).contains("\"downloadedBytes\":100"));
+        }
+        await().atMost(5, TimeUnit.SECONDS).until(() -> all.updates.size() == 1);
+        assertTrue(all.updates.get(0).startsWith("["));
+    }
+
+    @Test
+    public void testSkipsUnchangedProgressAndCompletesFinishedDownloads() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        broadcaster.subscribe(URL, 0, sink);
+
+        when(downloadService.getAllProgress()).thenReturn(List.of(snapshot("RUNNING", 100)));
+        broadcaster.publish();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> sink.updates.size() == 1);
+        Thread.sleep(5);
+        broadcaster.publish();
+
+        when(downloadService.getAllProgress()).thenReturn(List.of(snapshot("COMPLETED", 1000)));
+        Thread.sleep(5);
+        broadcaster.publish();
+
+        await().atMost(5, TimeUnit.SECONDS).until(sink.completed::get);
+        assertEquals(2, sink.updates.size(), "The unchanged second pass is not sent");
+        assertTrue(sink.updates.get(1).contains("COMPLETED"));
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    public void testCompletesCancelledAndVanishedDownloads() throws Exception {
+        CollectingSink cancelled = new CollectingSink();
+        broadcaster.subscribe(URL, 0, cancelled);
+        CollectingSink vanished = new CollectingSink();
+        broadcaster.subscribe("http://example.com/gone.zip", 0, vanished);
+
+        when(downloadService.getAllProgress()).thenReturn(List.of(snapshot("CANCELLED", 100)));
+        broadcaster.publish();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> cancelled.completed.get() && vanished.completed.get());
+        assertEquals(1, cancelled.updates.size());
+        assertTrue(cancelled.updates.get(0).contains("CANCELLED"));
+        assertTrue(vanished.updates.isEmpty(), "Nothing is known about a download that is gone");
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    private static ProgressSnapshot snapshot(String state, long downloaded) {
+        return new ProgressSnapshot(URL, state, 1000, downloaded, downloaded / 10.0, 0, -1, 1, "START");
+    }
+
+    private static class CollectingSink implements ProgressBroadcaster.ProgressSink {
+        final List<String> updates = new CopyOnWriteArrayList<>();
+        final AtomicBoolean completed = new AtomicBoolean();
+
+        @Override
+        public void send(String json) {
+            updates.add(json);
+        }
+
+        @Override
+        public void complete() {
+            completed.set(true);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeSchedulerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testInitialRangesCoverWholeFile() {
+        RangeScheduler scheduler = new RangeScheduler(10 * MB + 5, MB, 4);
+
+        assertEquals(4, scheduler.getInitialRangeCount());
+        long expectedStart = 0;
+        for (int i = 0; i < 4; i++) {
+            ByteRange range = scheduler.next();
+            assertEquals(expectedStart, range.getStart());
+            assertEquals(0, range.getStart() % MB, "Ranges should start on a block boundary");
+            expectedStart = range.getEnd() + 1;
+        }
+        assertEquals(10 * MB + 5, expectedStart);
+    }
+
+    @Test
+    public void testIdleWorkerStealsTailOfLargestRange() {
+        RangeScheduler scheduler = new RangeScheduler(8 * MB, MB, 2);
+        ByteRange first = scheduler.next();
+        ByteRange second = scheduler.next();
+
+        // The first worker finishes quickly while the second has barely started
+        first.claim((int) first.remaining());
+        assertFalse(scheduler.finish(first));
+        second.claim((int) MB);
+
+        ByteRange stolen = scheduler.next();
+        assertNotNull(stolen);
+        assertEquals(second.getEnd() + 1, stolen.getStart());
+        assertEquals(8 * MB - 1, stolen.getEnd());
+        assertEquals(7 * MB, stolen.getStart());
+
+        // Bytes beyond the new end of the victim are no longer claimable by it
+        assertEquals(2 * MB, second.claim((int) (3 * MB)));
+        assertTrue(second.isComplete());
+
+        stolen.claim((int) stolen.remaining());
+        assertFalse(scheduler.finish(second));
+        assertTrue(scheduler.finish(stolen));
+        assertTrue(scheduler.isComplete());
+    }
+
+    @Test
+    public void testLargeFileWithSmallChunkSize() {
+        RangeScheduler scheduler = new RangeScheduler(50L * 1024 * MB, MB, 8);
+
+        assertEquals(8, scheduler.getInitialRangeCount());
+        ByteRange last = null;
+        for (int i = 0; i < 8; i++) {
+            last = scheduler.next();
+        }
+        assertEquals(50L * 1024 * MB - 1, last.getEnd());
+    }
+
+    @Test
+    public void testRangesBelowTwoBlocksAreNotSplit() {
+        RangeScheduler scheduler = new RangeScheduler(MB + 10, MB, 4);
+
+        assertEquals(2, scheduler.getInitialRangeCount());
+        scheduler.next();
+        scheduler.next();
+        assertNull(scheduler.next());
+    }
+
+    @Test
+    public void testHedgedCopyThatFinishesFirstWins() throws Exception {
+        RangeScheduler scheduler = new RangeScheduler(2 * MB, MB, 2);
+        ByteRange fast = scheduler.next();
+        ByteRange slow = scheduler.next();
+        fast.claim((int) fast.remaining());
+        assertEquals(0, scheduler.resolveHedge(fast));
+        assertFalse(scheduler.finish(fast));
+        slow.claim(1000);
+        Thread.sleep(5);
+
+        assertNull(scheduler.hedge(0.25, 0, () -> false), "The budget refused");
+        ByteRange copy = scheduler.hedge(0.25, 0, () -> true);
+
+        assertNotNull(copy);
+        assertTrue(scheduler.isHedge(copy));
+        assertEquals(slow.getStart(), copy.getStart(), "The copy starts on the block the original is in");
+        assertEquals(slow.getEnd(), copy.getEnd());
+        assertNull(scheduler.hedge(0.25, 0, () -> true), "A range is hedged only once");
+
+        slow.claim(500);
+        copy.claim((int) copy.remaining());
+        assertEquals(MB - 1500, scheduler.resolveHedge(copy), "The copy fetched what the original had left");
+        assertTrue(slow.isComplete(), "The original stops at its next claim");
+        assertEquals(0, slow.claim(4096));
+        assertTrue(scheduler.finish(copy));
+        assertFalse(scheduler.finish(slow));
+        assertTrue(scheduler.isComplete());
+    }
+}
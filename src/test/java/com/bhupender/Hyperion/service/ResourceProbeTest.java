@@ -0,0 +1,75 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.support.RangeHttpServer;
+import com.bhupender.Hyperion.transport.HttpClientTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResourceProbeTest {
+
+    private RangeHttpServer server;
+    private HttpClientTransport transport;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new RangeHttpServer();
+        transport = new HttpClientTransport(false, 5000, 5000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testProbeIsCached() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(12345, 1);
+        String url = server.serve("/file.bin", content);
+        ResourceProbe probe = new ResourceProbe(transport, 16, 60);
+
+        ResourceMetadata metadata = probe.probe(url);
+        assertEquals(12345, metadata.contentLength());
+        assertTrue(metadata.acceptsRanges());
+        assertEquals(RangeHttpServer.etag(content), metadata.etag());
+        assertEquals(metadata.etag(), metadata.ifRangeValidator());
+
+        assertSame(metadata, probe.probe(url));
+        assertEquals(1, server.getRequestCount(), "Second probe should be served from the cache");
+
+        probe.invalidate(url);
+        probe.probe(url);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testCacheIsBoundedAndExpires() throws Exception {
+        String first = server.serve("/a.bin", new byte[10]);
+        String second = server.serve("/b.bin", new byte[20]);
+        ResourceProbe bounded = new ResourceProbe(transport, 1, 60);
+
+        bounded.probe(first);
+        bounded.probe(second);
+        bounded.probe(first);
+        assertEquals(3, server.getRequestCount(), "Only one entry fits in the cache");
+
+        ResourceProbe expiring = new ResourceProbe(transport, 16, 0);
+        expiring.probe(first);
+        Thread.sleep(5);
+        expiring.probe(first);
+        assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void testDetectsMissingRangeSupport() throws Exception {
+        server.setRangesSupported(false);
+        String url = server.serve("/plain.bin", new byte[500]);
+
+        ResourceMetadata metadata = new ResourceProbe(transport, 16, 60).probe(url);
+
+        assertFalse(metadata.acceptsRanges());
+        assertEquals(500, metadata.contentLength());
+    }
+}
@@ -0,0 +1,36 @@
+package com.bhupender.Hyperion.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testBackoffGrowsWithJitterUpToMaximum() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 1000, 0.2, 100, 0.25, 1000);
+
+        for (int i = 0; i < 20; i++) {
+            long first = policy.backoffMillis(1);
+            long third = policy.backoffMillis(3);
+            long tenth = policy.backoffMillis(10);
+            assertTrue(first >= 50 && first <= 100, "First retry waits half to all of the base delay: " + first);
+            assertTrue(third >= 200 && third <= 400, "Third retry waits half to all of four times the base delay: " + third);
+            assertTrue(tenth >= 500 && tenth <= 1000, "Retries never wait longer than the maximum: " + tenth);
+        }
+    }
+
+    @Test
+    public void testSpentBudgetStopsHedgesAndSlowsRetries() {
+        // A reserve of 0.1 per second holds a single token
+        RetryPolicy policy = new RetryPolicy(5, 100, 1000, 0.5, 0.1, 0.25, 1000);
+
+        assertTrue(policy.tryHedge());
+        assertFalse(policy.tryHedge());
+        assertEquals(1000, policy.backoffMillis(1), "Without budget a retry waits the longest backoff");
+
+        policy.recordRequest();
+        policy.recordRequest();
+        assertTrue(policy.tryHedge(), "Two requests paid for one extra request");
+    }
+}
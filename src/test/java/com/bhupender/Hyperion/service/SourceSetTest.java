@@ -0,0 +1,94 @@
+package com.bhupender.Hyperion.service;
+
+import com.bhupender.Hyperion.dto.SourceStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SourceSetTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testHandsOutConnectionsInProportionToSpeed() {
+        SourceSet sources = new SourceSet(metadata("a", "\"v1\""), List.of(metadata("b", "\"v1\"")), 3, 0.2);
+        for (int i = 0; i < 3; i++) {
+            sources.release(acquire(sources, "http://a.example.com/file"), 8_000_000, SECOND);
+            sources.release(acquire(sources, "http://b.example.com/file"), 4_000_000, SECOND);
+        }
+
+        int fromA = 0;
+        for (int i = 0; i < 6; i++) {
+            if (sources.acquire().getUrl().startsWith("http://a.")) {
+                fromA++;
+            }
+        }
+
+        assertEquals(4, fromA, "A is twice as fast, so it gets twice the connections");
+    }
+
+    @Test
+    public void testDropsSlowAndFailingSources() {
+        SourceSet sources = new SourceSet(metadata("a", "\"v1\""), List.of(metadata("b", "\"v1\""), metadata("c", "\"v1\"")), 2, 0.2);
+        for (int i = 0; i < 3; i++) {
+            sources.release(acquire(sources, "http://a.example.com/file"), 10_000_000, SECOND);
+            sources.release(acquire(sources, "http://b.example.com/file"), 1_000_000, SECOND);
+        }
+        assertEquals("DROPPED", status(sources, "http://b.example.com/file").state());
+
+        SourceSet.Source c = acquire(sources, "http://c.example.com/file");
+        assertTrue(sources.reportFailure(c, new IOException("Connection reset")));
+        assertEquals("LIVE", status(sources, "http://c.example.com/file").state());
+        acquire(sources, "http://c.example.com/file");
+        assertTrue(sources.reportFailure(c, new IOException("Connection reset")));
+        assertEquals("DROPPED", status(sources, "http://c.example.com/file").state());
+
+        SourceSet.Source a = sources.acquire();
+        assertFalse(sources.reportFailure(a, new ResourceChangedException("Length changed")), "No source is left");
+        assertNull(sources.acquire());
+    }
+
+    @Test
+    public void testRejectsMirrorsOfAnotherFile() {
+        ResourceMetadata primary = metadata("a", "\"v1\"");
+
+        assertNull(SourceSet.inconsistency(primary, metadata("b", "\"v1\"")));
+        assertNotNull(SourceSet.inconsistency(primary, metadata("b", "\"v2\"")));
+        assertNotNull(SourceSet.inconsistency(primary, new ResourceMetadata("http://b.example.com/file", 999, true, "\"v1\"", null)));
+        assertNotNull(SourceSet.inconsistency(primary, metadata("b", null)), "Nothing to compare");
+
+        Checksum checksum = Checksum.parse("crc32c:0000002a");
+        ResourceMetadata verified = primary.withChecksum(checksum);
+        assertNull(SourceSet.inconsistency(verified, metadata("b", null)), "The finished file is verified anyway");
+        assertNull(SourceSet.inconsistency(verified, metadata("b", "\"other\"").withChecksum(checksum)));
+        assertNull(SourceSet.inconsistency(verified, metadata("b", "\"other\"")), "Another ETag for the same, verified bytes");
+        assertNotNull(SourceSet.inconsistency(verified, metadata("b", "\"v1\"").withChecksum(Checksum.parse("crc32c:0000002b"))));
+    }
+
+    /**
+     * Acquires connections until one to {@code url} comes up, giving back the others unused.
+     */
+    private static SourceSet.Source acquire(SourceSet sources, String url) {
+        List<SourceSet.Source> others = new ArrayList<>();
+        SourceSet.Source source = sources.acquire();
+        while (!source.getUrl().equals(url)) {
+            others.add(source);
+            source = sources.acquire();
+        }
+        others.forEach(other -> sources.release(other, 0, 0));
+        return source;
+    }
+
+    private static SourceStatus status(SourceSet sources, String url) {
+        return sources.snapshot().stream().filter(status -> status.url().equals(url)).findFirst().orElseThrow();
+    }
+
+    private static ResourceMetadata metadata(String host, String etag) {
+        return new ResourceMetadata("http://" + host + ".example.com/file", 1000, true, etag, null);
+    }
+}
@@ -0,0 +1,319 @@
+package com.bhupender.Hyperion.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP/1.1 server standing in for a download origin in tests. It serves in-memory files,
+ * honours single {@code Range} requests with {@code 206 Partial Content}, answers {@code If-Range}
+ * and {@code If-None-Match} against the ETag derived from the file content and keeps connections alive between requests.
+ * Latency, jitter and per-connection bandwidth can be injected to emulate a remote origin.
+ */
+public class RangeHttpServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private volatile long delayPerWriteMillis;
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile long bytesPerSecond;
+    private volatile boolean rangesSupported = true;
+    private volatile boolean contentDigests;
+    private final Map<String, String> extraHeaders = new ConcurrentHashMap<>();
+    private final AtomicInteger responsesToCorrupt = new AtomicInteger();
+    private final AtomicInteger requestsToFail = new AtomicInteger();
+    private final AtomicInteger responsesToTruncate = new AtomicInteger();
+    private final AtomicInteger responsesToStall = new AtomicInteger();
+    private final Queue<String> rangeHeaders = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger responsesToSlow = new AtomicInteger();
+    private volatile long slowBytesPerSecond;
+
+    public RangeHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Serves {@code content} under {@code path} and returns its absolute URL.
+     */
+    public String serve(String path, byte[] content) {
+        files.put(path, content);
+        return url(path);
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Slows every 16 KB write of a response body down by {@code millis}.
+     */
+    public void setDelayPerWriteMillis(long millis) {
+        this.delayPerWriteMillis = millis;
+    }
+
+    /**
+     * Delays every response by {@code latencyMillis} plus a uniformly random extra of up to
+     * {@code jitterMillis} before its headers are sent.
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Paces every response body to at most {@code bytesPerSecond}; zero or less sends at full speed.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Makes the server ignore {@code Range} headers and always send the whole file.
+     */
+    public void setRangesSupported(boolean rangesSupported) {
+        this.rangesSupported = rangesSupported;
+    }
+
+    /**
+     * Adds {@code name: value} to every response.
+     */
+    public void setHeader(String name, String value) {
+        extraHeaders.put(name, value);
+    }
+
+    /**
+     * Sends a {@code Content-Digest} with the SHA-256 of each response body.
+     */
+    public void setContentDigests(boolean contentDigests) {
+        this.contentDigests = contentDigests;
+    }
+
+    /**
+     * Flips the first byte of the next {@code count} response bodies, leaving their headers intact.
+     */
+    public void corruptResponses(int count) {
+        responsesToCorrupt.set(count);
+    }
+
+    /**
+     * Answers the next {@code count} GET requests with 503 Service Unavailable.
+     */
+    public void failRequests(int count) {
+        requestsToFail.set(count);
+    }
+
+    /**
+     * Closes the connection halfway through the next {@code count} response bodies.
+     */
+    public void truncateResponses(int count) {
+        responsesToTruncate.set(count);
+    }
+
+    /**
+     * Stops sending halfway through the next {@code count} response bodies without closing the
+     * connection, until the server is closed.
+     */
+    public void stallResponses(int count) {
+        responsesToStall.set(count);
+    }
+
+    /**
+     * Sends the next {@code count} response bodies at {@code bytesPerSecond} instead of the configured rate.
+     */
+    public void slowResponses(int count, long bytesPerSecond) {
+        slowBytesPerSecond = bytesPerSecond;
+        responsesToSlow.set(count);
+    }
+
+    public static String etag(byte[] content) {
+        return "\"" + Integer.toHexString(java.util.Arrays.hashCode(content)) + "\"";
+    }
+
+    /**
+     * Range headers of all GET requests so far, in the order they arrived.
+     */
+    public List<String> getRangeHeaders() {
+        return List.copyOf(rangeHeaders);
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Number of response body bytes written so far.
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    /**
+     * Number of distinct client connections seen so far.
+     */
+    public int getConnectionCount() {
+        return clientPorts.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        byte[] content = files.get(exchange.getRequestURI().getPath());
+        if (content == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        if (!"HEAD".equals(exchange.getRequestMethod()) && requestsToFail.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+
+        int start = 0;
+        int end = content.length - 1;
+        int status = 200;
+        String etag = etag(content);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && "GET".equals(exchange.getRequestMethod())) {
+            rangeHeaders.add(range);
+        }
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        boolean honourRange = rangesSupported && (ifRange == null || ifRange.equals(etag));
+        if (range != null && range.startsWith("bytes=") && honourRange) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+            }
+            if (start >= content.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+        exchange.getResponseHeaders().set("Accept-Ranges", rangesSupported ? "bytes" : "none");
+        exchange.getResponseHeaders().set("ETag", etag);
+        extraHeaders.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        if (contentDigests) {
+            exchange.getResponseHeaders().set("Content-Digest", "sha-256=:" + sha256(content, start, end - start + 1) + ":");
+        }
+        if (!head && responsesToCorrupt.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            content = content.clone();
+            content[start] ^= 1;
+        }
+        if (head) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+        }
+        try {
+            delay();
+        } catch (InterruptedException e) {
+            exchange.close();
+            return;
+        }
+        int last = end;
+        if (!head && responsesToTruncate.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            // One byte short of the middle, so the cut never falls on a block boundary. The body is
+            // sent chunked, so that it can end early without the client waiting for the rest.
+            last = start + (end - start) / 2 - 1;
+        }
+        exchange.sendResponseHeaders(status, head ? -1 : last < end ? 0 : end - start + 1);
+
+        if (!head) {
+            boolean stall = responsesToStall.getAndUpdate(count -> Math.max(0, count - 1)) > 0;
+            long rate = responsesToSlow.getAndUpdate(count -> Math.max(0, count - 1)) > 0 ? slowBytesPerSecond : bytesPerSecond;
+            try (OutputStream body = exchange.getResponseBody()) {
+                long startNanos = System.nanoTime();
+                for (int offset = start; offset <= last; offset += 16384) {
+                    if (stall && offset - start >= (end - start) / 2) {
+                        body.flush();
+                        TimeUnit.MINUTES.sleep(10);
+                    }
+                    int length = Math.min(16384, last - offset + 1);
+                    body.write(content, offset, length);
+                    bytesServed.addAndGet(length);
+                    if (delayPerWriteMillis > 0) {
+                        Thread.sleep(delayPerWriteMillis);
+                    }
+                    if (rate > 0) {
+                        // Sleep until the bytes sent so far are due at the configured rate
+                        long dueNanos = startNanos + (offset + length - start) * TimeUnit.SECONDS.toNanos(1) / rate;
+                        TimeUnit.NANOSECONDS.sleep(dueNanos - System.nanoTime());
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client went away, e.g. because its range was split
+            }
+        }
+        exchange.close();
+    }
+
+    public static String sha256(byte[] content, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content, offset, length);
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void delay() throws InterruptedException {
+        long millis = latencyMillis;
+        if (jitterMillis > 0) {
+            millis += ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+        }
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,52 @@
+package com.bhupender.Hyperion.transport;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkedDecoderTest {
+
+    private static final String BODY = "5\r\nhello\r\n7;name=value\r\n, world\r\n0\r\nTrailer: x\r\n\r\n";
+
+    @Test
+    public void testDecodesBodyInOnePiece() throws Exception {
+        ChunkedDecoder decoder = new ChunkedDecoder();
+
+        assertEquals("hello, world", decode(decoder, BODY.getBytes(StandardCharsets.US_ASCII), BODY.length()));
+        assertTrue(decoder.isDone());
+    }
+
+    @Test
+    public void testDecodesBodySplitAnywhere() throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.US_ASCII);
+        for (int piece = 1; piece < body.length; piece++) {
+            ChunkedDecoder decoder = new ChunkedDecoder();
+
+            assertEquals("hello, world", decode(decoder, body, piece), "Pieces of " + piece + " bytes");
+            assertTrue(decoder.isDone());
+        }
+    }
+
+    @Test
+    public void testRejectsMalformedChunkSize() {
+        ChunkedDecoder decoder = new ChunkedDecoder();
+
+        assertThrows(IOException.class, () -> decode(decoder, "x\r\n".getBytes(StandardCharsets.US_ASCII), 3));
+    }
+
+    private static String decode(ChunkedDecoder decoder, byte[] body, int piece) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        for (int offset = 0; offset < body.length; offset += piece) {
+            ByteBuffer buffer = ByteBuffer.allocate(piece).put(body, offset, Math.min(piece, body.length - offset));
+            int count = decoder.decode(buffer);
+            assertEquals(count, buffer.position());
+            decoded.write(buffer.array(), 0, count);
+        }
+        return decoded.toString(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,61 @@
+package com.bhupender.Hyperion.transport;
+
+import com.bhupender.Hyperion.support.RangeHttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpClientTransportTest {
+
+    private RangeHttpServer server;
+    private HttpClientTransport transport;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new RangeHttpServer();
+        transport = new HttpClientTransport(false, 5000, 5000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testRangeRequest() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(100_000, 1);
+        String url = server.serve("/file.bin", content);
+
+        try (TransportResponse response = transport.get(url, Map.of("Range", "bytes=1000-1999"))) {
+            assertEquals(206, response.statusCode());
+            assertEquals("bytes 1000-1999/100000", response.header("Content-Range").orElse(null));
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), Channels.newInputStream(response.body()).readAllBytes());
+        }
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        byte[] content = RangeHttpServer.randomBytes(100_000, 2);
+        String url = server.serve("/file.bin", content);
+
+        for (int i = 0; i < 10; i++) {
+            try (TransportResponse response = transport.get(url, Map.of("Range", "bytes=" + i * 1000 + "-" + (i * 1000 + 999)))) {
+                Channels.newInputStream(response.body()).readAllBytes();
+            }
+        }
+
+        assertEquals(10, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount(), "Sequential requests should share one kept-alive connection");
+
+        RequestCounters counters = transport.getRequestCounters();
+        assertEquals(10, counters.totalRequests());
+        assertEquals(0, counters.activeRequests());
+        assertEquals(10, counters.http1Responses());
+    }
+}